@@ -0,0 +1,308 @@
+package edu.umass.cs.surveyman.analyses;
+
+import edu.umass.cs.surveyman.SurveyMan;
+import edu.umass.cs.surveyman.input.exceptions.SyntaxException;
+import edu.umass.cs.surveyman.qc.SurveyIndex;
+import edu.umass.cs.surveyman.survey.Survey;
+import edu.umass.cs.surveyman.survey.exceptions.SurveyException;
+import edu.umass.cs.surveyman.utils.Throwables;
+import org.supercsv.io.CsvListReader;
+import org.supercsv.prefs.CsvPreference;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.StringReader;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Reads a whole results file (see {@link ResultsReader} for the format) in parallel. The file is memory-mapped and cut
+ * into chunks of about {@link #DEFAULT_CHUNK_SIZE} bytes (or the size given to the constructor) at record boundaries;
+ * each chunk is decoded and parsed on its own thread, and the rows of each response are merged by response id
+ * afterwards, so a response may span chunks and its rows need not be contiguous.
+ *
+ * A newline only ends a record outside a quoted field. Whether a chunk starts inside quotes depends on every byte
+ * before it, so the chunks are found in two passes: the first counts the quote characters in each nominal chunk in
+ * parallel, and the parity of the counts before a chunk then tells where its first record boundary is. This relies on
+ * the file being UTF-8 (or ASCII), where no byte of a multi-byte character can be mistaken for a quote or a newline.
+ */
+public class ParallelResultsReader {
+
+    /**
+     * The number of bytes in a nominal chunk, unless another size is given to the constructor.
+     */
+    public static final int DEFAULT_CHUNK_SIZE = 8 << 20;
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final byte QUOTE = '"';
+    private static final byte NEWLINE = '\n';
+
+    public final SurveyIndex index;
+    private final int chunkSize;
+    private final ForkJoinPool pool;
+    private int rowsRead;
+    private int rowsIgnored;
+    private int rowsMalformed;
+
+    public ParallelResultsReader(Survey survey) {
+        this(new SurveyIndex(survey));
+    }
+
+    public ParallelResultsReader(SurveyIndex index) {
+        this(index, DEFAULT_CHUNK_SIZE);
+    }
+
+    /**
+     * Creates a reader that parses chunks on the common fork/join pool.
+     * @param index The ordinals for the survey the results answer.
+     * @param chunkSize The number of bytes in a nominal chunk.
+     */
+    public ParallelResultsReader(SurveyIndex index, int chunkSize) {
+        this(index, chunkSize, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * @param index The ordinals for the survey the results answer.
+     * @param chunkSize The number of bytes in a nominal chunk.
+     * @param pool The pool that parses chunks.
+     */
+    public ParallelResultsReader(SurveyIndex index, int chunkSize, ForkJoinPool pool) {
+        if (chunkSize <= 0)
+            throw new IllegalArgumentException("Chunk size must be positive.");
+        this.index = index;
+        this.chunkSize = chunkSize;
+        this.pool = pool;
+    }
+
+    /**
+     * The rows of one response found in one chunk.
+     */
+    private static class Group {
+
+        final String srid;
+        final String workerId;
+        final ResultsReader.ResponseBuilder builder;
+
+        Group(String srid, String workerId, SurveyIndex index) {
+            this.srid = srid;
+            this.workerId = workerId;
+            this.builder = new ResultsReader.ResponseBuilder(index);
+        }
+    }
+
+    private interface ChunkBody {
+        void run(int chunk) throws IOException;
+    }
+
+    /**
+     * Runs a body over a range of chunks, splitting the range in halves down to single chunks.
+     */
+    private static class ChunkTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final ChunkBody body;
+        private final int lo;
+        private final int hi;
+
+        ChunkTask(ChunkBody body, int lo, int hi) {
+            this.body = body;
+            this.lo = lo;
+            this.hi = hi;
+        }
+
+        @Override
+        protected void compute() {
+            if (hi - lo > 1) {
+                int mid = (lo + hi) >>> 1;
+                invokeAll(new ChunkTask(body, lo, mid), new ChunkTask(body, mid, hi));
+                return;
+            }
+            try {
+                body.run(lo);
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+
+    private static void forEachChunk(ForkJoinPool pool, int numChunks, ChunkBody body) throws IOException {
+        if (numChunks == 0)
+            return;
+        try {
+            pool.invoke(new ChunkTask(body, 0, numChunks));
+        } catch (RuntimeException e) {
+            IOException cause = Throwables.findCause(e, IOException.class);
+            if (cause != null)
+                throw cause;
+            throw e;
+        }
+    }
+
+    /**
+     * Returns the offset just past the first newline at or after start that is outside quotes, or the end of the
+     * file if there is none.
+     */
+    private long nextRecord(FileChannel channel, long start, boolean inQuotes) throws IOException {
+        long size = channel.size();
+        for (long base = start ; base < size ; base += chunkSize) {
+            long length = Math.min(chunkSize, size - base);
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, base, length);
+            while (buffer.hasRemaining()) {
+                byte b = buffer.get();
+                if (b == QUOTE)
+                    inQuotes = !inQuotes;
+                else if (b == NEWLINE && !inQuotes)
+                    return base + buffer.position();
+            }
+        }
+        return size;
+    }
+
+    private static String decode(FileChannel channel, long start, long end) throws IOException {
+        if (end <= start)
+            return "";
+        return UTF8.decode(channel.map(FileChannel.MapMode.READ_ONLY, start, end - start)).toString();
+    }
+
+    /**
+     * Reads every response in the input file.
+     * @param file A results file.
+     * @return The responses, in the order their first rows appear in the file.
+     * @throws SurveyException if a required column is missing.
+     * @throws IOException
+     */
+    public List<ISurveyResponse> read(File file) throws SurveyException, IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            return read(raf.getChannel());
+        } finally {
+            raf.close();
+        }
+    }
+
+    private List<ISurveyResponse> read(final FileChannel channel) throws SurveyException, IOException {
+        long size = channel.size();
+        final long headerEnd = nextRecord(channel, 0, false);
+        List<String> header = new CsvListReader(new StringReader(decode(channel, 0, headerEnd)),
+                CsvPreference.EXCEL_PREFERENCE).read();
+        if (header == null)
+            throw new SyntaxException("Results file is empty.");
+        final ResultsReader.Columns columns = new ResultsReader.Columns(header);
+
+        // pass 1: the quote parity of every nominal chunk
+        final int numChunks = (int) ((size - headerEnd + chunkSize - 1) / chunkSize);
+        final boolean[] oddQuotes = new boolean[numChunks];
+        forEachChunk(pool, numChunks, new ChunkBody() {
+            @Override
+            public void run(int chunk) throws IOException {
+                long start = headerEnd + (long) chunk * chunkSize;
+                long end = Math.min(channel.size(), start + chunkSize);
+                MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, start, end - start);
+                boolean odd = false;
+                while (buffer.hasRemaining())
+                    if (buffer.get() == QUOTE)
+                        odd = !odd;
+                oddQuotes[chunk] = odd;
+            }
+        });
+        // move every nominal boundary to the next record boundary
+        final long[] boundaries = new long[numChunks + 1];
+        boundaries[0] = headerEnd;
+        boolean inQuotes = false;
+        for (int chunk = 1 ; chunk < numChunks ; chunk++) {
+            inQuotes ^= oddQuotes[chunk - 1];
+            long nominal = headerEnd + (long) chunk * chunkSize;
+            boundaries[chunk] = Math.max(boundaries[chunk - 1], nextRecord(channel, nominal, inQuotes));
+        }
+        boundaries[numChunks] = size;
+
+        // pass 2: parse the chunks
+        final List<List<Group>> groups = new ArrayList<List<Group>>(Collections.nCopies(numChunks, (List<Group>) null));
+        final int[][] counts = new int[numChunks][3];
+        forEachChunk(pool, numChunks, new ChunkBody() {
+            @Override
+            public void run(int chunk) throws IOException {
+                groups.set(chunk, parse(decode(channel, boundaries[chunk], boundaries[chunk + 1]), columns,
+                        counts[chunk]));
+            }
+        });
+
+        // merge the rows of each response across chunks
+        Map<String, Group> merged = new LinkedHashMap<String, Group>();
+        rowsRead = rowsIgnored = rowsMalformed = 0;
+        for (int chunk = 0 ; chunk < numChunks ; chunk++) {
+            rowsRead += counts[chunk][0];
+            rowsIgnored += counts[chunk][1];
+            rowsMalformed += counts[chunk][2];
+            for (Group group : groups.get(chunk)) {
+                Group existing = merged.get(group.srid);
+                if (existing == null)
+                    merged.put(group.srid, group);
+                else existing.builder.addAll(group.builder);
+            }
+        }
+        List<ISurveyResponse> retval = new ArrayList<ISurveyResponse>(merged.size());
+        for (Group group : merged.values())
+            if (!group.builder.isEmpty())
+                retval.add(group.builder.build(group.srid, group.workerId));
+        return retval;
+    }
+
+    /**
+     * Parses the records of one chunk into groups of consecutive rows with the same response id.
+     * @param counts Receives the number of rows read, ignored and malformed.
+     */
+    private List<Group> parse(String chunk, ResultsReader.Columns columns, int[] counts) throws IOException {
+        List<Group> retval = new ArrayList<Group>();
+        CsvListReader csvReader = new CsvListReader(new StringReader(chunk), CsvPreference.EXCEL_PREFERENCE);
+        Group group = null;
+        List<String> row;
+        while ((row = csvReader.read()) != null) {
+            counts[0]++;
+            String srid = ResultsReader.get(row, columns.responseId);
+            // rows without a response id are grouped like any other id, as in ResultsReader
+            if (group == null || (srid == null ? group.srid != null : !srid.equals(group.srid))) {
+                group = new Group(srid, ResultsReader.get(row, columns.workerId), index);
+                retval.add(group);
+            }
+            try {
+                if (!group.builder.add(ResultsReader.get(row, columns.questionId),
+                        ResultsReader.get(row, columns.optionId), ResultsReader.get(row, columns.optionText),
+                        ResultsReader.getInt(row, columns.questionPos), ResultsReader.getInt(row, columns.optionPos)))
+                    counts[1]++;
+            } catch (NumberFormatException e) {
+                SurveyMan.LOGGER.warn(String.format("Skipping malformed row in response %s: %s", srid, row));
+                counts[2]++;
+            }
+        }
+        csvReader.close();
+        return retval;
+    }
+
+    /**
+     * Returns the number of data rows in the last file read.
+     */
+    public int getRowsRead() {
+        return rowsRead;
+    }
+
+    /**
+     * Returns the number of rows in the last file read whose question is not part of the survey.
+     */
+    public int getRowsIgnored() {
+        return rowsIgnored;
+    }
+
+    /**
+     * Returns the number of rows in the last file read that could not be parsed.
+     */
+    public int getRowsMalformed() {
+        return rowsMalformed;
+    }
+}
@@ -0,0 +1,368 @@
+package edu.umass.cs.surveyman.analyses;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+import edu.umass.cs.surveyman.SurveyMan;
+import edu.umass.cs.surveyman.input.exceptions.SyntaxException;
+import edu.umass.cs.surveyman.qc.CompactSurveyResponse;
+import edu.umass.cs.surveyman.qc.ResponseMatrix;
+import edu.umass.cs.surveyman.qc.ResponseSnapshot;
+import edu.umass.cs.surveyman.qc.SurveyIndex;
+import edu.umass.cs.surveyman.survey.Survey;
+import edu.umass.cs.surveyman.survey.exceptions.SurveyException;
+import org.supercsv.io.CsvListReader;
+import org.supercsv.prefs.CsvPreference;
+
+import java.io.*;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Loads many result files for one survey into a single response store. Files are parsed concurrently on a fork/join
+ * pool, and merged in the order they were listed; a response whose (worker id, response id) pair has already been
+ * loaded is counted as a duplicate and dropped. Each file's throughput and error counts are recorded in a
+ * {@link FileReport}.
+ *
+ * Two formats are recognized from the header row:
+ * <ul>
+ *     <li>Runtime results, with a {@code responseid} column (see {@link ResultsReader});</li>
+ *     <li>Mechanical Turk HIT results ({@code HITResultsFor*.csv}), with one row per assignment. The assignment id is
+ *     the response id, and each {@code Answer} cell holds either {@code cid;qpos;opos} entries separated by '|', or a
+ *     JSON object with {@code quid}, {@code oid}, {@code qpos} and {@code opos} fields. Other cells are ignored.</li>
+ * </ul>
+ * Binary response snapshots (see {@link ResponseSnapshot}) are recognized by their magic bytes and loaded without
+ * parsing.
+ */
+public class ResultsLoader {
+
+    private static final String ASSIGNMENT_ID = "assignmentid";
+    private static final String MTURK_WORKER_ID = "workerid";
+    private static final String ANSWER = "answer";
+
+    /**
+     * The outcome of loading one file.
+     */
+    public static class FileReport {
+
+        public final File file;
+        /**
+         * The number of responses read from the file, including duplicates.
+         */
+        public final int responses;
+        /**
+         * The number of responses dropped because a response with the same worker id and response id was already
+         * loaded.
+         */
+        public final int duplicates;
+        public final int rowsRead;
+        /**
+         * The number of rows or answer cells that could not be parsed; 1 if the file could not be read at all.
+         */
+        public final int errors;
+        public final long bytes;
+        public final long nanos;
+        /**
+         * Why the file could not be read, or null if it was read.
+         */
+        public final String failure;
+
+        FileReport(File file, int responses, int duplicates, int rowsRead, int errors, long bytes, long nanos,
+                   String failure) {
+            this.file = file;
+            this.responses = responses;
+            this.duplicates = duplicates;
+            this.rowsRead = rowsRead;
+            this.errors = errors;
+            this.bytes = bytes;
+            this.nanos = nanos;
+            this.failure = failure;
+        }
+
+        /**
+         * @return The parsing throughput of this file in bytes per second.
+         */
+        public double getBytesPerSecond() {
+            return nanos == 0 ? Double.POSITIVE_INFINITY : bytes * 1e9 / nanos;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s\t%d\t%d\t%d\t%d\t%.0f B/s%s", file.getName(), responses, duplicates, rowsRead,
+                    errors, getBytesPerSecond(), failure == null ? "" : "\t" + failure);
+        }
+    }
+
+    /**
+     * The responses parsed from one file, before deduplication.
+     */
+    private static class Parsed {
+        final List<ISurveyResponse> responses = new ArrayList<ISurveyResponse>();
+        int rowsRead;
+        int errors;
+        long nanos;
+        String failure;
+    }
+
+    public final SurveyIndex index;
+    private final ForkJoinPool pool;
+    // option id -> question ordinal, for answers that only name the option
+    private final Map<String, Integer> optionQuestions = new HashMap<String, Integer>();
+    private final Set<String> loaded = new HashSet<String>();
+    private final List<ISurveyResponse> responses = new ArrayList<ISurveyResponse>();
+    private final List<FileReport> reports = new ArrayList<FileReport>();
+
+    public ResultsLoader(Survey survey) {
+        this(new SurveyIndex(survey));
+    }
+
+    /**
+     * Creates a loader that parses files on the common fork/join pool.
+     * @param index The ordinals for the survey the results answer.
+     */
+    public ResultsLoader(SurveyIndex index) {
+        this(index, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * @param index The ordinals for the survey the results answer.
+     * @param pool The pool that parses files.
+     */
+    public ResultsLoader(SurveyIndex index, ForkJoinPool pool) {
+        this.index = index;
+        this.pool = pool;
+        for (int q = 0 ; q < index.getNumQuestions() ; q++)
+            for (int o = 0 ; o < index.getNumOptions(q) ; o++)
+                optionQuestions.put(index.getOption(q, o).getCid(), q);
+    }
+
+    /**
+     * Loads a single file, or every CSV file in a directory.
+     * @param file A results file or a directory of results files.
+     * @return The reports for the files loaded by this call.
+     * @throws IOException if the directory cannot be listed.
+     */
+    public List<FileReport> load(File file) throws IOException {
+        if (file.isDirectory())
+            return load(file, "*.csv");
+        return load(Collections.singletonList(file));
+    }
+
+    /**
+     * Loads every file in a directory whose name matches a glob (e.g. {@code HITResultsFor*.csv}).
+     * @param directory A directory.
+     * @param glob A pattern in the syntax of {@link java.nio.file.FileSystem#getPathMatcher}.
+     * @return The reports for the files loaded by this call.
+     * @throws IOException if the directory cannot be listed.
+     */
+    public List<FileReport> load(File directory, String glob) throws IOException {
+        List<File> files = new ArrayList<File>();
+        DirectoryStream<Path> stream = Files.newDirectoryStream(directory.toPath(), glob);
+        try {
+            for (Path path : stream)
+                if (Files.isRegularFile(path))
+                    files.add(path.toFile());
+        } finally {
+            stream.close();
+        }
+        Collections.sort(files);
+        return load(files);
+    }
+
+    /**
+     * Loads the input files, parsing them concurrently and merging them in order.
+     * @param files Results files.
+     * @return The reports for the input files, in the same order.
+     */
+    public List<FileReport> load(List<File> files) {
+        List<Callable<Parsed>> tasks = new ArrayList<Callable<Parsed>>();
+        for (final File file : files)
+            tasks.add(new Callable<Parsed>() {
+                @Override
+                public Parsed call() {
+                    return parse(file);
+                }
+            });
+        List<FileReport> retval = new ArrayList<FileReport>();
+        try {
+            List<Future<Parsed>> futures = pool.invokeAll(tasks);
+            for (int i = 0 ; i < files.size() ; i++)
+                retval.add(merge(files.get(i), futures.get(i).get()));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        }
+        reports.addAll(retval);
+        return retval;
+    }
+
+    private FileReport merge(File file, Parsed parsed) {
+        int duplicates = 0;
+        for (ISurveyResponse sr : parsed.responses) {
+            if (loaded.add(sr.workerId() + "\u0000" + sr.getSrid()))
+                responses.add(sr);
+            else duplicates++;
+        }
+        FileReport report = new FileReport(file, parsed.responses.size(), duplicates, parsed.rowsRead, parsed.errors,
+                file.length(), parsed.nanos, parsed.failure);
+        SurveyMan.LOGGER.info(report.toString());
+        return report;
+    }
+
+    private static Reader open(File file) throws IOException {
+        return new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+    }
+
+    private Parsed parse(File file) {
+        Parsed parsed = new Parsed();
+        long start = System.nanoTime();
+        try {
+            if (ResponseSnapshot.isSnapshot(file))
+                parseSnapshot(file, parsed);
+            else parseCsv(file, parsed);
+        } catch (IOException e) {
+            fail(file, parsed, e);
+        } catch (SurveyException e) {
+            fail(file, parsed, e);
+        } catch (RuntimeException e) {
+            fail(file, parsed, e);
+        }
+        parsed.nanos = System.nanoTime() - start;
+        return parsed;
+    }
+
+    private void parseSnapshot(File file, Parsed parsed) throws SurveyException, IOException {
+        ResponseMatrix matrix = ResponseSnapshot.read(index, file);
+        for (int r = 0 ; r < matrix.size() ; r++)
+            parsed.responses.add(matrix.getResponse(r));
+        parsed.rowsRead += matrix.size();
+    }
+
+    private void parseCsv(File file, Parsed parsed) throws SurveyException, IOException {
+        CsvListReader csvReader = new CsvListReader(open(file), CsvPreference.EXCEL_PREFERENCE);
+        try {
+            List<String> header = csvReader.read();
+            if (header == null)
+                throw new SyntaxException(String.format("%s is empty.", file));
+            List<String> names = new ArrayList<String>();
+            for (String name : header)
+                names.add(name == null ? "" : name.trim().toLowerCase());
+            if (names.contains(ResultsReader.RESPONSE_ID))
+                parseResults(file, parsed);
+            else if (names.contains(ASSIGNMENT_ID) && names.contains(MTURK_WORKER_ID))
+                parseHITResults(names, csvReader, parsed);
+            else throw new SyntaxException(String.format("%s is not a results file.", file));
+        } finally {
+            csvReader.close();
+        }
+    }
+
+    private static void fail(File file, Parsed parsed, Exception e) {
+        SurveyMan.LOGGER.warn(String.format("Could not load %s: %s", file, e));
+        parsed.responses.clear();
+        parsed.failure = e.toString();
+        parsed.errors++;
+    }
+
+    private void parseResults(File file, Parsed parsed) throws SurveyException, IOException {
+        ResultsReader reader = new ResultsReader(index, open(file));
+        try {
+            while (reader.hasNext())
+                parsed.responses.add(reader.next());
+        } finally {
+            reader.close();
+        }
+        parsed.rowsRead += reader.getRowsRead();
+        parsed.errors += reader.getRowsMalformed();
+    }
+
+    private void parseHITResults(List<String> names, CsvListReader csvReader, Parsed parsed) throws IOException {
+        int assignmentId = names.indexOf(ASSIGNMENT_ID);
+        int workerId = names.indexOf(MTURK_WORKER_ID);
+        ResultsReader.ResponseBuilder builder = new ResultsReader.ResponseBuilder(index);
+        List<String> row;
+        while ((row = csvReader.read()) != null) {
+            parsed.rowsRead++;
+            String srid = ResultsReader.get(row, assignmentId);
+            if (srid == null) {
+                parsed.errors++;
+                continue;
+            }
+            for (int i = 0 ; i < row.size() ; i++) {
+                String cell = row.get(i);
+                if (cell == null || i >= names.size() || !names.get(i).startsWith(ANSWER))
+                    continue;
+                try {
+                    addAnswer(builder, cell.trim());
+                } catch (RuntimeException e) {
+                    // NumberFormatException, JsonParseException, IllegalStateException, ...
+                    SurveyMan.LOGGER.warn(String.format("Skipping malformed answer in assignment %s: %s", srid, cell));
+                    parsed.errors++;
+                }
+            }
+            if (!builder.isEmpty()) {
+                CompactSurveyResponse sr = builder.build(srid, ResultsReader.get(row, workerId));
+                parsed.responses.add(sr);
+            }
+        }
+    }
+
+    /**
+     * Adds the answers in one {@code Answer} cell. Cells that hold neither format (e.g. file names) are ignored.
+     */
+    private void addAnswer(ResultsReader.ResponseBuilder builder, String cell) {
+        if (cell.startsWith("{")) {
+            JsonObject answer = new JsonParser().parse(cell).getAsJsonObject();
+            JsonElement oid = answer.get("oid");
+            builder.add(answer.get("quid").getAsString(), oid == null ? null : oid.getAsString(), null,
+                    getInt(answer, "qpos"), getInt(answer, "opos"));
+            return;
+        }
+        if (!cell.startsWith("comp_"))
+            return;
+        for (String entry : cell.split("\\|")) {
+            String[] fields = entry.split(";");
+            Integer q = optionQuestions.get(fields[0]);
+            if (q == null)
+                continue;
+            builder.add(index.getQuestion(q).quid, fields[0], null,
+                    fields.length > 1 ? Integer.parseInt(fields[1].trim()) : -1,
+                    fields.length > 2 ? Integer.parseInt(fields[2].trim()) : -1);
+        }
+    }
+
+    private static int getInt(JsonObject answer, String field) {
+        JsonElement e = answer.get(field);
+        if (e == null || e.isJsonNull())
+            return -1;
+        try {
+            return e.getAsInt();
+        } catch (NumberFormatException nfe) {
+            throw new JsonParseException(nfe);
+        }
+    }
+
+    /**
+     * Returns every response loaded so far, without duplicates, in the order the files were listed.
+     * @return The merged responses; pass them to {@link edu.umass.cs.surveyman.qc.QCMetrics}.
+     */
+    public List<ISurveyResponse> getResponses() {
+        return responses;
+    }
+
+    /**
+     * @return The reports of every file loaded so far.
+     */
+    public List<FileReport> getReports() {
+        return reports;
+    }
+}
@@ -0,0 +1,351 @@
+package edu.umass.cs.surveyman.analyses;
+
+import edu.umass.cs.surveyman.SurveyMan;
+import edu.umass.cs.surveyman.input.exceptions.SyntaxException;
+import edu.umass.cs.surveyman.qc.CompactSurveyResponse;
+import edu.umass.cs.surveyman.qc.SurveyIndex;
+import edu.umass.cs.surveyman.survey.Component;
+import edu.umass.cs.surveyman.survey.StringComponent;
+import edu.umass.cs.surveyman.survey.Survey;
+import edu.umass.cs.surveyman.survey.exceptions.SurveyException;
+import org.supercsv.io.CsvListReader;
+import org.supercsv.prefs.CsvPreference;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.*;
+
+/**
+ * Reads the results of a deployed survey (the Runtime's output: one row per selected option, with the columns
+ * {@code responseid,workerid,surveyid,questionid,questiontext,questionpos,optionid,optiontext,optionpos}, possibly
+ * followed by other columns) as a stream of {@link CompactSurveyResponse}s. Question and option identifiers are
+ * resolved through a {@link SurveyIndex}, so each row costs a pair of hash lookups.
+ *
+ * Rows are grouped by response id on the fly: the rows of one response must be contiguous, as the Runtime writes them,
+ * and only the rows of the response being assembled are held in memory. Rows for questions that are not part of the
+ * survey (e.g. {@code assignmentId} and the ad hoc {@code q_-1_-1} rows) are ignored; options that are not among a
+ * question's options are recorded in its other-answer slot, with the option text as the answer.
+ */
+public class ResultsReader implements Iterator<ISurveyResponse>, Closeable {
+
+    public static final String RESPONSE_ID = "responseid";
+    public static final String WORKER_ID = "workerid";
+    public static final String QUESTION_ID = "questionid";
+    public static final String QUESTION_POS = "questionpos";
+    public static final String OPTION_ID = "optionid";
+    public static final String OPTION_TEXT = "optiontext";
+    public static final String OPTION_POS = "optionpos";
+
+    /**
+     * The positions of the columns the reader uses, resolved from a header row.
+     */
+    static class Columns {
+
+        final int responseId;
+        final int workerId;
+        final int questionId;
+        final int questionPos;
+        final int optionId;
+        final int optionText;
+        final int optionPos;
+
+        Columns(List<String> header) throws SyntaxException {
+            List<String> names = new ArrayList<String>();
+            for (String name : header)
+                names.add(name == null ? "" : name.trim().toLowerCase());
+            this.responseId = required(names, RESPONSE_ID);
+            this.questionId = required(names, QUESTION_ID);
+            this.optionId = required(names, OPTION_ID);
+            this.workerId = names.indexOf(WORKER_ID);
+            this.questionPos = names.indexOf(QUESTION_POS);
+            this.optionText = names.indexOf(OPTION_TEXT);
+            this.optionPos = names.indexOf(OPTION_POS);
+        }
+
+        private static int required(List<String> names, String column) throws SyntaxException {
+            int retval = names.indexOf(column);
+            if (retval < 0)
+                throw new SyntaxException(String.format("Results file is missing the %s column.", column));
+            return retval;
+        }
+    }
+
+    /**
+     * Accumulates the rows of a single response and converts them to a {@link CompactSurveyResponse}. Questions are
+     * ordered by the position they were displayed at; rows without a position follow, in their order in the file.
+     */
+    static class ResponseBuilder {
+
+        private final SurveyIndex index;
+        private int numRows = 0;
+        private int[] rowQuestions = new int[16];
+        private int[] rowOptions = new int[16];
+        private int[] rowQuestionPositions = new int[16];
+        private int[] rowOptionPositions = new int[16];
+        private Component[] rowOthers = new Component[16];
+        private boolean hasOthers = false;
+
+        ResponseBuilder(SurveyIndex index) {
+            this.index = index;
+        }
+
+        boolean isEmpty() {
+            return numRows == 0;
+        }
+
+        /**
+         * Adds one row.
+         * @return false if the row's question is not part of the survey, in which case it is ignored.
+         */
+        boolean add(String quid, String cid, String optionText, int questionPos, int optionPos) {
+            int q = index.getQuestionOrdinal(quid);
+            if (q < 0)
+                return false;
+            int o = cid == null ? index.getOtherOrdinal(q) : index.getOptionOrdinal(q, cid);
+            Component other = o == index.getOtherOrdinal(q) ?
+                    new StringComponent(optionText == null ? "" : optionText, -1, -1) : null;
+            add(q, o, other, questionPos, optionPos);
+            return true;
+        }
+
+        private void add(int q, int o, Component other, int questionPos, int optionPos) {
+            if (numRows == rowQuestions.length) {
+                int capacity = 2 * numRows;
+                rowQuestions = Arrays.copyOf(rowQuestions, capacity);
+                rowOptions = Arrays.copyOf(rowOptions, capacity);
+                rowQuestionPositions = Arrays.copyOf(rowQuestionPositions, capacity);
+                rowOptionPositions = Arrays.copyOf(rowOptionPositions, capacity);
+                rowOthers = Arrays.copyOf(rowOthers, capacity);
+            }
+            rowQuestions[numRows] = q;
+            rowOptions[numRows] = o;
+            rowQuestionPositions[numRows] = questionPos;
+            rowOptionPositions[numRows] = optionPos;
+            rowOthers[numRows] = other;
+            hasOthers |= other != null;
+            numRows++;
+        }
+
+        /**
+         * Appends the rows of another builder over the same index, e.g. rows of the same response read by another
+         * thread.
+         */
+        void addAll(ResponseBuilder other) {
+            for (int i = 0 ; i < other.numRows ; i++)
+                add(other.rowQuestions[i], other.rowOptions[i], other.rowOthers[i], other.rowQuestionPositions[i],
+                        other.rowOptionPositions[i]);
+        }
+
+        /**
+         * Builds the response from the rows added since the last call, and clears the builder.
+         */
+        CompactSurveyResponse build(String srid, String workerId) {
+            Integer[] order = new Integer[numRows];
+            for (int i = 0 ; i < numRows ; i++)
+                order[i] = i;
+            // stable, so options of the same question keep their order
+            Arrays.sort(order, new Comparator<Integer>() {
+                @Override
+                public int compare(Integer i, Integer j) {
+                    return key(i) < key(j) ? -1 : key(i) == key(j) ? 0 : 1;
+                }
+                private int key(int row) {
+                    return rowQuestionPositions[row] < 0 ? Integer.MAX_VALUE : rowQuestionPositions[row];
+                }
+            });
+            int numQuestions = 0;
+            for (int k = 0 ; k < numRows ; k++)
+                if (k == 0 || rowQuestions[order[k]] != rowQuestions[order[k - 1]])
+                    numQuestions++;
+            int[] questions = new int[numQuestions];
+            int[] offsets = new int[numQuestions + 1];
+            int[] options = new int[numRows];
+            int[] positions = new int[numRows];
+            Component[] others = hasOthers ? new Component[numQuestions] : null;
+            int i = -1;
+            for (int k = 0 ; k < numRows ; k++) {
+                int row = order[k];
+                if (k == 0 || rowQuestions[row] != rowQuestions[order[k - 1]]) {
+                    questions[++i] = rowQuestions[row];
+                    offsets[i] = k;
+                }
+                options[k] = rowOptions[row];
+                positions[k] = rowOptionPositions[row];
+                if (rowOthers[row] != null)
+                    others[i] = rowOthers[row];
+            }
+            offsets[numQuestions] = numRows;
+            CompactSurveyResponse retval = new CompactSurveyResponse(index, questions, offsets, options, positions,
+                    others);
+            retval.setSrid(srid);
+            retval.setWorkerId(workerId);
+            retval.setRecorded(true);
+            numRows = 0;
+            hasOthers = false;
+            Arrays.fill(rowOthers, null);
+            return retval;
+        }
+    }
+
+    public final SurveyIndex index;
+    private final CsvListReader csvReader;
+    private final Columns columns;
+    private final ResponseBuilder builder;
+    // the first row of the response after the one being assembled
+    private List<String> pending;
+    private ISurveyResponse next;
+    private int rowsRead = 0;
+    private int rowsIgnored = 0;
+    private int rowsMalformed = 0;
+
+    public ResultsReader(Survey survey, Reader reader) throws SurveyException, IOException {
+        this(new SurveyIndex(survey), reader);
+    }
+
+    public ResultsReader(SurveyIndex index, Reader reader) throws SurveyException, IOException {
+        this(index, reader, CsvPreference.EXCEL_PREFERENCE);
+    }
+
+    /**
+     * Creates a reader and consumes the header row.
+     * @param index The ordinals of the survey the results are for.
+     * @param reader The results.
+     * @param preference The CSV dialect of the results.
+     * @throws SurveyException if a required column is missing.
+     * @throws IOException
+     */
+    public ResultsReader(SurveyIndex index, Reader reader, CsvPreference preference)
+            throws SurveyException, IOException {
+        this.index = index;
+        this.csvReader = new CsvListReader(reader, preference);
+        String[] header = csvReader.getHeader(true);
+        if (header == null)
+            throw new SyntaxException("Results file is empty.");
+        this.columns = new Columns(Arrays.asList(header));
+        this.builder = new ResponseBuilder(index);
+    }
+
+    /**
+     * Reads every response in the input results.
+     * @param survey The survey the results are for.
+     * @param reader The results.
+     * @return The responses, in the order they appear.
+     * @throws SurveyException
+     */
+    public static List<ISurveyResponse> readAll(Survey survey, Reader reader) throws SurveyException {
+        List<ISurveyResponse> retval = new ArrayList<ISurveyResponse>();
+        try {
+            ResultsReader resultsReader = new ResultsReader(survey, reader);
+            try {
+                while (resultsReader.hasNext())
+                    retval.add(resultsReader.next());
+            } finally {
+                resultsReader.close();
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        return retval;
+    }
+
+    static String get(List<String> row, int column) {
+        return column < 0 || column >= row.size() ? null : row.get(column);
+    }
+
+    static int getInt(List<String> row, int column) {
+        String s = get(row, column);
+        return s == null || s.trim().isEmpty() ? -1 : Integer.parseInt(s.trim());
+    }
+
+    private List<String> readRow() {
+        try {
+            List<String> row = csvReader.read();
+            if (row != null)
+                rowsRead++;
+            return row;
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Assembles the next response from the rows that share its response id.
+     */
+    private ISurveyResponse advance() {
+        List<String> row = pending != null ? pending : readRow();
+        pending = null;
+        while (row != null) {
+            String srid = get(row, columns.responseId);
+            String workerId = get(row, columns.workerId);
+            for (; row != null ; row = readRow()) {
+                if (srid == null ? get(row, columns.responseId) != null : !srid.equals(get(row, columns.responseId))) {
+                    pending = row;
+                    break;
+                }
+                try {
+                    if (!builder.add(get(row, columns.questionId), get(row, columns.optionId),
+                            get(row, columns.optionText), getInt(row, columns.questionPos),
+                            getInt(row, columns.optionPos)))
+                        rowsIgnored++;
+                } catch (NumberFormatException e) {
+                    SurveyMan.LOGGER.warn(String.format("Skipping malformed row %d: %s", rowsRead, row));
+                    rowsMalformed++;
+                }
+            }
+            if (!builder.isEmpty())
+                return builder.build(srid, workerId);
+            // every row of this response was ignored; move on to the next one
+            row = pending;
+            pending = null;
+        }
+        return null;
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (next == null)
+            next = advance();
+        return next != null;
+    }
+
+    @Override
+    public ISurveyResponse next() {
+        if (!hasNext())
+            throw new NoSuchElementException();
+        ISurveyResponse retval = next;
+        next = null;
+        return retval;
+    }
+
+    @Override
+    public void remove() {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * Returns the number of data rows read so far.
+     */
+    public int getRowsRead() {
+        return rowsRead;
+    }
+
+    /**
+     * Returns the number of rows read so far whose question is not part of the survey.
+     */
+    public int getRowsIgnored() {
+        return rowsIgnored;
+    }
+
+    /**
+     * Returns the number of rows read so far that could not be parsed.
+     */
+    public int getRowsMalformed() {
+        return rowsMalformed;
+    }
+
+    @Override
+    public void close() throws IOException {
+        csvReader.close();
+    }
+}
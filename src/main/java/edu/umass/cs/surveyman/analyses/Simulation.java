@@ -1,18 +1,38 @@
 package edu.umass.cs.surveyman.analyses;
 
+import edu.umass.cs.surveyman.qc.Classification;
 import edu.umass.cs.surveyman.qc.Classifier;
-import edu.umass.cs.surveyman.qc.NonRandomRespondent;
+import edu.umass.cs.surveyman.qc.CompiledSurvey;
+import edu.umass.cs.surveyman.qc.FastInterpreter;
+import edu.umass.cs.surveyman.qc.FrequencyTable;
+import edu.umass.cs.surveyman.qc.IAnswerModel;
+import edu.umass.cs.surveyman.qc.IncrementalFrequencyModel;
+import edu.umass.cs.surveyman.qc.Interpreter;
+import edu.umass.cs.surveyman.qc.ProbabilityTable;
+import edu.umass.cs.surveyman.qc.ProfileMixture;
 import edu.umass.cs.surveyman.qc.QCMetrics;
+import edu.umass.cs.surveyman.qc.ROCCurve;
 import edu.umass.cs.surveyman.qc.RandomRespondent;
+import edu.umass.cs.surveyman.qc.RandomSource;
+import edu.umass.cs.surveyman.qc.ResponseMatrix;
+import edu.umass.cs.surveyman.qc.SurveyIndex;
 import edu.umass.cs.surveyman.survey.Survey;
 import edu.umass.cs.surveyman.survey.exceptions.SurveyException;
+import edu.umass.cs.surveyman.utils.Throwables;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 public class Simulation {
 
     public static boolean smoothing = false;
+    /**
+     * The number of respondents simulated sequentially, from one random stream, by a single task.
+     */
+    public static final int RESPONSES_PER_TASK = 32;
 
     static class ROC {
 
@@ -46,50 +66,328 @@ public class Simulation {
 
     public static List<ISurveyResponse> simulate(Survey survey, int totalResponses, double percRandomRespondents)
             throws SurveyException {
+        return simulate(survey, totalResponses, percRandomRespondents, Interpreter.random);
+    }
 
-        List<ISurveyResponse> randomResponses = new ArrayList<ISurveyResponse>();
-        List<ISurveyResponse> realResponses = new ArrayList<ISurveyResponse>();
+    /**
+     * Simulates a mixture of uniform random respondents and respondents drawn from a single profile. See
+     * {@link #simulate(Survey, int, double, RandomSource, int)}.
+     */
+    public static List<ISurveyResponse> simulate(Survey survey, int totalResponses, double percRandomRespondents,
+                                                 RandomSource rng)
+            throws SurveyException {
+        return simulate(survey, totalResponses, percRandomRespondents, rng, 1);
+    }
 
+    /**
+     * Simulates a mixture of uniform random respondents and respondents drawn from equally weighted clusters of
+     * profiles on the common fork/join pool. See {@link #simulate(Survey, int, double, RandomSource, int,
+     * ForkJoinPool)}.
+     */
+    public static List<ISurveyResponse> simulate(Survey survey, int totalResponses, double percRandomRespondents,
+                                                 RandomSource rng, int numClusters)
+            throws SurveyException {
+        return simulate(survey, totalResponses, percRandomRespondents, rng, numClusters, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Simulates a mixture of uniform random respondents and respondents drawn from equally weighted clusters of
+     * profiles (see {@link ProfileMixture}). Respondents are simulated in chunks of {@link #RESPONSES_PER_TASK} across
+     * the input pool; each chunk draws from its own stream split off the input source in order, so the responses only
+     * depend on the survey, the mixture and the state of the source, and not on the number of threads.
+     * @param survey The survey to simulate.
+     * @param totalResponses The number of responses to simulate.
+     * @param percRandomRespondents The fraction of responses that come from random respondents.
+     * @param rng The source of randomness.
+     * @param numClusters The number of profile clusters.
+     * @param pool The pool that simulates the respondents.
+     * @return The random responses, followed by the profile responses.
+     * @throws SurveyException
+     */
+    public static List<ISurveyResponse> simulate(Survey survey, int totalResponses, double percRandomRespondents,
+                                                 RandomSource rng, int numClusters, ForkJoinPool pool)
+            throws SurveyException {
+
+        CompiledSurvey plan = new CompiledSurvey(survey);
         int numRandomRespondents = (int) Math.floor(totalResponses * percRandomRespondents);
-        int numRealRespondents = totalResponses - numRandomRespondents;
 
-        for (int j = 0 ; j < numRandomRespondents ; j++) {
-            randomResponses.add(new RandomRespondent(survey, RandomRespondent.AdversaryType.UNIFORM).getResponse());
+        ProfileMixture profile = new ProfileMixture(plan, numClusters, rng);
+
+        int numTasks = (totalResponses + RESPONSES_PER_TASK - 1) / RESPONSES_PER_TASK;
+        RandomSource[] streams = new RandomSource[numTasks];
+        for (int i = 0 ; i < numTasks ; i++)
+            streams[i] = rng.split();
+        ISurveyResponse[] responses = new ISurveyResponse[totalResponses];
+        SimulationTask task = new SimulationTask(plan, profile, numRandomRespondents, streams, responses, 0, numTasks);
+        if (numTasks > 1) {
+            try {
+                pool.invoke(task);
+            } catch (RuntimeException e) {
+                SurveyException cause = Throwables.findCause(e, SurveyException.class);
+                if (cause != null)
+                    throw cause;
+                throw e;
+            }
+        } else {
+            for (int i = 0 ; i < numTasks ; i++)
+                task.simulateChunk(i);
         }
+        return new ArrayList<ISurveyResponse>(Arrays.asList(responses));
+    }
+
+    private static class SimulationTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final CompiledSurvey plan;
+        private final ProfileMixture profile;
+        private final int numRandomRespondents;
+        private final RandomSource[] streams;
+        private final ISurveyResponse[] responses;
+        private final int lo;
+        private final int hi;
 
-        //TODO(etosch): add parameter so we can have more than one cluster
-        NonRandomRespondent profile = new NonRandomRespondent(survey);
-        for (int j = 0 ; j < numRealRespondents ; j++) {
-            realResponses.add(profile.getResponse());
+        SimulationTask(CompiledSurvey plan, ProfileMixture profile, int numRandomRespondents,
+                       RandomSource[] streams, ISurveyResponse[] responses, int lo, int hi) {
+            this.plan = plan;
+            this.profile = profile;
+            this.numRandomRespondents = numRandomRespondents;
+            this.streams = streams;
+            this.responses = responses;
+            this.lo = lo;
+            this.hi = hi;
         }
 
-        List<ISurveyResponse> allResponses = new ArrayList<ISurveyResponse>();
-        allResponses.addAll(randomResponses);
-        allResponses.addAll(realResponses);
-        assert allResponses.size() == randomResponses.size() + realResponses.size();
+        void simulateChunk(int chunk) throws SurveyException {
+            RandomSource stream = streams[chunk];
+            FastInterpreter interpreter = new FastInterpreter(plan, stream);
+            int end = Math.min(responses.length, (chunk + 1) * RESPONSES_PER_TASK);
+            for (int i = chunk * RESPONSES_PER_TASK ; i < end ; i++) {
+                ISurveyResponse sr;
+                if (i < numRandomRespondents) {
+                    sr = new RandomRespondent(interpreter, RandomRespondent.AdversaryType.UNIFORM, stream)
+                            .getResponse();
+                    sr.setKnownValidityStatus(KnownValidityStatus.NO);
+                } else {
+                    sr = profile.getResponse(interpreter, stream);
+                    sr.setKnownValidityStatus(KnownValidityStatus.YES);
+                }
+                responses[i] = sr;
+            }
+        }
 
-        return allResponses;
+        @Override
+        protected void compute() {
+            if (hi - lo > 1) {
+                int mid = (lo + hi) >>> 1;
+                invokeAll(new SimulationTask(plan, profile, numRandomRespondents, streams, responses, lo, mid),
+                        new SimulationTask(plan, profile, numRandomRespondents, streams, responses, mid, hi));
+                return;
+            }
+            try {
+                simulateChunk(lo);
+            } catch (SurveyException se) {
+                throw new RuntimeException(se);
+            }
+        }
     }
 
-    public static ROC analyze(Survey survey, List<ISurveyResponse> surveyResponses, Classifier classifier)
+    /**
+     * A fixed set of simulated random and profile responses, from which response sets with any fraction of random
+     * respondents can be selected without simulating again.
+     */
+    public static class ResponsePool {
+
+        public final Survey survey;
+        public final List<ISurveyResponse> randomResponses;
+        public final List<ISurveyResponse> profileResponses;
+        // the source of the bootstrap seeds, split from the source that simulated the pool
+        private final RandomSource rng;
+
+        ResponsePool(Survey survey, List<ISurveyResponse> randomResponses, List<ISurveyResponse> profileResponses,
+                     RandomSource rng) {
+            this.survey = survey;
+            this.randomResponses = randomResponses;
+            this.profileResponses = profileResponses;
+            this.rng = rng;
+        }
+
+        /**
+         * Returns the number of random respondents in a mixture, computed the same way as {@link #simulate}.
+         */
+        static int numRandom(int totalResponses, double percRandomRespondents) {
+            return (int) Math.floor(totalResponses * percRandomRespondents);
+        }
+
+        /**
+         * Selects a mixture of responses from the pool: a prefix of the random responses followed by a prefix of the
+         * profile responses.
+         * @param totalResponses The size of the mixture; at most the size of each half of the pool.
+         * @param percRandomRespondents The fraction of responses that come from random respondents.
+         * @return A new list holding the selected responses.
+         */
+        public List<ISurveyResponse> mixture(int totalResponses, double percRandomRespondents) {
+            int numRandomRespondents = numRandom(totalResponses, percRandomRespondents);
+            if (numRandomRespondents > randomResponses.size()
+                    || totalResponses - numRandomRespondents > profileResponses.size())
+                throw new IllegalArgumentException(String.format("Pool is too small for %d responses.",
+                        totalResponses));
+            List<ISurveyResponse> retval = new ArrayList<ISurveyResponse>(totalResponses);
+            retval.addAll(randomResponses.subList(0, numRandomRespondents));
+            retval.addAll(profileResponses.subList(0, totalResponses - numRandomRespondents));
+            return retval;
+        }
+    }
+
+    /**
+     * Simulates n uniform random respondents and n respondents drawn from a single profile. The pool keeps a stream
+     * split from the input source for the bootstrap seeds of {@link #sweep}, so that a sweep only depends on the seed of
+     * the input source.
+     * @param survey The survey to simulate.
+     * @param n The number of responses of each kind.
+     * @param rng The source of randomness.
+     * @return The pool of responses.
+     * @throws SurveyException
+     */
+    public static ResponsePool simulatePool(Survey survey, int n, RandomSource rng) throws SurveyException {
+        List<ISurveyResponse> responses = simulate(survey, 2 * n, 0.5, rng);
+        return new ResponsePool(survey, responses.subList(0, n), responses.subList(n, 2 * n), rng.split());
+    }
+
+    /**
+     * Computes one ROC point per mixture of random respondents, from 0 to 1 in steps of the input granularity. Every
+     * mixture is selected from the same pool, and the answer model is updated incrementally from one mixture to the
+     * next: each step only counts the random responses that enter the mixture and withdraws the profile responses that
+     * leave it.
+     * @param pool The simulated responses.
+     * @param totalResponses The size of each mixture; at most the size of each half of the pool.
+     * @param granularity The step between mixtures.
+     * @param classifier The classification method to use.
+     * @return The ROC points, in order of increasing fraction of random respondents.
+     * @throws SurveyException
+     */
+    public static List<ROC> sweep(ResponsePool pool, int totalResponses, double granularity, Classifier classifier)
             throws SurveyException {
+        List<ROC> rocList = new ArrayList<ROC>();
+        IncrementalFrequencyModel model = new IncrementalFrequencyModel(new SurveyIndex(pool.survey), smoothing);
+        int numRandomRespondents = 0;
+        for (ISurveyResponse sr : pool.mixture(totalResponses, 0.0))
+            model.add(sr);
+        for (double percRandomRespondents = 0.0 ; percRandomRespondents <= 1.0 ; percRandomRespondents += granularity) {
+            int next = ResponsePool.numRandom(totalResponses, percRandomRespondents);
+            for (int i = numRandomRespondents ; i < next ; i++) {
+                model.add(pool.randomResponses.get(i));
+                model.remove(pool.profileResponses.get(totalResponses - i - 1));
+            }
+            numRandomRespondents = next;
+            List<ISurveyResponse> srs = pool.mixture(totalResponses, percRandomRespondents);
+            rocList.add(tally(pool.survey, srs,
+                    QCMetrics.classifyAll(srs, model, classifier, 0.05, pool.rng.nextLong())));
+        }
+        return rocList;
+    }
 
-        int ctKnownValid = 0, ctKnownInvalid = 0;
-        int ctTruePositive = 0, ctTrueNegative = 0, ctFalsePositive = 0, ctFalseNegative = 0;
-        double empiricalEntropy;
+    /**
+     * Scores every response once and returns the classifier's ROC curve over all thresholds, from which the AUC and the
+     * counts at any alpha can be read without classifying again.
+     * @param survey The survey the responses answered.
+     * @param surveyResponses Responses whose validity is known.
+     * @param classifier The classification method to use.
+     * @return The ROC curve.
+     * @throws SurveyException
+     */
+    public static ROCCurve rocCurve(Survey survey, List<ISurveyResponse> surveyResponses, Classifier classifier)
+            throws SurveyException {
+        ProbabilityTable probabilities = new ProbabilityTable(
+                FrequencyTable.makeFrequencyTable(new SurveyIndex(survey), surveyResponses, smoothing));
+        return rocCurve(surveyResponses, probabilities, classifier);
+    }
 
-        for (ISurveyResponse sr : surveyResponses) {
-            boolean classification;
-            switch (classifier) {
-                case LOG_LIKELIHOOD:
-                    classification = QCMetrics.logLikelihoodClassification(survey, sr, surveyResponses, smoothing, 0.05);
+    /**
+     * Scores every response once against an answer model that has already been built for the responses.
+     * @param surveyResponses Responses whose validity is known.
+     * @param probabilities The answer probabilities for the response set.
+     * @param classifier The classification method to use.
+     * @return The ROC curve.
+     * @throws SurveyException
+     */
+    public static ROCCurve rocCurve(List<ISurveyResponse> surveyResponses, IAnswerModel probabilities,
+                                    Classifier classifier)
+            throws SurveyException {
+        boolean[] valid = new boolean[surveyResponses.size()];
+        for (int i = 0 ; i < valid.length ; i++) {
+            switch (surveyResponses.get(i).getKnownValidityStatus()) {
+                case MAYBE:
+                    throw new ValidityException();
+                case YES:
+                    valid[i] = true;
+                    break;
+                default:
                     break;
-                case ENTROPY:
-                    classification = QCMetrics.entropyClassification(survey, sr, surveyResponses, smoothing, 0.05);
+            }
+        }
+        return new ROCCurve(classifier, QCMetrics.calculateScores(surveyResponses, probabilities, classifier), valid,
+                QCMetrics.hasEnoughVariation(surveyResponses, probabilities));
+    }
+
+    /**
+     * Scores every row of a response matrix once, by column scans, against an answer model built for the matrix.
+     * @param surveyResponses Responses whose validity is known.
+     * @param probabilities The answer probabilities for the response set.
+     * @param classifier The classification method to use.
+     * @return The ROC curve.
+     * @throws SurveyException
+     */
+    public static ROCCurve rocCurve(ResponseMatrix surveyResponses, IAnswerModel probabilities, Classifier classifier)
+            throws SurveyException {
+        boolean[] valid = new boolean[surveyResponses.size()];
+        for (int r = 0 ; r < valid.length ; r++) {
+            switch (surveyResponses.getKnownValidityStatus(r)) {
+                case MAYBE:
+                    throw new ValidityException();
+                case YES:
+                    valid[r] = true;
                     break;
                 default:
-                    throw new RuntimeException(String.format("Unknown classification type %s.", classifier.name()));
+                    break;
             }
+        }
+        return new ROCCurve(classifier, QCMetrics.calculateScores(surveyResponses, probabilities, classifier), valid,
+                QCMetrics.hasEnoughVariation(surveyResponses, probabilities));
+    }
+
+    public static ROC analyze(Survey survey, List<ISurveyResponse> surveyResponses, Classifier classifier)
+            throws SurveyException {
+        return tally(survey, surveyResponses,
+                QCMetrics.classifyAll(survey, surveyResponses, classifier, smoothing, 0.05));
+    }
+
+    /**
+     * Classifies the responses, drawing the bootstrap samples from the input seed.
+     * @param survey The survey the responses answered.
+     * @param surveyResponses Responses whose validity is known.
+     * @param classifier The classification method to use.
+     * @param seed The seed of the bootstrap.
+     * @return The ROC point.
+     * @throws SurveyException
+     */
+    public static ROC analyze(Survey survey, List<ISurveyResponse> surveyResponses, Classifier classifier, long seed)
+            throws SurveyException {
+        return tally(survey, surveyResponses,
+                QCMetrics.classifyAll(survey, surveyResponses, classifier, smoothing, 0.05, seed));
+    }
+
+    private static ROC tally(Survey survey, List<ISurveyResponse> surveyResponses,
+                             List<Classification> classifications)
+            throws SurveyException {
+
+        int ctKnownValid = 0, ctKnownInvalid = 0;
+        int ctTruePositive = 0, ctTrueNegative = 0, ctFalsePositive = 0, ctFalseNegative = 0;
+        double empiricalEntropy;
+
+        for (Classification result : classifications) {
+            ISurveyResponse sr = result.surveyResponse;
+            boolean classification = result.valid;
             switch (sr.getKnownValidityStatus()) {
                 case MAYBE:
                     throw new ValidityException();
@@ -2,7 +2,9 @@ package edu.umass.cs.surveyman.analyses;
 
 import edu.umass.cs.surveyman.SurveyMan;
 import edu.umass.cs.surveyman.qc.Classifier;
+import edu.umass.cs.surveyman.qc.Interpreter;
 import edu.umass.cs.surveyman.qc.QCMetrics;
+import edu.umass.cs.surveyman.qc.RandomSource;
 import edu.umass.cs.surveyman.survey.Survey;
 import edu.umass.cs.surveyman.survey.exceptions.SurveyException;
 import org.jsoup.select.Evaluator;
@@ -15,6 +17,11 @@ import java.util.List;
 
 public class StaticAnalysis {
 
+    /**
+     * The number of simulated responses classified at each point of the ROC sweep.
+     */
+    public static final int RESPONSES_PER_POINT = 100;
+
     public static class Report {
 
         public final double avgPathLength;
@@ -85,11 +92,58 @@ public class StaticAnalysis {
             int n,
             double granularity,
             double alpha) throws SurveyException {
+        return staticAnalysis(survey, classifier, n, granularity, alpha, Interpreter.random.split());
+    }
+
+    /**
+     * Runs the static analysis, simulating and classifying the ROC sweep with the input source, so that the ROC points
+     * only depend on its seed. Every point of the sweep selects its responses from one pool of simulated respondents.
+     * See {@link #staticAnalysis(Survey, Classifier, int, double, double, RandomSource, boolean)}.
+     */
+    public static Report staticAnalysis(
+            Survey survey,
+            Classifier classifier,
+            int n,
+            double granularity,
+            double alpha,
+            RandomSource rng) throws SurveyException {
+        return staticAnalysis(survey, classifier, n, granularity, alpha, rng, true);
+    }
+
+    /**
+     * Runs the static analysis, simulating and classifying the ROC sweep with the input source, so that the ROC points
+     * only depend on its seed.
+     * @param survey The survey to analyze.
+     * @param classifier The classification method to use.
+     * @param n The number of respondents used to estimate the probability of a false correlation.
+     * @param granularity The step between mixtures of random respondents.
+     * @param alpha The significance level.
+     * @param rng The source of randomness for the ROC sweep.
+     * @param pooled When true, every point of the ROC sweep selects its responses from one pool of simulated random
+     *               and profile respondents (see {@link Simulation#sweep}); when false, every point simulates its own
+     *               responses.
+     * @return The report.
+     * @throws SurveyException
+     */
+    public static Report staticAnalysis(
+            Survey survey,
+            Classifier classifier,
+            int n,
+            double granularity,
+            double alpha,
+            RandomSource rng,
+            boolean pooled) throws SurveyException {
         wellFormednessChecks(survey);
         List<Simulation.ROC> rocList = new ArrayList<Simulation.ROC>();
-        for (double percRandomRespondents = 0.0 ; percRandomRespondents <= 1.0 ; percRandomRespondents += granularity) {
-            List<ISurveyResponse> srs = Simulation.simulate(survey, 100, percRandomRespondents);
-            rocList.add(Simulation.analyze(survey, srs, classifier));
+        if (pooled) {
+            Simulation.ResponsePool pool = Simulation.simulatePool(survey, RESPONSES_PER_POINT, rng);
+            rocList.addAll(Simulation.sweep(pool, RESPONSES_PER_POINT, granularity, classifier));
+        } else {
+            for (double percRandomRespondents = 0.0 ; percRandomRespondents <= 1.0 ; percRandomRespondents += granularity) {
+                List<ISurveyResponse> srs = Simulation.simulate(survey, RESPONSES_PER_POINT, percRandomRespondents,
+                        rng);
+                rocList.add(Simulation.analyze(survey, srs, classifier, rng.nextLong()));
+            }
         }
         return new Report(
                 QCMetrics.minimumPathLength(survey),
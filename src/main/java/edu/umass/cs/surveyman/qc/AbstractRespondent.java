@@ -1,9 +1,5 @@
 package edu.umass.cs.surveyman.qc;
 
-import clojure.lang.PersistentVector;
-import clojure.lang.RT;
-import clojure.lang.Symbol;
-import clojure.lang.Var;
 import edu.umass.cs.surveyman.SurveyMan;
 import edu.umass.cs.surveyman.analyses.ISurveyResponse;
 import edu.umass.cs.surveyman.survey.Question;
@@ -17,27 +13,40 @@ import java.util.Random;
 public abstract class AbstractRespondent {
 
     public static final Logger LOGGER = SurveyMan.LOGGER;
-    protected static final Random rng = Interpreter.random;
+    protected final Random rng;
 
+    protected AbstractRespondent() {
+        this(Interpreter.random);
+    }
+
+    /**
+     * @param rng The source of randomness for this respondent's preferences and answers.
+     */
+    protected AbstractRespondent(Random rng) {
+        this.rng = rng;
+    }
 
     public abstract ISurveyResponse getResponse();
 
     protected int getDenominator(Question q){
+        return (int) Math.min(Integer.MAX_VALUE, denominator(q));
+    }
+
+    /**
+     * Returns the number of ways the input question can be answered, saturating at {@link Long#MAX_VALUE} for
+     * non-exclusive questions with more than 62 options.
+     */
+    static long denominator(Question q) {
         // if the question is not exclusive, get the power set minus one, since they can't answer with zero.
-        return q.exclusive ? q.options.size() : (int) Math.pow(2.0, q.options.size()) - 1;
+        int n = q.options.size();
+        if (q.exclusive)
+            return n;
+        return n > PositionPreferences.MAX_MASK_OPTIONS ? Long.MAX_VALUE : (1L << n) - 1;
     }
 
     protected String generateStringComponent(Question q) {
         if (q.freetextPattern!=null){
-            String pat = String.format("(re-rand/re-rand #\"%s\")", q.freetextPattern.pattern());
-            Var require = RT.var("clojure.core", "require");
-            Var eval = RT.var("clojure.core", "eval");
-            Var readString = RT.var("clojure.core", "read-string");
-            require.invoke(Symbol.intern("re-rand"));
-            Object str = eval.invoke(readString.invoke(pat));
-            if (str instanceof String)
-                return (String) str;
-            return (String) ((PersistentVector) str).nth(0);
+            return FreetextGenerator.generate(q.freetextPattern, rng);
         } else if (q.freetextDefault!=null)
             return q.freetextDefault;
         else return "DEFAULT";
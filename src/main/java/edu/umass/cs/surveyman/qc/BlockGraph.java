@@ -0,0 +1,307 @@
+package edu.umass.cs.surveyman.qc;
+
+import edu.umass.cs.surveyman.survey.Block;
+import edu.umass.cs.surveyman.survey.Question;
+import edu.umass.cs.surveyman.survey.Survey;
+
+import java.math.BigInteger;
+import java.util.*;
+
+/**
+ * Path statistics over the top-level blocks of a survey, computed with a single dynamic program rather than by
+ * enumerating every path (as {@link QCMetrics#getDag} does).
+ *
+ * The stationary top-level blocks are sorted and treated as the nodes of a DAG. A block without a branch question
+ * flows into the next block; a block with a branch question flows into each of its branch destinations that appears
+ * later in the sorted order. As in {@link QCMetrics#getDag}, destinations that are not later top-level blocks (e.g.
+ * NEXT, or backwards branches) are dropped, and a branch block that is left with no destinations ends no path. Every
+ * path also contains all of the top-level randomized (floating) blocks.
+ */
+public class BlockGraph {
+
+    private static final int UNREACHABLE = -1;
+
+    /**
+     * Orders stationary blocks by their ids. Block implements the raw Comparable, so sorting through this comparator
+     * keeps callers free of unchecked warnings.
+     */
+    static final Comparator<Block> BLOCK_ORDER = new Comparator<Block>() {
+        @Override
+        public int compare(Block b1, Block b2) {
+            return b1.compareTo(b2);
+        }
+    };
+
+    private final Block[] blocks;
+    private final List<Block> floatingBlocks;
+    private final Map<Block, Integer> ordinals = new HashMap<Block, Integer>();
+    private final int[][] successors;
+    private final int floatingQuestions;
+    private final double floatingEntropy;
+    private int[] minQuestions;
+    private int[] maxQuestions;
+    private double[] maxEntropy;
+
+    public BlockGraph(Survey survey) {
+        Map<Boolean, List<Block>> partitionedBlocks = Interpreter.partitionBlocks(survey);
+        List<Block> stationary = new ArrayList<Block>(partitionedBlocks.get(false));
+        Collections.sort(stationary, BLOCK_ORDER);
+        this.blocks = stationary.toArray(new Block[stationary.size()]);
+        this.floatingBlocks = Collections.unmodifiableList(new ArrayList<Block>(partitionedBlocks.get(true)));
+        // stationary blocks are numbered by sorted position, followed by the floating blocks
+        for (int i = 0 ; i < blocks.length ; i++)
+            ordinals.put(blocks[i], i);
+        for (int i = 0 ; i < floatingBlocks.size() ; i++)
+            ordinals.put(floatingBlocks.get(i), blocks.length + i);
+        // the terminal node is blocks.length
+        this.successors = new int[blocks.length][];
+        for (int i = 0 ; i < blocks.length ; i++) {
+            if (blocks[i].hasBranchQuestion()) {
+                SortedSet<Integer> dests = new TreeSet<Integer>();
+                for (Block dest : blocks[i].getBranchDestinations()) {
+                    Integer j = dest == null ? null : ordinals.get(dest);
+                    if (j != null && j > i && j < blocks.length)
+                        dests.add(j);
+                }
+                successors[i] = new int[dests.size()];
+                int k = 0;
+                for (Integer j : dests)
+                    successors[i][k++] = j;
+            } else successors[i] = new int[]{ i + 1 };
+        }
+        int questions = 0;
+        double entropy = 0.0;
+        for (Block b : floatingBlocks) {
+            questions += questionsAsked(b);
+            entropy += maxEntropy(b);
+        }
+        this.floatingQuestions = questions;
+        this.floatingEntropy = entropy;
+        computePathStatistics();
+    }
+
+    /**
+     * Returns the number of top-level blocks in the survey. Top-level blocks are numbered from 0: stationary blocks
+     * first, in sorted order, followed by the floating blocks.
+     * @return The number of block ordinals.
+     */
+    public int getNumBlocks() {
+        return ordinals.size();
+    }
+
+    /**
+     * Returns the ordinal of the top-level block that contains the input block.
+     * @param block A block in the survey, at any depth.
+     * @return The ordinal of its top-level ancestor, or -1 if the block is not part of the survey.
+     */
+    public int getOrdinal(Block block) {
+        while (block.parentBlock != null)
+            block = block.parentBlock;
+        Integer ordinal = ordinals.get(block);
+        return ordinal == null ? -1 : ordinal;
+    }
+
+    /**
+     * Returns the number of questions a respondent answers in the input block, as {@link FastInterpreter} executes it:
+     * every question of the block and of its sub-blocks, except that a nested ALL block asks one of its questions. A
+     * top-level ALL block asks all of them.
+     */
+    static int questionsAsked(Block block) {
+        int retval = block.questions.size();
+        for (Block b : block.subBlocks)
+            retval += b.branchParadigm == Block.BranchParadigm.ALL ? 1 : questionsAsked(b);
+        return retval;
+    }
+
+    /**
+     * Returns the maximum entropy of the questions a respondent answers in the input block, counted as
+     * {@link #questionsAsked} does. For nested ALL blocks, the question with the most options is used.
+     */
+    private static double maxEntropy(Block block) {
+        double retval = 0.0;
+        for (Question q : block.questions)
+            retval += QCMetrics.maxEntropyOneQuestion(q);
+        for (Block b : block.subBlocks) {
+            if (b.branchParadigm == Block.BranchParadigm.ALL) {
+                double max = 0.0;
+                for (Question q : b.questions)
+                    max = Math.max(max, QCMetrics.maxEntropyOneQuestion(q));
+                retval += max;
+            } else retval += maxEntropy(b);
+        }
+        return retval;
+    }
+
+    private void computePathStatistics() {
+        int n = blocks.length;
+        minQuestions = new int[n + 1];
+        maxQuestions = new int[n + 1];
+        maxEntropy = new double[n + 1];
+        // successors always come later in the sorted order, so a reverse sweep is a topological order
+        for (int i = n - 1 ; i >= 0 ; i--) {
+            int min = Integer.MAX_VALUE;
+            int max = UNREACHABLE;
+            double ent = 0.0;
+            for (int j : successors[i]) {
+                if (maxQuestions[j] == UNREACHABLE)
+                    continue;
+                min = Math.min(min, minQuestions[j]);
+                max = Math.max(max, maxQuestions[j]);
+                ent = Math.max(ent, maxEntropy[j]);
+            }
+            if (max == UNREACHABLE) {
+                minQuestions[i] = maxQuestions[i] = UNREACHABLE;
+                continue;
+            }
+            int questions = questionsAsked(blocks[i]);
+            minQuestions[i] = min + questions;
+            maxQuestions[i] = max + questions;
+            maxEntropy[i] = ent + maxEntropy(blocks[i]);
+        }
+    }
+
+    /**
+     * Returns true if there is at least one complete path through the stationary blocks.
+     * @return Whether the survey has any paths.
+     */
+    public boolean hasPaths() {
+        return blocks.length > 0 && maxQuestions[0] != UNREACHABLE;
+    }
+
+    /**
+     * Returns the smallest number of questions on any path through the survey.
+     * @return The minimum path length, or {@code Integer.MAX_VALUE} if there are no paths.
+     */
+    public int minimumPathLength() {
+        return hasPaths() ? minQuestions[0] + floatingQuestions : Integer.MAX_VALUE;
+    }
+
+    /**
+     * Returns the largest number of questions on any path through the survey.
+     * @return The maximum path length, or {@code Integer.MIN_VALUE} if there are no paths.
+     */
+    public int maximumPathLength() {
+        return hasPaths() ? maxQuestions[0] + floatingQuestions : Integer.MIN_VALUE;
+    }
+
+    /**
+     * Returns the largest total of per-question maximum entropies on any path through the survey.
+     * @return The maximum possible entropy, or 0 if there are no paths.
+     */
+    public double getMaxPossibleEntropy() {
+        return hasPaths() ? maxEntropy[0] + floatingEntropy : 0.0;
+    }
+
+    /**
+     * Returns the stationary top-level blocks that do not lie on any complete path through the survey.
+     * @return The unreachable blocks, in sorted order.
+     */
+    public List<Block> getUnreachableBlocks() {
+        List<Block> retval = new ArrayList<Block>();
+        boolean[] reached = new boolean[blocks.length + 1];
+        reached[0] = hasPaths();
+        for (int i = 0 ; i < blocks.length ; i++) {
+            if (reached[i] && maxQuestions[i] != UNREACHABLE) {
+                for (int j : successors[i])
+                    reached[j] = true;
+            } else retval.add(blocks[i]);
+        }
+        return retval;
+    }
+
+    /**
+     * Returns the exact number of distinct paths through the survey, without enumerating them.
+     * @return The number of paths that {@link #paths()} yields.
+     */
+    public BigInteger countPaths() {
+        if (blocks.length == 0)
+            return BigInteger.ZERO;
+        BigInteger[] counts = new BigInteger[blocks.length + 1];
+        counts[blocks.length] = BigInteger.ONE;
+        for (int i = blocks.length - 1 ; i >= 0 ; i--) {
+            counts[i] = BigInteger.ZERO;
+            for (int j : successors[i])
+                counts[i] = counts[i].add(counts[j]);
+        }
+        return counts[0];
+    }
+
+    /**
+     * Returns the distinct paths through the survey. Paths are generated on demand by a depth-first walk of the block
+     * graph that never enters a block from which no path is complete, so each path costs time proportional to its
+     * length. Consecutive paths share their common prefix (see {@link BlockPath}).
+     * @return An iterable over the paths; each call to {@code iterator()} starts a new walk.
+     */
+    public Iterable<BlockPath> paths() {
+        return new Iterable<BlockPath>() {
+            @Override
+            public Iterator<BlockPath> iterator() {
+                return new PathIterator();
+            }
+        };
+    }
+
+    private class PathIterator implements Iterator<BlockPath> {
+
+        private final List<int[]> frames = new ArrayList<int[]>();
+        private final List<BlockPath> framePaths = new ArrayList<BlockPath>();
+        private BlockPath nextPath;
+
+        PathIterator() {
+            if (hasPaths()) {
+                long[] floatingMembership = new long[(getNumBlocks() + 63) / 64];
+                for (int i = blocks.length ; i < getNumBlocks() ; i++)
+                    floatingMembership[i >>> 6] |= 1L << i;
+                frames.add(new int[]{ 0, 0 });
+                framePaths.add(new BlockPath(floatingBlocks, floatingMembership).append(blocks[0], 0));
+            }
+            advance();
+        }
+
+        /**
+         * Moves to the next complete path. Each frame holds a block position and the index of the next successor to
+         * try from it.
+         */
+        private void advance() {
+            nextPath = null;
+            while (!frames.isEmpty()) {
+                int top = frames.size() - 1;
+                int[] frame = frames.get(top);
+                int[] succ = successors[frame[0]];
+                if (frame[1] >= succ.length) {
+                    frames.remove(top);
+                    framePaths.remove(top);
+                    continue;
+                }
+                int j = succ[frame[1]++];
+                if (j == blocks.length) {
+                    nextPath = framePaths.get(top);
+                    return;
+                }
+                if (maxQuestions[j] != UNREACHABLE) {
+                    frames.add(new int[]{ j, 0 });
+                    framePaths.add(framePaths.get(top).append(blocks[j], j));
+                }
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return nextPath != null;
+        }
+
+        @Override
+        public BlockPath next() {
+            if (nextPath == null)
+                throw new NoSuchElementException();
+            BlockPath retval = nextPath;
+            advance();
+            return retval;
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package edu.umass.cs.surveyman.qc;
+
+import edu.umass.cs.surveyman.survey.Block;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A single path through the top-level blocks of a survey. Paths are stored as a chain of stationary blocks that points
+ * back to its prefix, so paths produced by {@link BlockGraph#paths()} share the blocks they have in common rather
+ * than copying them. Every path also contains the survey's top-level floating blocks, which are shared by all paths.
+ */
+public class BlockPath {
+
+    private final Block block;
+    private final int ordinal;
+    private final BlockPath prefix;
+    private final int length;
+    private final List<Block> floatingBlocks;
+    private final long[] floatingMembership;
+
+    /**
+     * Creates the empty path.
+     * @param floatingBlocks The survey's top-level floating blocks.
+     * @param floatingMembership The bitset of the floating blocks' ordinals.
+     */
+    BlockPath(List<Block> floatingBlocks, long[] floatingMembership) {
+        this.block = null;
+        this.ordinal = -1;
+        this.prefix = null;
+        this.length = 0;
+        this.floatingBlocks = floatingBlocks;
+        this.floatingMembership = floatingMembership;
+    }
+
+    private BlockPath(BlockPath prefix, Block block, int ordinal) {
+        this.block = block;
+        this.ordinal = ordinal;
+        this.prefix = prefix;
+        this.length = prefix.length + 1;
+        this.floatingBlocks = prefix.floatingBlocks;
+        this.floatingMembership = prefix.floatingMembership;
+    }
+
+    /**
+     * Returns a new path that extends this one with the input stationary block. This path is not modified.
+     * @param block The next stationary block on the path.
+     * @param ordinal The block's ordinal (see {@link BlockGraph#getOrdinal}).
+     * @return The extended path.
+     */
+    BlockPath append(Block block, int ordinal) {
+        return new BlockPath(this, block, ordinal);
+    }
+
+    /**
+     * Returns the set of blocks on this path as a bitset over block ordinals (see {@link BlockGraph#getOrdinal}), with
+     * bit {@code i} stored in bit {@code i % 64} of word {@code i / 64}.
+     * @return A new bitset.
+     */
+    public long[] getMembership() {
+        long[] retval = floatingMembership.clone();
+        for (BlockPath path = this ; path.block != null ; path = path.prefix)
+            retval[path.ordinal >>> 6] |= 1L << path.ordinal;
+        return retval;
+    }
+
+    /**
+     * Returns the stationary blocks on this path, in the order they are visited.
+     * @return A new list of blocks.
+     */
+    public List<Block> getStationaryBlocks() {
+        Block[] blocks = new Block[length];
+        BlockPath path = this;
+        for (int i = length - 1 ; i >= 0 ; i--) {
+            blocks[i] = path.block;
+            path = path.prefix;
+        }
+        List<Block> retval = new ArrayList<Block>(length);
+        Collections.addAll(retval, blocks);
+        return retval;
+    }
+
+    /**
+     * Returns all top-level blocks on this path: the stationary blocks in order, followed by the floating blocks.
+     * @return A new list of blocks.
+     */
+    public List<Block> getBlocks() {
+        List<Block> retval = getStationaryBlocks();
+        retval.addAll(floatingBlocks);
+        return retval;
+    }
+
+    /**
+     * Returns true if the input top-level block lies on this path.
+     * @param b A top-level block.
+     * @return Whether the block is on this path.
+     */
+    public boolean contains(Block b) {
+        for (BlockPath path = this ; path.block != null ; path = path.prefix)
+            if (path.block.equals(b))
+                return true;
+        return floatingBlocks.contains(b);
+    }
+
+    /**
+     * Returns the number of top-level blocks on this path, including floating blocks.
+     * @return The path length in blocks.
+     */
+    public int size() {
+        return length + floatingBlocks.size();
+    }
+
+    @Override
+    public String toString() {
+        return getBlocks().toString();
+    }
+}
@@ -0,0 +1,117 @@
+package edu.umass.cs.surveyman.qc;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Bootstrap resampling over precomputed per-response scores. Each response is scored exactly once; samples are drawn as
+ * indices into the score array and reduced to their means directly, so memory is linear in the number of responses
+ * rather than in iterations times responses. Iterations are split into fixed-size blocks that run on a fork/join pool;
+ * each block draws from its own generator seeded from the block's position, so the means only depend on the seed and
+ * not on how many threads ran them.
+ */
+public class Bootstrap {
+
+    /**
+     * Number of bootstrap iterations computed sequentially by a single fork/join task.
+     */
+    private static final int ITERATIONS_PER_TASK = 8;
+
+    private final double[] scores;
+    private final ForkJoinPool pool;
+
+    /**
+     * Creates a bootstrap engine that runs on the common fork/join pool.
+     * @param scores The score for each response in the response set.
+     */
+    public Bootstrap(double[] scores) {
+        this(scores, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Creates a bootstrap engine.
+     * @param scores The score for each response in the response set.
+     * @param pool The pool the bootstrap iterations run on.
+     */
+    public Bootstrap(double[] scores, ForkJoinPool pool) {
+        this.scores = scores;
+        this.pool = pool;
+    }
+
+    /**
+     * Draws bootstrap samples of the scores (with replacement, of the same size as the score array) and returns the mean
+     * of each sample.
+     * @param iterations The number of bootstrap samples to draw.
+     * @param seed The seed from which every block's generator is derived.
+     * @return An array of length {@code iterations} holding one mean per sample, in iteration order.
+     */
+    public double[] sampleMeans(int iterations, long seed) {
+        double[] means = new double[iterations];
+        if (scores.length == 0) {
+            Arrays.fill(means, Double.NaN);
+            return means;
+        }
+        pool.invoke(new MeanTask(means, 0, iterations, seed));
+        return means;
+    }
+
+    /**
+     * Returns the alpha cutoff of the bootstrap distribution of mean scores.
+     * @param iterations The number of bootstrap samples to draw.
+     * @param alpha The percentage of area under the curve.
+     * @param seed The seed from which every block's generator is derived.
+     * @return The mean at the alpha position of the sorted bootstrap means.
+     */
+    public double threshold(int iterations, double alpha, long seed) {
+        double[] means = sampleMeans(iterations, seed);
+        Arrays.sort(means);
+        return means[Math.min(means.length - 1, (int) Math.floor(alpha * means.length))];
+    }
+
+    /**
+     * SplitMix64 finalizer; decorrelates the seeds of neighboring blocks.
+     */
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+
+    private class MeanTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final double[] means;
+        private final int lo;
+        private final int hi;
+        private final long seed;
+
+        MeanTask(double[] means, int lo, int hi, long seed) {
+            this.means = means;
+            this.lo = lo;
+            this.hi = hi;
+            this.seed = seed;
+        }
+
+        @Override
+        protected void compute() {
+            int blocks = (hi - lo + ITERATIONS_PER_TASK - 1) / ITERATIONS_PER_TASK;
+            if (blocks > 1) {
+                // split on block boundaries so that every block sees the same generator regardless of scheduling
+                int mid = lo + (blocks / 2) * ITERATIONS_PER_TASK;
+                invokeAll(new MeanTask(means, lo, mid, seed), new MeanTask(means, mid, hi, seed));
+                return;
+            }
+            Random rng = new Random(mix(seed + lo * 0x9e3779b97f4a7c15L));
+            int n = scores.length;
+            for (int i = lo ; i < hi ; i++) {
+                double total = 0.0;
+                for (int j = 0 ; j < n ; j++)
+                    total += scores[rng.nextInt(n)];
+                means[i] = total / n;
+            }
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package edu.umass.cs.surveyman.qc;
+
+import edu.umass.cs.surveyman.analyses.ISurveyResponse;
+
+/**
+ * The outcome of classifying a single survey response against a response set.
+ */
+public class Classification {
+
+    /**
+     * The response that was classified.
+     */
+    public final ISurveyResponse surveyResponse;
+    /**
+     * The classifier used to produce this result.
+     */
+    public final Classifier classifier;
+    /**
+     * The score of this response under the classifier's model (e.g., its log likelihood or entropy).
+     */
+    public final double score;
+    /**
+     * The cutoff the score was compared against. This is {@code NaN} when the response set was too homogeneous to
+     * compute a meaningful threshold, in which case the response is considered valid.
+     */
+    public final double threshold;
+    /**
+     * True if the response was classified as valid.
+     */
+    public final boolean valid;
+
+    public Classification(ISurveyResponse surveyResponse,
+                          Classifier classifier,
+                          double score,
+                          double threshold,
+                          boolean valid) {
+        this.surveyResponse = surveyResponse;
+        this.classifier = classifier;
+        this.score = score;
+        this.threshold = threshold;
+        this.valid = valid;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s\t%s\t%f\t%f\t%b",
+                surveyResponse.getSrid(), classifier.name(), score, threshold, valid);
+    }
+}
@@ -0,0 +1,281 @@
+package edu.umass.cs.surveyman.qc;
+
+import edu.umass.cs.surveyman.analyses.IQuestionResponse;
+import edu.umass.cs.surveyman.analyses.ISurveyResponse;
+import edu.umass.cs.surveyman.analyses.KnownValidityStatus;
+import edu.umass.cs.surveyman.analyses.OptTuple;
+import edu.umass.cs.surveyman.analyses.ResultsReader;
+import edu.umass.cs.surveyman.survey.Component;
+import edu.umass.cs.surveyman.survey.Question;
+import edu.umass.cs.surveyman.survey.Survey;
+import edu.umass.cs.surveyman.survey.exceptions.SurveyException;
+import edu.umass.cs.surveyman.utils.Gensym;
+
+import java.io.Reader;
+import java.util.*;
+
+/**
+ * An immutable survey response stored as primitive arrays of question and option ordinals (see {@link SurveyIndex}).
+ * For the i-th question seen, the selected options are {@code options[offsets[i]]} up to {@code options[offsets[i+1]]},
+ * in the order they were selected, and {@code positions} holds the position each option was displayed at. Answers in
+ * the other-answer slot (freetext and custom answers) are kept in a sparse array of components.
+ *
+ * {@link #getResponses()} returns a read-only view over the arrays; code that knows the survey index can read the
+ * ordinals directly and avoid the view entirely. Only the QC annotations (score, threshold, validity status, srid) are
+ * mutable.
+ */
+public class CompactSurveyResponse implements ISurveyResponse {
+
+    private static final Gensym gensym = new Gensym("sr");
+
+    public final SurveyIndex index;
+    private final int[] questions;
+    private final int[] offsets;
+    private final int[] options;
+    private final int[] positions;
+    private final Component[] others;
+
+    private String srid;
+    private String workerId;
+    private boolean recorded;
+    private double score;
+    private double threshold;
+    private KnownValidityStatus validityStatus = KnownValidityStatus.MAYBE;
+
+    /**
+     * Creates a response over the input arrays. The arrays are not copied, so the caller must not modify them
+     * afterwards.
+     * @param index The ordinals for the survey answered.
+     * @param questions The ordinals of the questions answered, in the order they were seen.
+     * @param offsets For each question seen, the start of its answers in {@code options}, followed by the total number
+     *                of answers.
+     * @param options The option ordinals selected.
+     * @param positions The position each selected option was displayed at, or -1 if unknown.
+     * @param others For each question seen, the answer in the other-answer slot, if any. May be null if no question
+     *               has such an answer.
+     */
+    public CompactSurveyResponse(SurveyIndex index, int[] questions, int[] offsets, int[] options, int[] positions,
+                                 Component[] others) {
+        if (offsets.length != questions.length + 1 || options.length != positions.length
+                || offsets[questions.length] != options.length)
+            throw new IllegalArgumentException("Inconsistent response array lengths.");
+        this.index = index;
+        this.questions = questions;
+        this.offsets = offsets;
+        this.options = options;
+        this.positions = positions;
+        this.others = others;
+        this.srid = gensym.next();
+    }
+
+    /**
+     * Returns true if this response's ordinals can be read against the input index without translation. See
+     * {@link SurveyIndex#hasSameOrdinals(SurveyIndex)}.
+     * @param index A survey index.
+     * @return Whether the ordinals agree.
+     */
+    public boolean isIndexedBy(SurveyIndex index) {
+        return this.index.hasSameOrdinals(index);
+    }
+
+    /**
+     * Returns the number of questions answered.
+     * @return The number of questions seen.
+     */
+    public int size() {
+        return questions.length;
+    }
+
+    /**
+     * Returns the ordinal of the i-th question seen.
+     * @param i The position at which the question was seen.
+     * @return A question ordinal.
+     */
+    public int getQuestionOrdinal(int i) {
+        return questions[i];
+    }
+
+    /**
+     * Returns the number of options selected for the i-th question seen.
+     * @param i The position at which the question was seen.
+     * @return The number of answers.
+     */
+    public int getNumSelected(int i) {
+        return offsets[i + 1] - offsets[i];
+    }
+
+    /**
+     * Returns the ordinal of the k-th option selected for the i-th question seen.
+     * @param i The position at which the question was seen.
+     * @param k The position of the answer among the question's answers.
+     * @return An option ordinal.
+     */
+    public int getOptionOrdinal(int i, int k) {
+        return options[offsets[i] + k];
+    }
+
+    /**
+     * Returns the display position of the k-th option selected for the i-th question seen.
+     * @param i The position at which the question was seen.
+     * @param k The position of the answer among the question's answers.
+     * @return The display position, or -1 if it is not known.
+     */
+    public int getPosition(int i, int k) {
+        return positions[offsets[i] + k];
+    }
+
+    /**
+     * Returns the answer recorded in the other-answer slot of the i-th question seen.
+     * @param i The position at which the question was seen.
+     * @return The answer, or null if there is none.
+     */
+    public Component getOther(int i) {
+        return others == null ? null : others[i];
+    }
+
+    private Component getComponent(int i, int k) {
+        Component c = index.getOption(questions[i], getOptionOrdinal(i, k));
+        return c == null ? getOther(i) : c;
+    }
+
+    private class QuestionResponse implements IQuestionResponse {
+
+        private final int i;
+
+        QuestionResponse(int i) {
+            this.i = i;
+        }
+
+        @Override
+        public Question getQuestion() {
+            return index.getQuestion(questions[i]);
+        }
+
+        @Override
+        public List<OptTuple> getOpts() {
+            return new AbstractList<OptTuple>() {
+                @Override
+                public OptTuple get(int k) {
+                    if (k < 0 || k >= size())
+                        throw new IndexOutOfBoundsException(String.valueOf(k));
+                    return new OptTuple(getComponent(i, k), getPosition(i, k));
+                }
+                @Override
+                public int size() {
+                    return getNumSelected(i);
+                }
+            };
+        }
+
+        @Override
+        public int getIndexSeen() {
+            return i;
+        }
+    }
+
+    @Override
+    public List<IQuestionResponse> getResponses() {
+        return new AbstractList<IQuestionResponse>() {
+            @Override
+            public IQuestionResponse get(int i) {
+                if (i < 0 || i >= size())
+                    throw new IndexOutOfBoundsException(String.valueOf(i));
+                return new QuestionResponse(i);
+            }
+            @Override
+            public int size() {
+                return questions.length;
+            }
+        };
+    }
+
+    @Override
+    public void setResponses(List<IQuestionResponse> responses) {
+        throw new UnsupportedOperationException("CompactSurveyResponse is immutable.");
+    }
+
+    @Override
+    public boolean isRecorded() {
+        return recorded;
+    }
+
+    @Override
+    public void setRecorded(boolean recorded) {
+        this.recorded = recorded;
+    }
+
+    @Override
+    public String getSrid() {
+        return srid;
+    }
+
+    @Override
+    public void setSrid(String srid) {
+        this.srid = srid;
+    }
+
+    @Override
+    public String workerId() {
+        return workerId == null ? srid : workerId;
+    }
+
+    /**
+     * Records the id of the worker who gave this response, e.g. when it was read from a results file.
+     * @param workerId The worker id.
+     */
+    public void setWorkerId(String workerId) {
+        this.workerId = workerId;
+    }
+
+    @Override
+    public Map<String, IQuestionResponse> resultsAsMap() {
+        Map<String, IQuestionResponse> retval = new HashMap<String, IQuestionResponse>();
+        for (int i = 0 ; i < questions.length ; i++)
+            retval.put(index.getQuestion(questions[i]).quid, new QuestionResponse(i));
+        return retval;
+    }
+
+    @Override
+    public List<ISurveyResponse> readSurveyResponses(Survey s, Reader r) throws SurveyException {
+        return ResultsReader.readAll(s, r);
+    }
+
+    @Override
+    public void setScore(double score) {
+        this.score = score;
+    }
+
+    @Override
+    public double getScore() {
+        return score;
+    }
+
+    @Override
+    public void setThreshold(double pval) {
+        this.threshold = pval;
+    }
+
+    @Override
+    public double getThreshold() {
+        return threshold;
+    }
+
+    @Override
+    public boolean surveyResponseContainsAnswer(List<Component> variants) {
+        for (int i = 0 ; i < questions.length ; i++)
+            for (int k = 0 ; k < getNumSelected(i) ; k++)
+                if (variants.contains(getComponent(i, k)))
+                    return true;
+        return false;
+    }
+
+    @Override
+    public KnownValidityStatus getKnownValidityStatus() {
+        return validityStatus;
+    }
+
+    @Override
+    public void setKnownValidityStatus(KnownValidityStatus validityStatus) {
+        this.validityStatus = validityStatus;
+    }
+}
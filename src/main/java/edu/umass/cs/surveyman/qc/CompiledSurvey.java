@@ -0,0 +1,158 @@
+package edu.umass.cs.surveyman.qc;
+
+import edu.umass.cs.surveyman.survey.Block;
+import edu.umass.cs.surveyman.survey.Component;
+import edu.umass.cs.surveyman.survey.Question;
+import edu.umass.cs.surveyman.survey.Survey;
+
+import java.util.*;
+
+/**
+ * An execution plan for a survey, used by {@link FastInterpreter}. Blocks are flattened into numbered nodes whose
+ * contents, randomizable and fixed sub-blocks are stored as arrays of node and question ordinals (see
+ * {@link SurveyIndex}); branch destinations are resolved into a jump table indexed by question and option ordinal.
+ * The plan is immutable, so one plan can be shared by any number of interpreters and threads. It is a snapshot: if the
+ * survey is modified, it must be compiled again.
+ */
+public class CompiledSurvey {
+
+    /**
+     * Branch target of an option that does not branch, or branches to NEXT.
+     */
+    static final int NEXT = -1;
+
+    /**
+     * How a question's options are reordered when it is displayed.
+     */
+    static final byte FIXED = 0;
+    static final byte REVERSIBLE = 1;
+    static final byte SHUFFLED = 2;
+
+    public final Survey survey;
+    public final SurveyIndex index;
+
+    // block nodes
+    final int[][] nodeQuestions;
+    final int[][] nodeRandomizedChildren;
+    final int[][] nodeFixedChildren;
+    final boolean[] nodeSampled;
+    final int maxNodeSize;
+
+    // top level
+    final int[] stationary;
+    final int[] floating;
+
+    // questions
+    final boolean[] branching;
+    final int[][] branchTargets;
+    final byte[] optionOrder;
+    final int maxOptions;
+
+    // answer distributions of random respondents, built on first use by PositionPreferences.get
+    final Map<RandomRespondent.AdversaryType, PositionPreferences> positionPreferences =
+            new EnumMap<RandomRespondent.AdversaryType, PositionPreferences>(RandomRespondent.AdversaryType.class);
+
+    private final List<Block> nodes = new ArrayList<Block>();
+    private final Map<Block, Integer> nodeIds = new HashMap<Block, Integer>();
+
+    public CompiledSurvey(Survey survey) {
+        this.survey = survey;
+        this.index = new SurveyIndex(survey);
+        Map<Boolean, List<Block>> partitionedBlocks = Interpreter.partitionBlocks(survey);
+        List<Block> stationaryBlocks = new ArrayList<Block>(partitionedBlocks.get(false));
+        Collections.sort(stationaryBlocks, BlockGraph.BLOCK_ORDER);
+        this.stationary = new int[stationaryBlocks.size()];
+        for (int i = 0 ; i < stationary.length ; i++)
+            stationary[i] = addNode(stationaryBlocks.get(i));
+        List<Block> floatingBlocks = partitionedBlocks.get(true);
+        this.floating = new int[floatingBlocks.size()];
+        for (int i = 0 ; i < floating.length ; i++)
+            floating[i] = addNode(floatingBlocks.get(i));
+
+        int numNodes = nodes.size();
+        this.nodeQuestions = new int[numNodes][];
+        this.nodeRandomizedChildren = new int[numNodes][];
+        this.nodeFixedChildren = new int[numNodes][];
+        this.nodeSampled = new boolean[numNodes];
+        int maxSize = 0;
+        for (int n = 0 ; n < numNodes ; n++) {
+            Block b = nodes.get(n);
+            nodeQuestions[n] = new int[b.questions.size()];
+            for (int i = 0 ; i < nodeQuestions[n].length ; i++)
+                nodeQuestions[n][i] = index.getQuestionOrdinal(b.questions.get(i));
+            List<Integer> randomized = new ArrayList<Integer>();
+            List<Integer> fixed = new ArrayList<Integer>();
+            for (Block child : b.subBlocks)
+                (child.isRandomized() ? randomized : fixed).add(nodeIds.get(child));
+            nodeRandomizedChildren[n] = toArray(randomized);
+            nodeFixedChildren[n] = toArray(fixed);
+            // nested ALL blocks contribute one of their questions; top-level ALL blocks ask every question
+            nodeSampled[n] = b.parentBlock != null && b.branchParadigm == Block.BranchParadigm.ALL;
+            maxSize = Math.max(maxSize, b.questions.size() + b.subBlocks.size());
+        }
+        this.maxNodeSize = maxSize;
+
+        Map<Block, Integer> stationaryPositions = new HashMap<Block, Integer>();
+        for (int i = 0 ; i < stationaryBlocks.size() ; i++)
+            stationaryPositions.put(stationaryBlocks.get(i), i);
+        int numQuestions = index.getNumQuestions();
+        this.branching = new boolean[numQuestions];
+        this.branchTargets = new int[numQuestions][];
+        this.optionOrder = new byte[numQuestions];
+        int maxOpts = 0;
+        for (int q = 0 ; q < numQuestions ; q++) {
+            Question question = index.getQuestion(q);
+            int numOptions = index.getNumOptions(q);
+            maxOpts = Math.max(maxOpts, numOptions);
+            branching[q] = question.isBranchQuestion();
+            branchTargets[q] = new int[numOptions + 1];
+            Arrays.fill(branchTargets[q], NEXT);
+            if (branching[q]) {
+                for (int o = 0 ; o < numOptions ; o++) {
+                    Block dest = question.getBranchDest(index.getOption(q, o));
+                    if (dest == null)
+                        continue;
+                    Integer position = stationaryPositions.get(dest);
+                    // a destination that is not a stationary top-level block is never reached
+                    branchTargets[q][o] = position == null ? stationary.length : position;
+                }
+            }
+            if (!Boolean.TRUE.equals(question.randomize))
+                optionOrder[q] = FIXED;
+            else optionOrder[q] = Boolean.TRUE.equals(question.ordered) ? REVERSIBLE : SHUFFLED;
+        }
+        this.maxOptions = maxOpts;
+    }
+
+    private static int[] toArray(List<Integer> list) {
+        int[] retval = new int[list.size()];
+        for (int i = 0 ; i < retval.length ; i++)
+            retval[i] = list.get(i);
+        return retval;
+    }
+
+    private int addNode(Block block) {
+        int id = nodes.size();
+        nodes.add(block);
+        nodeIds.put(block, id);
+        for (Block child : block.subBlocks)
+            addNode(child);
+        return id;
+    }
+
+    public int getNumQuestions() {
+        return index.getNumQuestions();
+    }
+
+    public Question getQuestion(int q) {
+        return index.getQuestion(q);
+    }
+
+    public Component getOption(int q, int o) {
+        return index.getOption(q, o);
+    }
+
+    public Block getBlock(int node) {
+        return nodes.get(node);
+    }
+}
@@ -0,0 +1,47 @@
+package edu.umass.cs.surveyman.qc;
+
+import edu.umass.cs.surveyman.survey.Question;
+
+/**
+ * The correlation between the answers to two questions, over the respondents who answered both.
+ */
+public class Correlation {
+
+    public enum CoefficientType { CRAMERS_V, SPEARMAN }
+
+    public final Question question1;
+    public final Question question2;
+    /**
+     * Spearman's rho when both questions are ordered; Cramer's V otherwise.
+     */
+    public final CoefficientType coefficientType;
+    public final double coefficient;
+    /**
+     * The probability of a coefficient at least this extreme if the answers were independent.
+     */
+    public final double pValue;
+    /**
+     * The number of respondents who answered both questions.
+     */
+    public final int n;
+
+    public Correlation(Question question1,
+                       Question question2,
+                       CoefficientType coefficientType,
+                       double coefficient,
+                       double pValue,
+                       int n) {
+        this.question1 = question1;
+        this.question2 = question2;
+        this.coefficientType = coefficientType;
+        this.coefficient = coefficient;
+        this.pValue = pValue;
+        this.n = n;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s\t%s\t%s\t%f\t%f\t%d",
+                question1.quid, question2.quid, coefficientType.name(), coefficient, pValue, n);
+    }
+}
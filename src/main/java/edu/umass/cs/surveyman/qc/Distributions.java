@@ -0,0 +1,171 @@
+package edu.umass.cs.surveyman.qc;
+
+/**
+ * Quantiles and tail probabilities of the distributions used by the QC metrics.
+ */
+class Distributions {
+
+    private static final double EPSILON = 1e-14;
+    private static final int MAX_ITERATIONS = 1000;
+    private static final double TINY = 1e-300;
+
+    private Distributions() {}
+
+    /**
+     * Returns the quantile function of the standard normal distribution, using Acklam's rational approximation (relative
+     * error below 1.2e-9).
+     * @param p A probability in (0, 1).
+     * @return The value z such that P(Z &lt; z) = p.
+     */
+    static double normalQuantile(double p) {
+        if (p <= 0.0 || p >= 1.0)
+            throw new IllegalArgumentException(String.format("Probability %f is not in (0, 1).", p));
+        final double[] a = {-3.969683028665376e+01, 2.209460984245205e+02, -2.759285104469687e+02,
+                1.383577518672690e+02, -3.066479806614716e+01, 2.506628277459239e+00};
+        final double[] b = {-5.447609879822406e+01, 1.615858368580409e+02, -1.556989798598866e+02,
+                6.680131188771972e+01, -1.328068155288572e+01};
+        final double[] c = {-7.784894002430293e-03, -3.223964580411365e-01, -2.400758277161838e+00,
+                -2.549732539343734e+00, 4.374664141464968e+00, 2.938163982698783e+00};
+        final double[] d = {7.784695709041462e-03, 3.224671290700398e-01, 2.445134137142996e+00,
+                3.754408661907416e+00};
+        final double low = 0.02425;
+        if (p < low) {
+            double q = Math.sqrt(-2 * Math.log(p));
+            return (((((c[0] * q + c[1]) * q + c[2]) * q + c[3]) * q + c[4]) * q + c[5]) /
+                    ((((d[0] * q + d[1]) * q + d[2]) * q + d[3]) * q + 1);
+        } else if (p > 1 - low) {
+            return -normalQuantile(1 - p);
+        } else {
+            double q = p - 0.5;
+            double r = q * q;
+            return (((((a[0] * r + a[1]) * r + a[2]) * r + a[3]) * r + a[4]) * r + a[5]) * q /
+                    (((((b[0] * r + b[1]) * r + b[2]) * r + b[3]) * r + b[4]) * r + 1);
+        }
+    }
+
+    /**
+     * Returns the natural logarithm of the gamma function, using the Lanczos approximation.
+     */
+    static double logGamma(double x) {
+        final double[] coefficients = {76.18009172947146, -86.50532032941677, 24.01409824083091,
+                -1.231739572450155, 0.1208650973866179e-2, -0.5395239384953e-5};
+        double y = x;
+        double tmp = x + 5.5;
+        tmp -= (x + 0.5) * Math.log(tmp);
+        double series = 1.000000000190015;
+        for (double c : coefficients)
+            series += c / ++y;
+        return -tmp + Math.log(2.5066282746310005 * series / x);
+    }
+
+    /**
+     * Returns the regularized upper incomplete gamma function Q(a, x).
+     */
+    static double upperIncompleteGamma(double a, double x) {
+        if (x <= 0.0)
+            return 1.0;
+        if (x < a + 1.0) {
+            // series for the lower function
+            double ap = a;
+            double sum = 1.0 / a;
+            double del = sum;
+            for (int n = 0 ; n < MAX_ITERATIONS && Math.abs(del) > Math.abs(sum) * EPSILON ; n++) {
+                del *= x / ++ap;
+                sum += del;
+            }
+            return 1.0 - sum * Math.exp(-x + a * Math.log(x) - logGamma(a));
+        }
+        // continued fraction for the upper function (modified Lentz)
+        double b = x + 1.0 - a;
+        double c = 1.0 / TINY;
+        double d = 1.0 / b;
+        double h = d;
+        for (int i = 1 ; i <= MAX_ITERATIONS ; i++) {
+            double an = -i * (i - a);
+            b += 2.0;
+            d = an * d + b;
+            if (Math.abs(d) < TINY)
+                d = TINY;
+            c = b + an / c;
+            if (Math.abs(c) < TINY)
+                c = TINY;
+            d = 1.0 / d;
+            double del = d * c;
+            h *= del;
+            if (Math.abs(del - 1.0) < EPSILON)
+                break;
+        }
+        return Math.exp(-x + a * Math.log(x) - logGamma(a)) * h;
+    }
+
+    /**
+     * Returns the regularized incomplete beta function I_x(a, b).
+     */
+    static double incompleteBeta(double x, double a, double b) {
+        if (x <= 0.0)
+            return 0.0;
+        if (x >= 1.0)
+            return 1.0;
+        double front = Math.exp(logGamma(a + b) - logGamma(a) - logGamma(b) + a * Math.log(x) + b * Math.log(1.0 - x));
+        // the continued fraction converges quickly only below the mean; use the symmetry relation above it
+        if (x >= (a + 1.0) / (a + b + 2.0))
+            return 1.0 - front * betaContinuedFraction(1.0 - x, b, a) / b;
+        return front * betaContinuedFraction(x, a, b) / a;
+    }
+
+    private static double betaContinuedFraction(double x, double a, double b) {
+        double c = 1.0;
+        double d = 1.0 - (a + b) * x / (a + 1.0);
+        if (Math.abs(d) < TINY)
+            d = TINY;
+        d = 1.0 / d;
+        double h = d;
+        for (int m = 1 ; m <= MAX_ITERATIONS ; m++) {
+            int m2 = 2 * m;
+            double aa = m * (b - m) * x / ((a + m2 - 1.0) * (a + m2));
+            d = 1.0 + aa * d;
+            if (Math.abs(d) < TINY)
+                d = TINY;
+            c = 1.0 + aa / c;
+            if (Math.abs(c) < TINY)
+                c = TINY;
+            d = 1.0 / d;
+            h *= d * c;
+            aa = -(a + m) * (a + b + m) * x / ((a + m2) * (a + m2 + 1.0));
+            d = 1.0 + aa * d;
+            if (Math.abs(d) < TINY)
+                d = TINY;
+            c = 1.0 + aa / c;
+            if (Math.abs(c) < TINY)
+                c = TINY;
+            d = 1.0 / d;
+            double del = d * c;
+            h *= del;
+            if (Math.abs(del - 1.0) < EPSILON)
+                break;
+        }
+        return h;
+    }
+
+    /**
+     * Returns P(X &gt; x) for a chi-squared random variable X.
+     * @param x The test statistic.
+     * @param degreesOfFreedom The degrees of freedom.
+     * @return The upper tail probability.
+     */
+    static double chiSquaredSurvival(double x, int degreesOfFreedom) {
+        return upperIncompleteGamma(degreesOfFreedom / 2.0, x / 2.0);
+    }
+
+    /**
+     * Returns P(|T| &gt; |t|) for a Student's t random variable T.
+     * @param t The test statistic.
+     * @param degreesOfFreedom The degrees of freedom.
+     * @return The two-sided tail probability.
+     */
+    static double studentTTwoSided(double t, int degreesOfFreedom) {
+        if (Double.isInfinite(t))
+            return 0.0;
+        return incompleteBeta(degreesOfFreedom / (degreesOfFreedom + t * t), degreesOfFreedom / 2.0, 0.5);
+    }
+}
@@ -0,0 +1,379 @@
+package edu.umass.cs.surveyman.qc;
+
+import edu.umass.cs.surveyman.survey.Component;
+import edu.umass.cs.surveyman.survey.Question;
+import edu.umass.cs.surveyman.survey.Survey;
+
+import java.util.*;
+
+/**
+ * Executes a {@link CompiledSurvey} for one simulated respondent at a time, with the same semantics as
+ * {@link Interpreter}: top-level floating blocks are placed at random positions among the sorted stationary blocks;
+ * questions and randomized sub-blocks are shuffled within their block; nested ALL blocks contribute one randomly chosen
+ * question; and after a branch, stationary blocks are skipped until the branch destination is reached.
+ *
+ * All per-run state lives in arrays that are allocated once per interpreter and reused by {@link #reset()}, so one
+ * interpreter can run any number of simulated respondents in turn. Branch jumps are resolved through a per-run table
+ * of the next floating block position, so moving to the next block never scans the skipped ones. Unlike {@link Interpreter}, option order is tracked by the interpreter rather than by
+ * rewriting {@link Component#index}, so any number of interpreters can run the same survey concurrently.
+ *
+ * An interpreter is not thread-safe; give each thread its own.
+ */
+public class FastInterpreter {
+
+    private static final int NO_BRANCH = -2;
+    private static final int EMPTY = -1;
+
+    public final CompiledSurvey plan;
+    private Random rng;
+
+    // top-level order of this run
+    private final int[] slots;
+    private final int[] slotNodes;
+    private final int[] nextFloatingSlot;
+    private final int[] stationarySlot;
+    private int nextSlot;
+    private int branchTo;
+
+    // questions of the current top-level block
+    private final int[] queue;
+    private int queueHead;
+    private int queueTail;
+    private final int[] shuffleScratch;
+    private final int[][] contentScratch;
+
+    // the question being displayed
+    private int current = EMPTY;
+    private final int[] displayOrder;
+    private final int[] displayPosition;
+    private int numDisplayed;
+
+    // answers recorded so far, in the order the questions were seen
+    private final int[] answeredQuestions;
+    private final int[] answerOffsets;
+    private int[] answerOptions;
+    private int[] answerPositions;
+    private final Component[] otherAnswers;
+    private final int[] singleAnswer = new int[1];
+    private int numAnswered;
+    private int numAnswerOptions;
+
+    public FastInterpreter(CompiledSurvey plan, Random rng) {
+        this.plan = plan;
+        this.rng = rng;
+        int numTopLevel = plan.stationary.length + plan.floating.length;
+        this.slots = new int[numTopLevel];
+        this.slotNodes = new int[numTopLevel];
+        this.nextFloatingSlot = new int[numTopLevel + 1];
+        this.stationarySlot = new int[plan.stationary.length];
+        int numQuestions = plan.getNumQuestions();
+        this.queue = new int[numQuestions];
+        this.shuffleScratch = new int[plan.maxNodeSize];
+        this.contentScratch = new int[plan.nodeQuestions.length][];
+        for (int n = 0 ; n < contentScratch.length ; n++)
+            contentScratch[n] = new int[plan.nodeQuestions[n].length + plan.nodeRandomizedChildren[n].length
+                    + plan.nodeFixedChildren[n].length];
+        this.displayOrder = new int[plan.maxOptions];
+        this.displayPosition = new int[plan.maxOptions + 1];
+        this.answeredQuestions = new int[numQuestions];
+        this.answerOffsets = new int[numQuestions + 1];
+        this.answerOptions = new int[Math.max(1, numQuestions)];
+        this.answerPositions = new int[answerOptions.length];
+        this.otherAnswers = new Component[numQuestions];
+        reset();
+    }
+
+    public FastInterpreter(Survey survey) {
+        this(new CompiledSurvey(survey), Interpreter.random);
+    }
+
+    /**
+     * Discards any recorded answers and starts a new run through the survey that draws from the input source of
+     * randomness, as a new interpreter for the same survey would.
+     * @param rng The source of randomness for this run and the following ones.
+     */
+    public void reset(Random rng) {
+        this.rng = rng;
+        reset();
+    }
+
+    /**
+     * Discards any recorded answers and starts a new run through the survey.
+     */
+    public void reset() {
+        int numFloating = plan.floating.length;
+        int numTopLevel = slots.length;
+        // choose the positions of the floating blocks, as in Block.shuffle
+        for (int i = 0 ; i < numTopLevel ; i++)
+            slots[i] = i;
+        for (int i = 0 ; i < numFloating ; i++) {
+            int j = i + rng.nextInt(numTopLevel - i);
+            int tmp = slots[i]; slots[i] = slots[j]; slots[j] = tmp;
+        }
+        Arrays.fill(slotNodes, EMPTY);
+        for (int i = 0 ; i < numFloating ; i++)
+            slotNodes[slots[i]] = plan.floating[i];
+        for (int slot = 0, s = 0 ; slot < numTopLevel ; slot++) {
+            if (slotNodes[slot] == EMPTY) {
+                slotNodes[slot] = plan.stationary[s];
+                stationarySlot[s++] = slot;
+            }
+        }
+        nextFloatingSlot[numTopLevel] = numTopLevel;
+        for (int slot = numTopLevel - 1 ; slot >= 0 ; slot--)
+            nextFloatingSlot[slot] = isFloatingSlot(slot) ? slot : nextFloatingSlot[slot + 1];
+        nextSlot = 0;
+        branchTo = NO_BRANCH;
+        queueHead = queueTail = 0;
+        current = EMPTY;
+        numAnswered = 0;
+        numAnswerOptions = 0;
+        Arrays.fill(otherAnswers, null);
+    }
+
+    private boolean isFloatingSlot(int slot) {
+        int node = slotNodes[slot];
+        for (int f : plan.floating)
+            if (f == node)
+                return true;
+        return false;
+    }
+
+    /**
+     * Returns the slot of the next top-level block to execute, honoring any pending branch.
+     */
+    private int nextTopLevelSlot() {
+        int numTopLevel = slots.length;
+        if (nextSlot >= numTopLevel)
+            return numTopLevel;
+        if (branchTo == NO_BRANCH)
+            return nextSlot;
+        int floatingSlot = nextFloatingSlot[nextSlot];
+        int targetSlot = branchTo < stationarySlot.length && stationarySlot[branchTo] >= nextSlot ?
+                stationarySlot[branchTo] : numTopLevel;
+        if (targetSlot < floatingSlot) {
+            branchTo = NO_BRANCH;
+            return targetSlot;
+        }
+        return floatingSlot;
+    }
+
+    /**
+     * Fills the question queue with the questions of the next top-level block that has any.
+     */
+    private void fillQueue() {
+        while (queueHead == queueTail) {
+            int slot = nextTopLevelSlot();
+            if (slot >= slots.length)
+                return;
+            nextSlot = slot + 1;
+            queueHead = queueTail = 0;
+            enqueue(slotNodes[slot]);
+        }
+    }
+
+    private void enqueue(int node) {
+        int[] questions = plan.nodeQuestions[node];
+        int[] randomized = plan.nodeRandomizedChildren[node];
+        int[] fixed = plan.nodeFixedChildren[node];
+        int[] contents = contentScratch[node];
+        int size = contents.length;
+        int placed = questions.length + randomized.length;
+        // choose the positions of the questions and randomized sub-blocks; fixed sub-blocks fill the rest in order
+        for (int i = 0 ; i < size ; i++)
+            shuffleScratch[i] = i;
+        for (int i = 0 ; i < placed ; i++) {
+            int j = i + rng.nextInt(size - i);
+            int tmp = shuffleScratch[i]; shuffleScratch[i] = shuffleScratch[j]; shuffleScratch[j] = tmp;
+        }
+        Arrays.fill(contents, EMPTY);
+        for (int i = 0 ; i < questions.length ; i++)
+            contents[shuffleScratch[i]] = questions[i];
+        for (int i = 0 ; i < randomized.length ; i++)
+            contents[shuffleScratch[questions.length + i]] = encodeNode(randomized[i]);
+        for (int i = 0, f = 0 ; i < size ; i++)
+            if (contents[i] == EMPTY)
+                contents[i] = encodeNode(fixed[f++]);
+        for (int i = 0 ; i < size ; i++) {
+            int content = contents[i];
+            if (content >= 0) {
+                queue[queueTail++] = content;
+            } else {
+                int child = decodeNode(content);
+                if (plan.nodeSampled[child]) {
+                    int[] variants = plan.nodeQuestions[child];
+                    queue[queueTail++] = variants[rng.nextInt(variants.length)];
+                } else enqueue(child);
+            }
+        }
+    }
+
+    private static int encodeNode(int node) {
+        return -node - 2;
+    }
+
+    private static int decodeNode(int content) {
+        return -content - 2;
+    }
+
+    /**
+     * Returns true when there are no more questions to ask.
+     * @return Whether the run is complete.
+     */
+    public boolean terminated() {
+        fillQueue();
+        return queueHead == queueTail;
+    }
+
+    /**
+     * Moves to the next question and decides the order its options are displayed in.
+     * @return The ordinal of the next question.
+     */
+    public int nextQuestion() {
+        fillQueue();
+        if (queueHead == queueTail)
+            throw new NoSuchElementException("The survey has no more questions.");
+        current = queue[queueHead++];
+        numDisplayed = plan.getQuestion(current).freetext ? 0 : plan.index.getNumOptions(current);
+        for (int i = 0 ; i < numDisplayed ; i++)
+            displayOrder[i] = i;
+        if (plan.optionOrder[current] == CompiledSurvey.REVERSIBLE) {
+            if (rng.nextBoolean())
+                for (int i = 0 ; i < numDisplayed / 2 ; i++) {
+                    int tmp = displayOrder[i];
+                    displayOrder[i] = displayOrder[numDisplayed - i - 1];
+                    displayOrder[numDisplayed - i - 1] = tmp;
+                }
+        } else if (plan.optionOrder[current] == CompiledSurvey.SHUFFLED) {
+            for (int i = numDisplayed - 1 ; i > 0 ; i--) {
+                int j = rng.nextInt(i + 1);
+                int tmp = displayOrder[i]; displayOrder[i] = displayOrder[j]; displayOrder[j] = tmp;
+            }
+        }
+        for (int i = 0 ; i < numDisplayed ; i++)
+            displayPosition[displayOrder[i]] = i;
+        displayPosition[plan.index.getOtherOrdinal(current)] = -1;
+        return current;
+    }
+
+    /**
+     * Returns the number of options displayed for the current question.
+     * @return The number of displayed options; 0 for freetext questions.
+     */
+    public int getNumDisplayed() {
+        return numDisplayed;
+    }
+
+    /**
+     * Returns the option ordinal displayed at the input position of the current question.
+     * @param position A display position.
+     * @return An option ordinal.
+     */
+    public int getDisplayedOption(int position) {
+        return displayOrder[position];
+    }
+
+    /**
+     * Records the answer to the current question.
+     * @param options The ordinals of the selected options, in display order. The first option decides the branch
+     *                destination, if the question branches.
+     * @param n The number of selected options.
+     */
+    public void answer(int[] options, int n) {
+        if (current == EMPTY)
+            throw new IllegalStateException("No question has been asked.");
+        if (numAnswerOptions + n > answerOptions.length) {
+            answerOptions = Arrays.copyOf(answerOptions, Math.max(2 * answerOptions.length, numAnswerOptions + n));
+            answerPositions = Arrays.copyOf(answerPositions, answerOptions.length);
+        }
+        answeredQuestions[numAnswered] = current;
+        for (int i = 0 ; i < n ; i++) {
+            answerOptions[numAnswerOptions] = options[i];
+            answerPositions[numAnswerOptions++] = displayPosition[options[i]];
+        }
+        answerOffsets[++numAnswered] = numAnswerOptions;
+        if (plan.branching[current] && n > 0) {
+            int target = plan.branchTargets[current][options[0]];
+            branchTo = target == CompiledSurvey.NEXT ? NO_BRANCH : target;
+        }
+        current = EMPTY;
+    }
+
+    /**
+     * Records a single-option answer to the current question.
+     * @param option The ordinal of the selected option.
+     */
+    public void answer(int option) {
+        singleAnswer[0] = option;
+        answer(singleAnswer, 1);
+    }
+
+    /**
+     * Records an answer that is not among the current question's options, e.g. freetext.
+     * @param c The answer.
+     */
+    public void answerOther(Component c) {
+        otherAnswers[numAnswered] = c;
+        answer(plan.index.getOtherOrdinal(current));
+    }
+
+    /**
+     * Moves to the next question. This mirrors {@link Interpreter#getNextQuestion()}; the options are available in
+     * display order from {@link #getOptions()}.
+     * @return The next question.
+     */
+    public Question getNextQuestion() {
+        return plan.getQuestion(nextQuestion());
+    }
+
+    /**
+     * Returns the options of the current question in display order. This mirrors {@link Question#getOptListByIndex()}
+     * after {@link Interpreter#getNextQuestion()}.
+     * @return A new array of options.
+     */
+    public Component[] getOptions() {
+        Component[] retval = new Component[numDisplayed];
+        for (int i = 0 ; i < numDisplayed ; i++)
+            retval[i] = plan.getOption(current, displayOrder[i]);
+        return retval;
+    }
+
+    /**
+     * Records the answer to the current question. This mirrors {@link Interpreter#answer(Question, List)}; answers that
+     * are not options of the question (e.g., freetext) are recorded as they are.
+     * @param q The current question.
+     * @param aList The selected options, in display order.
+     */
+    public void answer(Question q, List<Component> aList) {
+        if (current == EMPTY || plan.getQuestion(current) != q)
+            throw new IllegalStateException(String.format("Question %s is not the current question.", q.quid));
+        int other = plan.index.getOtherOrdinal(current);
+        int[] options = new int[aList.size()];
+        for (int i = 0 ; i < options.length ; i++) {
+            options[i] = plan.index.getOptionOrdinal(current, aList.get(i));
+            if (options[i] == other)
+                otherAnswers[numAnswered] = aList.get(i);
+        }
+        answer(options, options.length);
+    }
+
+    /**
+     * Returns the answers recorded since the last {@link #reset()}.
+     * @return A response whose question responses are in the order the questions were seen.
+     */
+    public CompactSurveyResponse getResponse() {
+        Component[] others = null;
+        for (int i = 0 ; i < numAnswered ; i++) {
+            if (otherAnswers[i] != null) {
+                others = Arrays.copyOf(otherAnswers, numAnswered);
+                break;
+            }
+        }
+        return new CompactSurveyResponse(plan.index,
+                Arrays.copyOf(answeredQuestions, numAnswered),
+                Arrays.copyOf(answerOffsets, numAnswered + 1),
+                Arrays.copyOf(answerOptions, numAnswerOptions),
+                Arrays.copyOf(answerPositions, numAnswerOptions),
+                others);
+    }
+}
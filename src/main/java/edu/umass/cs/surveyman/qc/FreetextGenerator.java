@@ -0,0 +1,456 @@
+package edu.umass.cs.surveyman.qc;
+
+import clojure.lang.PersistentVector;
+import clojure.lang.RT;
+import clojure.lang.Symbol;
+import clojure.lang.Var;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.regex.Pattern;
+
+/**
+ * Generates random strings that match a freetext pattern. Each pattern is compiled once into a tree of generators
+ * (literals, character classes, sequences, alternations and bounded repetitions) and cached, so generating an answer
+ * is a walk over the tree. Compiled generators are immutable, so they can be shared by any number of threads as long
+ * as each thread passes its own source of randomness.
+ *
+ * Patterns that use constructs the compiler does not support (lookaround, backreferences, word boundaries and the
+ * like) fall back to the re-rand Clojure library, which is only loaded the first time such a pattern is seen.
+ */
+public abstract class FreetextGenerator {
+
+    /**
+     * The largest number of extra repetitions generated for unbounded quantifiers (*, + and {n,}).
+     */
+    public static final int MAX_EXTRA_REPETITIONS = 8;
+    /**
+     * The number of times a compiled generator is retried before falling back to re-rand, if its output does not match
+     * the pattern.
+     */
+    private static final int MAX_ATTEMPTS = 10;
+    /**
+     * Characters used for '.' and negated classes: printable ASCII.
+     */
+    private static final char MIN_PRINTABLE = ' ';
+    private static final char MAX_PRINTABLE = '~';
+
+    private static final ConcurrentMap<String, FreetextGenerator> cache =
+            new ConcurrentHashMap<String, FreetextGenerator>();
+
+    abstract void generate(Random rng, StringBuilder sb);
+
+    /**
+     * Returns a random string that matches the input pattern.
+     * @param pattern A freetext pattern.
+     * @param rng The source of randomness.
+     * @return A matching string.
+     */
+    public static String generate(Pattern pattern, Random rng) {
+        FreetextGenerator generator = forPattern(pattern);
+        if (generator != null) {
+            for (int i = 0 ; i < MAX_ATTEMPTS ; i++) {
+                StringBuilder sb = new StringBuilder();
+                generator.generate(rng, sb);
+                String retval = sb.toString();
+                if (pattern.matcher(retval).matches())
+                    return retval;
+            }
+        }
+        return ReRand.generate(pattern);
+    }
+
+    /**
+     * Returns the cached generator for the input pattern, compiling it on first use.
+     * @param pattern A freetext pattern.
+     * @return The generator, or null if the pattern uses constructs the compiler does not support.
+     */
+    static FreetextGenerator forPattern(Pattern pattern) {
+        String key = pattern.flags() + "/" + pattern.pattern();
+        FreetextGenerator generator = cache.get(key);
+        if (generator == null) {
+            try {
+                generator = new Parser(pattern.pattern()).parse();
+            } catch (UnsupportedOperationException e) {
+                generator = UNSUPPORTED;
+            }
+            FreetextGenerator existing = cache.putIfAbsent(key, generator);
+            if (existing != null)
+                generator = existing;
+        }
+        return generator == UNSUPPORTED ? null : generator;
+    }
+
+    private static final FreetextGenerator UNSUPPORTED = new FreetextGenerator() {
+        @Override
+        void generate(Random rng, StringBuilder sb) {
+            throw new UnsupportedOperationException();
+        }
+    };
+
+    /**
+     * Generates strings with the re-rand Clojure library. The Clojure runtime is loaded when this class is first used.
+     */
+    private static class ReRand {
+
+        private static final Var eval;
+        private static final Var readString;
+
+        static {
+            RT.var("clojure.core", "require").invoke(Symbol.intern("re-rand"));
+            eval = RT.var("clojure.core", "eval");
+            readString = RT.var("clojure.core", "read-string");
+        }
+
+        static synchronized String generate(Pattern pattern) {
+            String pat = String.format("(re-rand/re-rand #\"%s\")", pattern.pattern());
+            Object str = eval.invoke(readString.invoke(pat));
+            if (str instanceof String)
+                return (String) str;
+            return (String) ((PersistentVector) str).nth(0);
+        }
+    }
+
+    private static class Literal extends FreetextGenerator {
+        private final char c;
+        Literal(char c) {
+            this.c = c;
+        }
+        @Override
+        void generate(Random rng, StringBuilder sb) {
+            sb.append(c);
+        }
+    }
+
+    private static class CharClass extends FreetextGenerator {
+        private final char[] choices;
+        CharClass(BitSet members) {
+            if (members.isEmpty())
+                throw new UnsupportedOperationException("Empty character class.");
+            this.choices = new char[members.cardinality()];
+            for (int i = members.nextSetBit(0), j = 0 ; i >= 0 ; i = members.nextSetBit(i + 1))
+                choices[j++] = (char) i;
+        }
+        @Override
+        void generate(Random rng, StringBuilder sb) {
+            sb.append(choices[rng.nextInt(choices.length)]);
+        }
+    }
+
+    private static class Sequence extends FreetextGenerator {
+        private final FreetextGenerator[] parts;
+        Sequence(List<FreetextGenerator> parts) {
+            this.parts = parts.toArray(new FreetextGenerator[parts.size()]);
+        }
+        @Override
+        void generate(Random rng, StringBuilder sb) {
+            for (FreetextGenerator part : parts)
+                part.generate(rng, sb);
+        }
+    }
+
+    private static class Alternation extends FreetextGenerator {
+        private final FreetextGenerator[] alternatives;
+        Alternation(List<FreetextGenerator> alternatives) {
+            this.alternatives = alternatives.toArray(new FreetextGenerator[alternatives.size()]);
+        }
+        @Override
+        void generate(Random rng, StringBuilder sb) {
+            alternatives[rng.nextInt(alternatives.length)].generate(rng, sb);
+        }
+    }
+
+    private static class Repeat extends FreetextGenerator {
+        private final FreetextGenerator body;
+        private final int min;
+        private final int max;
+        Repeat(FreetextGenerator body, int min, int max) {
+            this.body = body;
+            this.min = min;
+            this.max = max;
+        }
+        @Override
+        void generate(Random rng, StringBuilder sb) {
+            int n = min + rng.nextInt(max - min + 1);
+            for (int i = 0 ; i < n ; i++)
+                body.generate(rng, sb);
+        }
+    }
+
+    /**
+     * Recursive-descent compiler for the supported subset of {@link Pattern} syntax.
+     */
+    private static class Parser {
+
+        private final String regex;
+        private int pos = 0;
+
+        Parser(String regex) {
+            this.regex = regex;
+        }
+
+        private static UnsupportedOperationException unsupported(String construct) {
+            return new UnsupportedOperationException(String.format("Unsupported regex construct %s.", construct));
+        }
+
+        private boolean more() {
+            return pos < regex.length();
+        }
+
+        private char peek() {
+            return regex.charAt(pos);
+        }
+
+        FreetextGenerator parse() {
+            FreetextGenerator retval = parseAlternation();
+            if (more())
+                throw unsupported("unbalanced ')'");
+            return retval;
+        }
+
+        private FreetextGenerator parseAlternation() {
+            List<FreetextGenerator> alternatives = new ArrayList<FreetextGenerator>();
+            alternatives.add(parseSequence());
+            while (more() && peek() == '|') {
+                pos++;
+                alternatives.add(parseSequence());
+            }
+            return alternatives.size() == 1 ? alternatives.get(0) : new Alternation(alternatives);
+        }
+
+        private FreetextGenerator parseSequence() {
+            List<FreetextGenerator> parts = new ArrayList<FreetextGenerator>();
+            while (more() && peek() != '|' && peek() != ')') {
+                char c = peek();
+                if (c == '^' || c == '$') {
+                    // anchors only hold at the ends of a freetext answer, which every generated string satisfies
+                    if ((c == '^' && pos != 0) || (c == '$' && pos != regex.length() - 1))
+                        throw unsupported("anchor inside pattern");
+                    pos++;
+                    continue;
+                }
+                if (c == '\\' && pos + 1 < regex.length() && regex.charAt(pos + 1) == 'Q') {
+                    pos += 2;
+                    int end = regex.indexOf("\\E", pos);
+                    String quoted = end < 0 ? regex.substring(pos) : regex.substring(pos, end);
+                    pos = end < 0 ? regex.length() : end + 2;
+                    for (char q : quoted.toCharArray())
+                        parts.add(new Literal(q));
+                    continue;
+                }
+                parts.add(parseQuantifier(parseAtom()));
+            }
+            return parts.size() == 1 ? parts.get(0) : new Sequence(parts);
+        }
+
+        private FreetextGenerator parseQuantifier(FreetextGenerator atom) {
+            while (more()) {
+                int min, max;
+                char c = peek();
+                if (c == '*') {
+                    min = 0; max = MAX_EXTRA_REPETITIONS;
+                    pos++;
+                } else if (c == '+') {
+                    min = 1; max = 1 + MAX_EXTRA_REPETITIONS;
+                    pos++;
+                } else if (c == '?') {
+                    min = 0; max = 1;
+                    pos++;
+                } else if (c == '{') {
+                    int end = regex.indexOf('}', pos);
+                    if (end < 0)
+                        throw unsupported("unterminated '{'");
+                    String[] bounds = regex.substring(pos + 1, end).split(",", -1);
+                    try {
+                        min = Integer.parseInt(bounds[0].trim());
+                        if (bounds.length == 1)
+                            max = min;
+                        else if (bounds[1].trim().isEmpty())
+                            max = min + MAX_EXTRA_REPETITIONS;
+                        else max = Integer.parseInt(bounds[1].trim());
+                    } catch (NumberFormatException e) {
+                        throw unsupported("quantifier " + regex.substring(pos, end + 1));
+                    }
+                    pos = end + 1;
+                } else break;
+                // lazy and possessive quantifiers generate the same strings
+                if (more() && (peek() == '?' || peek() == '+'))
+                    pos++;
+                atom = new Repeat(atom, min, max);
+            }
+            return atom;
+        }
+
+        private FreetextGenerator parseAtom() {
+            char c = regex.charAt(pos++);
+            switch (c) {
+                case '(':
+                    if (more() && peek() == '?') {
+                        pos++;
+                        if (more() && peek() == ':') {
+                            pos++;
+                        } else if (more() && peek() == '<' && pos + 1 < regex.length()
+                                && Character.isLetter(regex.charAt(pos + 1))) {
+                            int end = regex.indexOf('>', pos);
+                            if (end < 0)
+                                throw unsupported("unterminated group name");
+                            pos = end + 1;
+                        } else throw unsupported("(?" + (more() ? peek() : ""));
+                    }
+                    FreetextGenerator group = parseAlternation();
+                    if (!more() || peek() != ')')
+                        throw unsupported("unbalanced '('");
+                    pos++;
+                    return group;
+                case '[':
+                    return new CharClass(parseClass());
+                case '.':
+                    return new CharClass(printable());
+                case '\\':
+                    return parseEscape(null);
+                case '*': case '+': case '?': case '{':
+                    throw unsupported("dangling quantifier " + c);
+                default:
+                    return new Literal(c);
+            }
+        }
+
+        private static BitSet printable() {
+            BitSet retval = new BitSet();
+            retval.set(MIN_PRINTABLE, MAX_PRINTABLE + 1);
+            return retval;
+        }
+
+        private static BitSet complement(BitSet members) {
+            BitSet retval = printable();
+            retval.andNot(members);
+            return retval;
+        }
+
+        /**
+         * Parses the escape after a backslash. Inside a character class, predefined classes are added to the class and
+         * null is returned; outside, a generator is returned.
+         */
+        private FreetextGenerator parseEscape(BitSet into) {
+            if (!more())
+                throw unsupported("trailing '\\'");
+            char c = regex.charAt(pos++);
+            BitSet members = new BitSet();
+            switch (c) {
+                case 'd':
+                    members.set('0', '9' + 1);
+                    break;
+                case 'D':
+                    members.set('0', '9' + 1);
+                    members = complement(members);
+                    break;
+                case 'w': case 'W':
+                    members.set('a', 'z' + 1);
+                    members.set('A', 'Z' + 1);
+                    members.set('0', '9' + 1);
+                    members.set('_');
+                    if (c == 'W')
+                        members = complement(members);
+                    break;
+                case 's':
+                    members.set(' ');
+                    break;
+                case 'S':
+                    members.set(' ');
+                    members = complement(members);
+                    break;
+                default:
+                    members = null;
+            }
+            if (members != null) {
+                if (into == null)
+                    return new CharClass(members);
+                into.or(members);
+                return null;
+            }
+            char literal = parseEscapedChar(c);
+            if (into == null)
+                return new Literal(literal);
+            into.set(literal);
+            return null;
+        }
+
+        private char parseEscapedChar(char c) {
+            switch (c) {
+                case 't': return '\t';
+                case 'n': return '\n';
+                case 'r': return '\r';
+                case 'f': return '\f';
+                case 'a': return '\u0007';
+                case 'e': return '\u001B';
+                case 'x':
+                    return (char) parseHex(2);
+                case 'u':
+                    return (char) parseHex(4);
+                default:
+                    if (Character.isLetterOrDigit(c))
+                        // word boundaries, backreferences, unicode classes and the like
+                        throw unsupported("\\" + c);
+                    return c;
+            }
+        }
+
+        private int parseHex(int digits) {
+            if (pos + digits > regex.length())
+                throw unsupported("truncated hex escape");
+            try {
+                int retval = Integer.parseInt(regex.substring(pos, pos + digits), 16);
+                pos += digits;
+                return retval;
+            } catch (NumberFormatException e) {
+                throw unsupported("hex escape");
+            }
+        }
+
+        /**
+         * Parses a character class; the opening '[' has been consumed.
+         */
+        private BitSet parseClass() {
+            boolean negated = more() && peek() == '^';
+            if (negated)
+                pos++;
+            BitSet members = new BitSet();
+            boolean first = true;
+            while (true) {
+                if (!more())
+                    throw unsupported("unterminated '['");
+                char c = regex.charAt(pos++);
+                if (c == ']' && !first)
+                    break;
+                first = false;
+                if (c == '[' || (c == '&' && more() && peek() == '&'))
+                    throw unsupported("nested or intersected character class");
+                int lo;
+                if (c == '\\') {
+                    if (!more())
+                        throw unsupported("trailing '\\'");
+                    char e = peek();
+                    if ("dDwWsS".indexOf(e) >= 0) {
+                        parseEscape(members);
+                        continue;
+                    }
+                    pos++;
+                    lo = parseEscapedChar(e);
+                } else lo = c;
+                if (pos + 1 < regex.length() && peek() == '-' && regex.charAt(pos + 1) != ']') {
+                    pos++;
+                    char h = regex.charAt(pos++);
+                    int hi = h == '\\' ? parseEscapedChar(regex.charAt(pos++)) : h;
+                    if (hi < lo)
+                        throw unsupported("reversed range");
+                    members.set(lo, hi + 1);
+                } else members.set(lo);
+            }
+            return negated ? complement(members) : members;
+        }
+    }
+}
@@ -0,0 +1,238 @@
+package edu.umass.cs.surveyman.qc;
+
+import edu.umass.cs.surveyman.analyses.IQuestionResponse;
+import edu.umass.cs.surveyman.analyses.ISurveyResponse;
+import edu.umass.cs.surveyman.analyses.OptTuple;
+import edu.umass.cs.surveyman.survey.Component;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Answer counts for a set of survey responses, stored densely by question and option ordinal (see
+ * {@link SurveyIndex}). Answers to questions that are not part of the indexed survey are ignored; answers that are not
+ * among a question's options are counted in that question's other-answer slot.
+ */
+public class FrequencyTable {
+
+    public final SurveyIndex index;
+    private final int[][] counts;
+    private final int[] totals;
+    private boolean smoothed = false;
+
+    /**
+     * Creates an empty frequency table.
+     * @param index The ordinals for the survey being counted.
+     */
+    public FrequencyTable(SurveyIndex index) {
+        this.index = index;
+        this.counts = new int[index.getNumQuestions()][];
+        this.totals = new int[index.getNumQuestions()];
+        for (int q = 0 ; q < counts.length ; q++)
+            counts[q] = new int[index.getNumOptions(q) + 1];
+    }
+
+    /**
+     * Counts the answers in the input responses.
+     * @param index The ordinals for the survey being counted.
+     * @param responses The list of actual or simulated responses to the survey.
+     * @param smoothing Boolean indicating whether every option should be given LaPlace (+1) smoothing.
+     * @return A new frequency table.
+     */
+    public static FrequencyTable makeFrequencyTable(SurveyIndex index, List<ISurveyResponse> responses,
+                                                    boolean smoothing) {
+        FrequencyTable table = new FrequencyTable(index);
+        for (ISurveyResponse sr : responses)
+            table.add(sr);
+        if (smoothing)
+            table.smooth();
+        return table;
+    }
+
+    /**
+     * Counts the answers in the input response matrix, one column at a time.
+     * @param responses The actual or simulated responses to the survey.
+     * @param smoothing Boolean indicating whether every option should be given LaPlace (+1) smoothing.
+     * @return A new frequency table over the matrix's index.
+     */
+    public static FrequencyTable makeFrequencyTable(ResponseMatrix responses, boolean smoothing) {
+        FrequencyTable table = new FrequencyTable(responses.index);
+        int[] selected = ResponseMatrix.selectionBuffer(responses.index);
+        int n = responses.size();
+        for (int q = 0 ; q < table.counts.length ; q++) {
+            int[] column = responses.getColumn(q);
+            int[] qCounts = table.counts[q];
+            int total = 0;
+            for (int r = 0 ; r < n ; r++) {
+                int o = column[r];
+                if (o >= 0) {
+                    qCounts[o]++;
+                    total++;
+                } else if (o == ResponseMatrix.MULTIPLE) {
+                    int numSelected = responses.getSelected(r, q, selected, 0);
+                    for (int k = 0 ; k < numSelected ; k++)
+                        qCounts[selected[k]]++;
+                    total += numSelected;
+                }
+            }
+            table.totals[q] = total;
+        }
+        if (smoothing)
+            table.smooth();
+        return table;
+    }
+
+    /**
+     * Adds the answers of the input response to the counts.
+     * @param sr A survey response.
+     */
+    public void add(ISurveyResponse sr) {
+        if (sr instanceof CompactSurveyResponse && ((CompactSurveyResponse) sr).isIndexedBy(index)) {
+            CompactSurveyResponse csr = (CompactSurveyResponse) sr;
+            for (int i = 0 ; i < csr.size() ; i++) {
+                int q = csr.getQuestionOrdinal(i);
+                for (int k = 0 ; k < csr.getNumSelected(i) ; k++) {
+                    counts[q][csr.getOptionOrdinal(i, k)]++;
+                    totals[q]++;
+                }
+            }
+            return;
+        }
+        for (IQuestionResponse qr : sr.getResponses()) {
+            int q = index.getQuestionOrdinal(qr.getQuestion());
+            if (q < 0)
+                continue;
+            for (OptTuple optTuple : qr.getOpts()) {
+                counts[q][index.getOptionOrdinal(q, optTuple.c)]++;
+                totals[q]++;
+            }
+        }
+    }
+
+    /**
+     * Adds the counts of another table over the same index to this one.
+     * @param other A frequency table.
+     */
+    public void addAll(FrequencyTable other) {
+        if (other.index != index)
+            throw new RuntimeException("Cannot combine frequency tables built over different survey indices.");
+        for (int q = 0 ; q < counts.length ; q++) {
+            for (int o = 0 ; o < counts[q].length ; o++)
+                counts[q][o] += other.counts[q][o];
+            totals[q] += other.totals[q];
+        }
+        smoothed |= other.smoothed;
+    }
+
+    /**
+     * Subtracts the answers of the input response from the counts. The response must previously have been added; if
+     * any of its answers was not counted, the table is left unchanged.
+     * @param sr A survey response.
+     */
+    public void remove(ISurveyResponse sr) {
+        // every answer, as a question ordinal in the high half and an option ordinal in the low half
+        long[] answers = new long[16];
+        int numAnswers = 0;
+        if (sr instanceof CompactSurveyResponse && ((CompactSurveyResponse) sr).isIndexedBy(index)) {
+            CompactSurveyResponse csr = (CompactSurveyResponse) sr;
+            for (int i = 0 ; i < csr.size() ; i++) {
+                int q = csr.getQuestionOrdinal(i);
+                for (int k = 0 ; k < csr.getNumSelected(i) ; k++) {
+                    if (numAnswers == answers.length)
+                        answers = Arrays.copyOf(answers, 2 * numAnswers);
+                    answers[numAnswers++] = ((long) q << 32) | csr.getOptionOrdinal(i, k);
+                }
+            }
+        } else {
+            for (IQuestionResponse qr : sr.getResponses()) {
+                int q = index.getQuestionOrdinal(qr.getQuestion());
+                if (q < 0)
+                    continue;
+                for (OptTuple optTuple : qr.getOpts()) {
+                    if (numAnswers == answers.length)
+                        answers = Arrays.copyOf(answers, 2 * numAnswers);
+                    answers[numAnswers++] = ((long) q << 32) | index.getOptionOrdinal(q, optTuple.c);
+                }
+            }
+        }
+        // validate every answer before decrementing any, counting repeated answers together
+        Arrays.sort(answers, 0, numAnswers);
+        for (int start = 0, end = 0 ; start < numAnswers ; start = end) {
+            while (end < numAnswers && answers[end] == answers[start])
+                end++;
+            int q = (int) (answers[start] >>> 32);
+            if (counts[q][(int) answers[start]] < end - start)
+                throw new RuntimeException(String.format("Response %s was not counted for question %s.",
+                        sr.getSrid(), index.getQuestion(q).quid));
+        }
+        for (int i = 0 ; i < numAnswers ; i++) {
+            int q = (int) (answers[i] >>> 32);
+            counts[q][(int) answers[i]]--;
+            totals[q]--;
+        }
+    }
+
+    /**
+     * Adds one to the count of every answer option (LaPlace smoothing). The other-answer slots are left alone.
+     */
+    public void smooth() {
+        for (int q = 0 ; q < counts.length ; q++) {
+            int numOptions = index.getNumOptions(q);
+            for (int o = 0 ; o < numOptions ; o++)
+                counts[q][o]++;
+            totals[q] += numOptions;
+        }
+        smoothed = true;
+    }
+
+    /**
+     * Returns true if {@link #smooth()} has been applied to this table.
+     * @return Whether the counts include LaPlace smoothing.
+     */
+    public boolean isSmoothed() {
+        return smoothed;
+    }
+
+    /**
+     * Returns the number of times the option with the input ordinals was selected.
+     * @param q A question ordinal.
+     * @param o An option ordinal.
+     * @return The count.
+     */
+    public int getCount(int q, int o) {
+        return counts[q][o];
+    }
+
+    /**
+     * Returns the total number of options selected for the input question.
+     * @param q A question ordinal.
+     * @return The sum of the question's counts.
+     */
+    public int getTotal(int q) {
+        return totals[q];
+    }
+
+    /**
+     * Converts this table to the representation returned by {@link QCMetrics#makeFrequencies}. Only nonzero counts are
+     * included; the other-answer slot is keyed by the freetext component identifier.
+     * @return A map from question ids to a map of option ids to counts.
+     */
+    public Map<String, Map<String, Integer>> toMap() {
+        Map<String, Map<String, Integer>> retval = new HashMap<String, Map<String, Integer>>();
+        for (int q = 0 ; q < counts.length ; q++) {
+            if (totals[q] == 0)
+                continue;
+            Map<String, Integer> map = new HashMap<String, Integer>();
+            for (int o = 0 ; o < counts[q].length ; o++) {
+                if (counts[q][o] == 0)
+                    continue;
+                Component c = index.getOption(q, o);
+                map.put(c == null ? Component.makeComponentId(-1, -1) : c.getCid(), counts[q][o]);
+            }
+            retval.put(index.getQuestion(q).quid, map);
+        }
+        return retval;
+    }
+}
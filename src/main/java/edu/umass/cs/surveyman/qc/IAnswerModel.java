@@ -0,0 +1,19 @@
+package edu.umass.cs.surveyman.qc;
+
+/**
+ * Answer probabilities for a survey, looked up by the question and option ordinals of a {@link SurveyIndex}.
+ */
+public interface IAnswerModel {
+
+    public SurveyIndex getIndex();
+    public double getProbability(int q, int o);
+    public double getLogProbability(int q, int o);
+
+    /**
+     * Returns the answer counts the probabilities are derived from, e.g. to withdraw one respondent's answers for a
+     * leave-one-out score.
+     * @return The counts behind this model.
+     */
+    public FrequencyTable getFrequencies();
+
+}
@@ -0,0 +1,119 @@
+package edu.umass.cs.surveyman.qc;
+
+import edu.umass.cs.surveyman.analyses.ISurveyResponse;
+
+/**
+ * An answer model that is kept current as responses arrive or are withdrawn. Adding or removing a response only
+ * touches the counts for the options that response selected, so it costs time linear in the number of answers in the
+ * response. Probabilities are derived from the counts when they are looked up, rather than being stored, so scoring a
+ * new response never requires revisiting the responses that were counted before it.
+ *
+ * LaPlace smoothing is applied at lookup time: every real option behaves as if it had one extra count, and the
+ * other-answer slot is left alone, matching {@link FrequencyTable#smooth()}.
+ */
+public class IncrementalFrequencyModel implements IAnswerModel {
+
+    private final FrequencyTable frequencies;
+    private final boolean smoothing;
+    private int size = 0;
+
+    /**
+     * Creates an empty model.
+     * @param index The ordinals for the survey being modeled.
+     * @param smoothing Boolean indicating whether every option should be given LaPlace (+1) smoothing.
+     */
+    public IncrementalFrequencyModel(SurveyIndex index, boolean smoothing) {
+        this.frequencies = new FrequencyTable(index);
+        this.smoothing = smoothing;
+    }
+
+    /**
+     * Counts the answers of a newly received response.
+     * @param sr A survey response.
+     */
+    public void add(ISurveyResponse sr) {
+        frequencies.add(sr);
+        size++;
+    }
+
+    /**
+     * Withdraws a previously added response (e.g., one that was rejected or returned).
+     * @param sr A survey response that was previously passed to {@link #add}.
+     */
+    public void remove(ISurveyResponse sr) {
+        frequencies.remove(sr);
+        size--;
+    }
+
+    /**
+     * Returns the number of responses currently counted.
+     * @return The number of responses added and not removed.
+     */
+    public int size() {
+        return size;
+    }
+
+    public boolean isSmoothed() {
+        return smoothing;
+    }
+
+    public int getCount(int q, int o) {
+        return frequencies.getCount(q, o) + smoothingFor(q, o);
+    }
+
+    public int getTotal(int q) {
+        return frequencies.getTotal(q) + (smoothing ? frequencies.index.getNumOptions(q) : 0);
+    }
+
+    private int smoothingFor(int q, int o) {
+        return smoothing && o < frequencies.index.getNumOptions(q) ? 1 : 0;
+    }
+
+    @Override
+    public SurveyIndex getIndex() {
+        return frequencies.index;
+    }
+
+    /**
+     * Returns the live, unsmoothed counts of this model. They change as responses are added and removed, and must
+     * only be modified through this model.
+     * @return The counts behind this model.
+     */
+    @Override
+    public FrequencyTable getFrequencies() {
+        return frequencies;
+    }
+
+    @Override
+    public double getProbability(int q, int o) {
+        return getCount(q, o) / (double) getTotal(q);
+    }
+
+    @Override
+    public double getLogProbability(int q, int o) {
+        return QCMetrics.log2(getProbability(q, o));
+    }
+
+    /**
+     * Scores a response against the current counts.
+     * @param sr The response to score.
+     * @param classifier Determines the score: entropy for {@code ENTROPY}, log likelihood otherwise.
+     * @return The response's score.
+     */
+    public double score(ISurveyResponse sr, Classifier classifier) {
+        return classifier == Classifier.ENTROPY ?
+                QCMetrics.getEntropyForResponse(sr, this) : QCMetrics.getLLForResponse(sr, this);
+    }
+
+    /**
+     * Takes a snapshot of the current probabilities.
+     * @return A probability table that does not change when this model is updated.
+     */
+    public ProbabilityTable toProbabilityTable() {
+        FrequencyTable snapshot = new FrequencyTable(frequencies.index);
+        snapshot.addAll(frequencies);
+        if (smoothing)
+            snapshot.smooth();
+        return new ProbabilityTable(snapshot);
+    }
+}
@@ -4,6 +4,7 @@ import edu.umass.cs.surveyman.analyses.IQuestionResponse;
 import edu.umass.cs.surveyman.analyses.ISurveyResponse;
 import edu.umass.cs.surveyman.analyses.KnownValidityStatus;
 import edu.umass.cs.surveyman.analyses.OptTuple;
+import edu.umass.cs.surveyman.analyses.ResultsReader;
 import edu.umass.cs.surveyman.survey.*;
 import edu.umass.cs.surveyman.survey.exceptions.SurveyException;
 import edu.umass.cs.surveyman.utils.Gensym;
@@ -18,10 +19,21 @@ public class Interpreter {
     private ArrayList<Question> questionStack;
     private Block branchTo = null;
     private Map<Question, List<Component>> responseMap = new HashMap<Question, List<Component>>();
-    public static final Random random = new Random(System.currentTimeMillis());
+    /**
+     * The default source of randomness for simulation and QC. Call {@code setSeed} on it to make runs reproducible. It
+     * is thread-safe, so concurrent analyses may fall back on it; parallel tasks should still {@code split()} their own
+     * source from it.
+     */
+    public static final RandomSource random = RandomSource.synchronizedSource(System.currentTimeMillis());
+    private final Random rng;
 
     public Interpreter(Survey survey){
+        this(survey, random);
+    }
+
+    public Interpreter(Survey survey, Random rng){
         this.survey = survey;
+        this.rng = rng;
         this.topLevelBlockStack = new ArrayList<Block>(getShuffledTopLevel(survey));
         assert(!this.topLevelBlockStack.isEmpty());
         this.questionStack = new ArrayList<Question>(getQuestionsForBlock(topLevelBlockStack.remove(0)));
@@ -33,6 +45,9 @@ public class Interpreter {
         final Gensym gensym = new Gensym("sr");
         return new ISurveyResponse() {
             String srid = gensym.next();
+            double score;
+            double threshold;
+            KnownValidityStatus validityStatus = KnownValidityStatus.MAYBE;
             @Override
             public List<IQuestionResponse> getResponses() {
                 List<IQuestionResponse> retval = new ArrayList<IQuestionResponse>();
@@ -114,27 +129,27 @@ public class Interpreter {
 
             @Override
             public List<ISurveyResponse> readSurveyResponses(Survey s, Reader r) throws SurveyException {
-                return null;
+                return ResultsReader.readAll(s, r);
             }
 
             @Override
             public void setScore(double score) {
-
+                this.score = score;
             }
 
             @Override
             public double getScore() {
-                return 0;
+                return score;
             }
 
             @Override
             public void setThreshold(double pval) {
-
+                this.threshold = pval;
             }
 
             @Override
             public double getThreshold() {
-                return 0;
+                return threshold;
             }
 
             @Override
@@ -144,12 +159,12 @@ public class Interpreter {
 
             @Override
             public KnownValidityStatus getKnownValidityStatus() {
-                return null;
+                return validityStatus;
             }
 
             @Override
             public void setKnownValidityStatus(KnownValidityStatus validityStatus) {
-
+                this.validityStatus = validityStatus;
             }
         };
     }
@@ -168,7 +183,7 @@ public class Interpreter {
         Component[] options = next.getOptListByIndex();
         if (next.randomize)
             if (next.ordered) {
-                if (random.nextBoolean())
+                if (rng.nextBoolean())
                     for (int i = 0 ; i < options.length/2 ; i++) {
                         Component foo = options[i];
                         options[i] = options[options.length - i - 1];
@@ -176,7 +191,7 @@ public class Interpreter {
                     }
             } else {
                 List<Component> stuff = Arrays.asList(options);
-                Collections.shuffle(stuff);
+                Collections.shuffle(stuff, rng);
                 options = stuff.toArray(options);
             }
         for (int i = 0 ; i < options.length ; i++)
@@ -221,7 +236,7 @@ public class Interpreter {
             else if (contents[i].getClass().equals(Block.class)) {
                 Block b = (Block) contents[i];
                 if (b.branchParadigm.equals(Block.BranchParadigm.ALL))
-                    retval.add(b.questions.get(random.nextInt(b.questions.size())));
+                    retval.add(b.questions.get(rng.nextInt(b.questions.size())));
                 else retval.addAll(getQuestionsForBlock(b));
             } else throw new RuntimeException(String.format("Block %s has unknown type %s", block.getStrId(), contents[i].getClass()));
         }
@@ -244,7 +259,7 @@ public class Interpreter {
         for (int i = 0 ; i < size ; i++)
             allIndices.add(i);
         // shuffle
-        Collections.shuffle(allIndices);
+        Collections.shuffle(allIndices, rng);
         // select locations
         List<Integer> qIndices = allIndices.subList(0, block.questions.size());
         List<Integer> bIndices = allIndices.subList(block.questions.size(), block.questions.size() + randomizable.size());
@@ -260,7 +275,7 @@ public class Interpreter {
     }
 
     private List<Block> getShuffledTopLevel(Survey survey) {
-        return Arrays.asList(Block.shuffle(survey.topLevelBlocks));
+        return Arrays.asList(Block.shuffle(survey.topLevelBlocks, rng));
     }
 
     public static Map<Boolean, List<Block>> partitionBlocks(Survey survey) {
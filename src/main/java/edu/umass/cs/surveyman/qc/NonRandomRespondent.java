@@ -4,24 +4,49 @@ import edu.umass.cs.surveyman.analyses.ISurveyResponse;
 import edu.umass.cs.surveyman.survey.Component;
 import edu.umass.cs.surveyman.survey.Question;
 import edu.umass.cs.surveyman.survey.Survey;
-import edu.umass.cs.surveyman.survey.exceptions.SurveyException;
 
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Random;
 
 /**
- * Simulates a cluster of responses.
+ * Simulates a cluster of responses. Each profile prefers one option of every question it answers with some strength
+ * and picks uniformly among the other options otherwise. The preferences are compiled into a cumulative distribution
+ * over option ordinals for every question, so simulating a response only draws one number per question.
  */
 public class NonRandomRespondent extends AbstractRespondent {
 
     private Survey survey;
+    private CompiledSurvey plan;
     protected Map<Question, Component> answers = new HashMap<Question, Component>();
     protected Map<Component, Double> strength = new HashMap<Component, Double>();
+    // per question ordinal: the cumulative probability of each option ordinal; null for questions the profile skips
+    private final double[][] cdfs;
 
+    /**
+     * @deprecated Compiles the survey again for every profile. Compile it once with
+     * {@link CompiledSurvey#CompiledSurvey(Survey)} and use {@link #NonRandomRespondent(CompiledSurvey)}.
+     */
+    @Deprecated
     public NonRandomRespondent(Survey survey)  {
-        this.survey = survey;
+        this(new CompiledSurvey(survey));
+    }
+
+    public NonRandomRespondent(CompiledSurvey plan)  {
+        this(plan, Interpreter.random);
+    }
+
+    /**
+     * @param plan The compiled survey.
+     * @param rng The source of randomness for this profile's preferences and its responses.
+     */
+    public NonRandomRespondent(CompiledSurvey plan, Random rng)  {
+        super(rng);
+        this.plan = plan;
+        this.survey = plan.survey;
+        this.cdfs = new double[plan.getNumQuestions()][];
         for (Question q : survey.questions) {
             if (!q.freetext && !q.options.isEmpty()) {
                 List<Component> possibleAnswers = new ArrayList<Component>(q.options.values());
@@ -29,9 +54,12 @@ public class NonRandomRespondent extends AbstractRespondent {
                 Component answer = possibleAnswers.get(index);
                 this.answers.put(q, answer);
                 double uni = 1.0 / possibleAnswers.size();
-                double pref = Interpreter.random.nextDouble() * (1.0 - uni);
+                double pref = rng.nextDouble() * (1.0 - uni);
                 assert pref < (1 - uni);
                 this.strength.put(answer, uni + pref);
+                int ordinal = plan.index.getQuestionOrdinal(q);
+                cdfs[ordinal] = cumulative(plan.index.getNumOptions(ordinal),
+                        plan.index.getOptionOrdinal(ordinal, answer), uni + pref);
             }
         }
         assert answers.size() > 0 : "Answer set for survey " + survey.sourceName + " (" + survey.sid + ")\nhas size 0.";
@@ -39,36 +67,84 @@ public class NonRandomRespondent extends AbstractRespondent {
         assert answers.size() == strength.size();
     }
 
+    /**
+     * Returns the cumulative distribution that puts the input strength on the preferred option and spreads the rest
+     * evenly over the other options.
+     */
+    private static double[] cumulative(int numOptions, int preferred, double strength) {
+        double[] retval = new double[numOptions];
+        double other = numOptions > 1 ? (1.0 - strength) / (numOptions - 1) : 0.0;
+        double sum = 0.0;
+        for (int o = 0 ; o < numOptions ; o++) {
+            sum += o == preferred ? strength : other;
+            retval[o] = sum;
+        }
+        retval[numOptions - 1] = 1.0;
+        return retval;
+    }
+
+    /**
+     * Returns the first option ordinal whose cumulative probability exceeds the input draw.
+     */
+    private static int select(double[] cdf, double u) {
+        int lo = 0, hi = cdf.length - 1;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (cdf[mid] > u)
+                hi = mid;
+            else lo = mid + 1;
+        }
+        return lo;
+    }
+
+    /**
+     * Returns the probability that this profile selects the input option.
+     * @param q A question ordinal.
+     * @param o An option ordinal.
+     * @return The probability of the option; 0 for questions this profile does not answer.
+     */
+    public double getProbability(int q, int o) {
+        if (cdfs[q] == null || o >= cdfs[q].length)
+            return 0.0;
+        return o == 0 ? cdfs[q][0] : cdfs[q][o] - cdfs[q][o - 1];
+    }
+
     @Override
     public ISurveyResponse getResponse() {
-        Interpreter interpreter = new Interpreter(survey);
-        try{
-            do {
-                Question q = interpreter.getNextQuestion();
-                Component c = answers.get(q);
-                List<Component> ans = new ArrayList<Component>();
-                // calculate our answer
-                if (!q.freetext && q.options.size() > 0 ) {
-                    double prob = rng.nextDouble();
-                    double threshold = strength.get(answers.get(q));
-                    if (prob > threshold) {
-                        // uniformly select from the other options
-                        List<Component> otherAns = new ArrayList<Component>();
-                        for (Component cc : q.options.values()) {
-                            if (!c.equals(cc))
-                                otherAns.add(cc);
-                        }
-                        ans.add(otherAns.get(rng.nextInt(otherAns.size())));
-                    } else {
-                        ans.add(c);
-                    }
-                    interpreter.answer(q, ans);
-                }
-            } while (!interpreter.terminated());
-            return interpreter.getResponse();
-        } catch (SurveyException se) {
-            se.printStackTrace();
-        }
-        return null;
+        return getResponse(rng);
+    }
+
+    /**
+     * Simulates a response from this profile, drawing the answers from the input source of randomness. Concurrent
+     * callers must each use their own source.
+     * @param rng The source of randomness.
+     * @return A new response.
+     */
+    public ISurveyResponse getResponse(Random rng) {
+        return simulate(new FastInterpreter(plan, rng), rng);
+    }
+
+    /**
+     * Simulates a response from this profile on an interpreter that is reused across responses, e.g. one per
+     * simulation task. The interpreter is reset to draw from the input source, so the response is the same as
+     * {@link #getResponse(Random)} would give.
+     * @param interpreter An interpreter for this profile's compiled survey.
+     * @param rng The source of randomness.
+     * @return A new response.
+     */
+    public ISurveyResponse getResponse(FastInterpreter interpreter, Random rng) {
+        if (interpreter.plan != plan)
+            throw new IllegalArgumentException("The interpreter runs a different compiled survey.");
+        interpreter.reset(rng);
+        return simulate(interpreter, rng);
+    }
+
+    private ISurveyResponse simulate(FastInterpreter interpreter, Random rng) {
+        do {
+            int q = interpreter.nextQuestion();
+            if (cdfs[q] != null)
+                interpreter.answer(select(cdfs[q], rng.nextDouble()));
+        } while (!interpreter.terminated());
+        return interpreter.getResponse();
     }
 }
@@ -0,0 +1,287 @@
+package edu.umass.cs.surveyman.qc;
+
+import edu.umass.cs.surveyman.analyses.IQuestionResponse;
+import edu.umass.cs.surveyman.analyses.ISurveyResponse;
+import edu.umass.cs.surveyman.analyses.OptTuple;
+import edu.umass.cs.surveyman.survey.Question;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Computes the correlation between the answers to every pair of questions in a response set. Answers are stored as one
+ * column of option ordinals per question, so each pair is a single pass over two primitive arrays. Pairs where both
+ * questions are ordered use Spearman's rho with a t-test; all other pairs use Cramer's V with a chi-squared test. Only
+ * exclusive questions with at least two options are correlated. The pairs are spread across a fork/join pool.
+ */
+public class PairwiseCorrelations {
+
+    private static final int UNANSWERED = -1;
+
+    public final SurveyIndex index;
+    private final int[] questionOrdinals;
+    private final int[][] columns;
+    private final ForkJoinPool pool;
+
+    /**
+     * Creates a correlation engine that runs on the common fork/join pool.
+     * @param index The ordinals for the survey answered.
+     * @param responses The list of actual or simulated responses to the survey.
+     */
+    public PairwiseCorrelations(SurveyIndex index, List<ISurveyResponse> responses) {
+        this(index, responses, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Creates a correlation engine.
+     * @param index The ordinals for the survey answered.
+     * @param responses The list of actual or simulated responses to the survey.
+     * @param pool The pool the pairs are computed on.
+     */
+    public PairwiseCorrelations(SurveyIndex index, List<ISurveyResponse> responses, ForkJoinPool pool) {
+        this.index = index;
+        this.pool = pool;
+        this.questionOrdinals = correlatableQuestions(index);
+        int[] columnOf = new int[index.getNumQuestions()];
+        Arrays.fill(columnOf, -1);
+        for (int i = 0 ; i < questionOrdinals.length ; i++)
+            columnOf[questionOrdinals[i]] = i;
+        this.columns = new int[questionOrdinals.length][responses.size()];
+        for (int[] column : columns)
+            Arrays.fill(column, UNANSWERED);
+        for (int r = 0 ; r < responses.size() ; r++) {
+            ISurveyResponse sr = responses.get(r);
+            if (sr instanceof CompactSurveyResponse && ((CompactSurveyResponse) sr).isIndexedBy(index)) {
+                CompactSurveyResponse csr = (CompactSurveyResponse) sr;
+                for (int i = 0 ; i < csr.size() ; i++) {
+                    int q = csr.getQuestionOrdinal(i);
+                    if (columnOf[q] < 0 || csr.getNumSelected(i) != 1)
+                        continue;
+                    int o = csr.getOptionOrdinal(i, 0);
+                    if (o != index.getOtherOrdinal(q))
+                        columns[columnOf[q]][r] = o;
+                }
+                continue;
+            }
+            for (IQuestionResponse qr : sr.getResponses()) {
+                int q = index.getQuestionOrdinal(qr.getQuestion());
+                if (q < 0 || columnOf[q] < 0)
+                    continue;
+                List<OptTuple> opts = qr.getOpts();
+                if (opts.size() != 1)
+                    continue;
+                int o = index.getOptionOrdinal(q, opts.get(0).c);
+                if (o != index.getOtherOrdinal(q))
+                    columns[columnOf[q]][r] = o;
+            }
+        }
+    }
+
+    /**
+     * Creates a correlation engine over a response matrix, on the common fork/join pool.
+     * @param responses The actual or simulated responses to the survey.
+     */
+    public PairwiseCorrelations(ResponseMatrix responses) {
+        this(responses, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Creates a correlation engine over a response matrix. The matrix's answer columns are copied, keeping only single
+     * answers among the question's options.
+     * @param responses The actual or simulated responses to the survey.
+     * @param pool The pool the pairs are computed on.
+     */
+    public PairwiseCorrelations(ResponseMatrix responses, ForkJoinPool pool) {
+        this.index = responses.index;
+        this.pool = pool;
+        this.questionOrdinals = correlatableQuestions(index);
+        this.columns = new int[questionOrdinals.length][];
+        for (int i = 0 ; i < questionOrdinals.length ; i++) {
+            int q = questionOrdinals[i];
+            int[] column = Arrays.copyOf(responses.getColumn(q), responses.size());
+            for (int r = 0 ; r < column.length ; r++)
+                if (column[r] < 0 || column[r] == index.getOtherOrdinal(q))
+                    column[r] = UNANSWERED;
+            columns[i] = column;
+        }
+    }
+
+    private static int[] correlatableQuestions(SurveyIndex index) {
+        List<Integer> ordinals = new ArrayList<Integer>();
+        for (int q = 0 ; q < index.getNumQuestions() ; q++)
+            if (isCorrelatable(index.getQuestion(q)))
+                ordinals.add(q);
+        int[] retval = new int[ordinals.size()];
+        for (int i = 0 ; i < retval.length ; i++)
+            retval[i] = ordinals.get(i);
+        return retval;
+    }
+
+    /**
+     * Returns true if answers to the input question can be correlated: the question must be an exclusive choice among
+     * at least two options.
+     * @param q A question.
+     * @return Whether the question takes part in pairwise correlation.
+     */
+    public static boolean isCorrelatable(Question q) {
+        return Boolean.TRUE.equals(q.exclusive) && !Boolean.TRUE.equals(q.freetext) && q.options.size() > 1;
+    }
+
+    /**
+     * Returns the number of questions that take part in pairwise correlation.
+     * @return The number of columns.
+     */
+    public int getNumColumns() {
+        return columns.length;
+    }
+
+    /**
+     * Correlates the answers to the questions in the input columns.
+     * @param i A column.
+     * @param j Another column.
+     * @return The correlation, or {@code null} if it is undefined (e.g., fewer than three respondents answered both
+     * questions, or one of them received only one distinct answer).
+     */
+    public Correlation correlate(int i, int j) {
+        int q1 = questionOrdinals[i];
+        int q2 = questionOrdinals[j];
+        Question question1 = index.getQuestion(q1);
+        Question question2 = index.getQuestion(q2);
+        if (Boolean.TRUE.equals(question1.ordered) && Boolean.TRUE.equals(question2.ordered))
+            return spearman(question1, question2, columns[i], columns[j], index.getNumOptions(q1), index.getNumOptions(q2));
+        else return cramersV(question1, question2, columns[i], columns[j], index.getNumOptions(q1), index.getNumOptions(q2));
+    }
+
+    /**
+     * Returns the average rank of each answer ordinal among the input counts, so that ties share their mean rank.
+     */
+    private static double[] averageRanks(int[] counts) {
+        double[] ranks = new double[counts.length];
+        int seen = 0;
+        for (int o = 0 ; o < counts.length ; o++) {
+            ranks[o] = seen + (counts[o] + 1) / 2.0;
+            seen += counts[o];
+        }
+        return ranks;
+    }
+
+    private static Correlation spearman(Question question1, Question question2, int[] x, int[] y, int k1, int k2) {
+        int[] xCounts = new int[k1];
+        int[] yCounts = new int[k2];
+        int n = 0;
+        for (int r = 0 ; r < x.length ; r++) {
+            if (x[r] == UNANSWERED || y[r] == UNANSWERED)
+                continue;
+            xCounts[x[r]]++;
+            yCounts[y[r]]++;
+            n++;
+        }
+        if (n < 3)
+            return null;
+        double[] xRanks = averageRanks(xCounts);
+        double[] yRanks = averageRanks(yCounts);
+        double mean = (n + 1) / 2.0;
+        double sxy = 0.0, sxx = 0.0, syy = 0.0;
+        for (int r = 0 ; r < x.length ; r++) {
+            if (x[r] == UNANSWERED || y[r] == UNANSWERED)
+                continue;
+            double dx = xRanks[x[r]] - mean;
+            double dy = yRanks[y[r]] - mean;
+            sxy += dx * dy;
+            sxx += dx * dx;
+            syy += dy * dy;
+        }
+        if (sxx == 0.0 || syy == 0.0)
+            return null;
+        double rho = sxy / Math.sqrt(sxx * syy);
+        double p = Math.abs(rho) >= 1.0 ? 0.0 :
+                Distributions.studentTTwoSided(rho * Math.sqrt((n - 2) / (1.0 - rho * rho)), n - 2);
+        return new Correlation(question1, question2, Correlation.CoefficientType.SPEARMAN, rho, p, n);
+    }
+
+    private static Correlation cramersV(Question question1, Question question2, int[] x, int[] y, int k1, int k2) {
+        int[][] table = new int[k1][k2];
+        int[] rowSums = new int[k1];
+        int[] colSums = new int[k2];
+        int n = 0;
+        for (int r = 0 ; r < x.length ; r++) {
+            if (x[r] == UNANSWERED || y[r] == UNANSWERED)
+                continue;
+            table[x[r]][y[r]]++;
+            rowSums[x[r]]++;
+            colSums[y[r]]++;
+            n++;
+        }
+        int rows = 0, cols = 0;
+        for (int rowSum : rowSums)
+            if (rowSum > 0)
+                rows++;
+        for (int colSum : colSums)
+            if (colSum > 0)
+                cols++;
+        if (n < 3 || rows < 2 || cols < 2)
+            return null;
+        double chiSquared = 0.0;
+        for (int a = 0 ; a < k1 ; a++) {
+            if (rowSums[a] == 0)
+                continue;
+            for (int b = 0 ; b < k2 ; b++) {
+                if (colSums[b] == 0)
+                    continue;
+                double expected = rowSums[a] * (double) colSums[b] / n;
+                double diff = table[a][b] - expected;
+                chiSquared += diff * diff / expected;
+            }
+        }
+        double v = Math.sqrt(chiSquared / (n * (double) Math.min(rows - 1, cols - 1)));
+        double p = Distributions.chiSquaredSurvival(chiSquared, (rows - 1) * (cols - 1));
+        return new Correlation(question1, question2, Correlation.CoefficientType.CRAMERS_V, v, p, n);
+    }
+
+    /**
+     * Correlates every pair of correlatable questions.
+     * @return The defined correlations, ordered by the first question's column and then the second's.
+     */
+    public List<Correlation> correlateAll() {
+        Correlation[][] results = new Correlation[columns.length][];
+        if (columns.length > 0)
+            pool.invoke(new PairTask(results, 0, columns.length));
+        List<Correlation> retval = new ArrayList<Correlation>();
+        for (Correlation[] row : results)
+            for (Correlation c : row)
+                if (c != null)
+                    retval.add(c);
+        return retval;
+    }
+
+    private class PairTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final Correlation[][] results;
+        private final int lo;
+        private final int hi;
+
+        PairTask(Correlation[][] results, int lo, int hi) {
+            this.results = results;
+            this.lo = lo;
+            this.hi = hi;
+        }
+
+        @Override
+        protected void compute() {
+            if (hi - lo > 1) {
+                int mid = (lo + hi) >>> 1;
+                invokeAll(new PairTask(results, lo, mid), new PairTask(results, mid, hi));
+                return;
+            }
+            Correlation[] row = new Correlation[columns.length - lo - 1];
+            for (int j = lo + 1 ; j < columns.length ; j++)
+                row[j - lo - 1] = correlate(lo, j);
+            results[lo] = row;
+        }
+    }
+}
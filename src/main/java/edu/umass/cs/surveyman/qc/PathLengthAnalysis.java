@@ -0,0 +1,262 @@
+package edu.umass.cs.surveyman.qc;
+
+import edu.umass.cs.surveyman.SurveyMan;
+import edu.umass.cs.surveyman.analyses.Simulation;
+import edu.umass.cs.surveyman.survey.Block;
+import edu.umass.cs.surveyman.survey.Component;
+import edu.umass.cs.surveyman.survey.Question;
+import edu.umass.cs.surveyman.survey.Survey;
+import edu.umass.cs.surveyman.survey.exceptions.SurveyException;
+import edu.umass.cs.surveyman.utils.Throwables;
+
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Computes the expected number of questions a uniform random respondent answers, following the traversal rules of
+ * {@link Interpreter}:
+ * <ul>
+ *     <li>Floating top-level blocks are always executed.</li>
+ *     <li>Stationary top-level blocks are executed in sorted order. After a block whose branch question sends the
+ *     respondent to a later stationary block, the blocks in between are skipped. A branch to NEXT continues with the
+ *     next block; a branch to any other block (backwards, or to a block that is not top-level) skips every remaining
+ *     stationary block.</li>
+ *     <li>A top-level block asks all of its questions; a nested ALL block asks one of its questions.</li>
+ * </ul>
+ * When every branch is decided by a single exclusive branch question per stationary top-level block, a uniform
+ * respondent picks each branch option with equal probability and the expectation is computed exactly, with one
+ * reverse sweep over the stationary blocks. Otherwise the expectation is estimated by sampling.
+ */
+public class PathLengthAnalysis {
+
+    /**
+     * The number of respondents sampled between checks of the confidence interval.
+     */
+    public static final int BATCH_SIZE = 100;
+    /**
+     * The largest number of respondents sampled before giving up on reaching the requested confidence interval.
+     */
+    public static final int MAX_SAMPLES = 100000;
+
+    private PathLengthAnalysis() {}
+
+    private static void collectBranchQuestions(Block block, List<Question> branchQuestions) {
+        for (Question q : block.questions)
+            if (q.isBranchQuestion())
+                branchQuestions.add(q);
+        for (Block b : block.subBlocks)
+            collectBranchQuestions(b, branchQuestions);
+    }
+
+    /**
+     * Returns the branch question that decides where the respondent goes after the input top-level block, or null if
+     * the block does not branch. The block must be analyzable (see {@link #whyNotAnalyzable(Block)}).
+     */
+    private static Question getDecidingQuestion(Block block) {
+        List<Question> branchQuestions = new ArrayList<Question>();
+        collectBranchQuestions(block, branchQuestions);
+        return branchQuestions.isEmpty() ? null : branchQuestions.get(0);
+    }
+
+    /**
+     * Returns the reason the branching of the input top-level block cannot be analyzed exactly, or null if it can.
+     */
+    private static String whyNotAnalyzable(Block block) {
+        List<Question> branchQuestions = new ArrayList<Question>();
+        collectBranchQuestions(block, branchQuestions);
+        if (branchQuestions.isEmpty())
+            return null;
+        if (branchQuestions.size() > 1)
+            return String.format("Block %s has %d branch questions.", block.getStrId(), branchQuestions.size());
+        Question q = branchQuestions.get(0);
+        if (!Boolean.TRUE.equals(q.exclusive) || Boolean.TRUE.equals(q.freetext) || q.options.isEmpty())
+            return String.format("Branch question %s is not an exclusive choice.", q.quid);
+        for (Block b = q.block ; b != null && b.parentBlock != null ; b = b.parentBlock)
+            if (b.branchParadigm == Block.BranchParadigm.ALL && b.questions.size() > 1)
+                return String.format("Branch question %s is not always asked.", q.quid);
+        return null;
+    }
+
+    /**
+     * Returns the reason the input survey's branching cannot be analyzed exactly, or null if it can.
+     * @param survey The survey to analyze.
+     * @return A description of the first block the exact method does not handle, or null.
+     */
+    public static String whyNotAnalyzable(Survey survey) {
+        Map<Boolean, List<Block>> partitionedBlocks = Interpreter.partitionBlocks(survey);
+        for (Block b : partitionedBlocks.get(true)) {
+            String reason = whyNotAnalyzable(b);
+            if (reason != null)
+                return reason;
+            List<Question> branchQuestions = new ArrayList<Question>();
+            collectBranchQuestions(b, branchQuestions);
+            if (!branchQuestions.isEmpty())
+                return String.format("Floating block %s branches.", b.getStrId());
+        }
+        for (Block b : partitionedBlocks.get(false)) {
+            String reason = whyNotAnalyzable(b);
+            if (reason != null)
+                return reason;
+        }
+        return null;
+    }
+
+    /**
+     * Returns true if {@link #expectedPathLength} can compute the expected path length of the input survey exactly.
+     * @param survey The survey to analyze.
+     * @return Whether the survey's branching can be analyzed exactly.
+     */
+    public static boolean isAnalyzable(Survey survey) {
+        return whyNotAnalyzable(survey) == null;
+    }
+
+    /**
+     * Returns the exact expected number of questions a uniform random respondent answers.
+     * @param survey The survey to analyze.
+     * @return The expected path length.
+     * @throws UnsupportedOperationException if the survey has branching the exact method does not handle: more than
+     * one branch question per top-level block, non-exclusive branch questions, branch questions in floating blocks,
+     * or branch questions inside nested ALL blocks.
+     */
+    public static double expectedPathLength(Survey survey) {
+        String reason = whyNotAnalyzable(survey);
+        if (reason != null)
+            throw new UnsupportedOperationException(reason);
+        Map<Boolean, List<Block>> partitionedBlocks = Interpreter.partitionBlocks(survey);
+        double floating = 0.0;
+        for (Block b : partitionedBlocks.get(true))
+            floating += BlockGraph.questionsAsked(b);
+        List<Block> stationary = new ArrayList<Block>(partitionedBlocks.get(false));
+        Collections.sort(stationary, BlockGraph.BLOCK_ORDER);
+        int n = stationary.size();
+        Map<Block, Integer> positions = new HashMap<Block, Integer>();
+        for (int i = 0 ; i < n ; i++)
+            positions.put(stationary.get(i), i);
+        // expected[i] is the expected number of stationary questions asked from entering block i onwards
+        double[] expected = new double[n + 1];
+        for (int i = n - 1 ; i >= 0 ; i--) {
+            Block block = stationary.get(i);
+            Question q = getDecidingQuestion(block);
+            double next;
+            if (q == null) {
+                next = expected[i + 1];
+            } else {
+                next = 0.0;
+                for (Component c : q.options.values()) {
+                    Block dest = q.getBranchDest(c);
+                    Integer j = dest == null ? null : positions.get(dest);
+                    if (dest == null)
+                        next += expected[i + 1];
+                    else if (j != null && j > i)
+                        next += expected[j];
+                }
+                next /= q.options.size();
+            }
+            expected[i] = BlockGraph.questionsAsked(block) + next;
+        }
+        return expected[0] + floating;
+    }
+
+    /**
+     * Estimates the expected path length by simulating uniform random respondents, stopping once the confidence
+     * interval around the mean is narrow enough (or after {@link #MAX_SAMPLES} respondents).
+     * @param survey The survey to analyze.
+     * @param halfWidth The largest acceptable distance between the estimate and either end of its confidence
+     *                  interval, in questions.
+     * @param confidence The confidence level of the interval, e.g. 0.95.
+     * @return The mean path length of the sampled respondents.
+     * @throws SurveyException
+     */
+    public static double sampledPathLength(Survey survey, double halfWidth, double confidence) throws SurveyException {
+        return sampledPathLength(survey, halfWidth, confidence, Interpreter.random.split(), ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Estimates the expected path length as {@link #sampledPathLength(Survey, double, double)} does, simulating each
+     * batch of respondents across the input pool. A batch is split into chunks of
+     * {@link Simulation#RESPONSES_PER_TASK} respondents, and each chunk draws from its own stream split off the input
+     * source in order, so the estimate only depends on the state of the source and not on the number of threads.
+     * @param survey The survey to analyze.
+     * @param halfWidth The largest acceptable distance between the estimate and either end of its confidence
+     *                  interval, in questions.
+     * @param confidence The confidence level of the interval, e.g. 0.95.
+     * @param rng The source of randomness.
+     * @param pool The pool that simulates the respondents.
+     * @return The mean path length of the sampled respondents.
+     * @throws SurveyException
+     */
+    public static double sampledPathLength(Survey survey, double halfWidth, double confidence, RandomSource rng,
+                                           ForkJoinPool pool) throws SurveyException {
+        double z = Distributions.normalQuantile(1.0 - (1.0 - confidence) / 2.0);
+        int n = 0;
+        double mean = 0.0;
+        double m2 = 0.0;
+        CompiledSurvey plan = new CompiledSurvey(survey);
+        int[] lengths = new int[BATCH_SIZE];
+        int numTasks = (BATCH_SIZE + Simulation.RESPONSES_PER_TASK - 1) / Simulation.RESPONSES_PER_TASK;
+        RandomSource[] streams = new RandomSource[numTasks];
+        while (n < MAX_SAMPLES) {
+            for (int i = 0 ; i < numTasks ; i++)
+                streams[i] = rng.split();
+            try {
+                pool.invoke(new SampleTask(plan, streams, lengths, 0, numTasks));
+            } catch (RuntimeException e) {
+                SurveyException cause = Throwables.findCause(e, SurveyException.class);
+                if (cause != null)
+                    throw cause;
+                throw e;
+            }
+            // fold the batch in order, so the estimate does not depend on which task finished first
+            for (int length : lengths) {
+                n++;
+                double delta = length - mean;
+                mean += delta / n;
+                m2 += delta * (length - mean);
+            }
+            double standardError = Math.sqrt(m2 / (n - 1) / n);
+            if (n > 1 && z * standardError <= halfWidth)
+                break;
+        }
+        SurveyMan.LOGGER.debug(String.format("Sampled %d respondents for an average path length of %f", n, mean));
+        return mean;
+    }
+
+    private static class SampleTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final CompiledSurvey plan;
+        private final RandomSource[] streams;
+        private final int[] lengths;
+        private final int lo;
+        private final int hi;
+
+        SampleTask(CompiledSurvey plan, RandomSource[] streams, int[] lengths, int lo, int hi) {
+            this.plan = plan;
+            this.streams = streams;
+            this.lengths = lengths;
+            this.lo = lo;
+            this.hi = hi;
+        }
+
+        @Override
+        protected void compute() {
+            if (hi - lo > 1) {
+                int mid = (lo + hi) >>> 1;
+                invokeAll(new SampleTask(plan, streams, lengths, lo, mid),
+                        new SampleTask(plan, streams, lengths, mid, hi));
+                return;
+            }
+            int end = Math.min(lengths.length, (lo + 1) * Simulation.RESPONSES_PER_TASK);
+            FastInterpreter interpreter = new FastInterpreter(plan, streams[lo]);
+            try {
+                for (int i = lo * Simulation.RESPONSES_PER_TASK ; i < end ; i++)
+                    lengths[i] = new RandomRespondent(interpreter, RandomRespondent.AdversaryType.UNIFORM, streams[lo])
+                            .getResponse().getResponses().size();
+            } catch (SurveyException se) {
+                throw new RuntimeException(se);
+            }
+        }
+    }
+}
@@ -0,0 +1,303 @@
+package edu.umass.cs.surveyman.qc;
+
+import edu.umass.cs.surveyman.survey.Question;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Random;
+
+/**
+ * The answer distribution of one kind of {@link RandomRespondent}, precomputed for every question of a compiled
+ * survey. Outcome j of a question is the j-th selection of its answer space (the j-th option for exclusive questions,
+ * the (j+1)-th nonempty subset of the options otherwise; see {@link AbstractRespondent#getDenominator}). When the
+ * preferences of a question sum to less than one, the remaining probability mass selects no answer at all, as it did
+ * when answers were drawn by scanning the cumulative preferences.
+ *
+ * Outcomes are sampled in constant time with Vose's alias method. Non-exclusive questions have 2^n - 1 outcomes, so
+ * alias tables are only built for answer spaces of up to {@link #MAX_TABLE_SIZE} outcomes; larger answer spaces are
+ * sampled directly from the adversary's closed form. Outcomes are encoded as bitmasks over display positions, most
+ * significant bit first, and answer spaces of more than 62 options are sampled as {@link BitSet}s.
+ *
+ * Tables are immutable and shared: use {@link #get} to obtain the table for a (survey, adversary type) pair.
+ */
+public class PositionPreferences {
+
+    /**
+     * Outcome returned when the respondent selects no answer.
+     */
+    public static final int NO_ANSWER = -1;
+    /**
+     * The largest answer space for which an alias table is built.
+     */
+    public static final int MAX_TABLE_SIZE = 1 << 16;
+    /**
+     * The largest number of options whose selections can be encoded in a long.
+     */
+    public static final int MAX_MASK_OPTIONS = 62;
+
+    public final CompiledSurvey plan;
+    public final RandomRespondent.AdversaryType adversaryType;
+    // per question ordinal: the size of the answer space, saturated at Long.MAX_VALUE
+    private final long[] denominators;
+    // per question ordinal: acceptance probabilities and aliases over denominator + 1 outcomes, the last of which is
+    // NO_ANSWER; null when the answer space is too large to tabulate
+    private final double[][] acceptance;
+    private final int[][] alias;
+
+    private PositionPreferences(CompiledSurvey plan, RandomRespondent.AdversaryType adversaryType) {
+        this.plan = plan;
+        this.adversaryType = adversaryType;
+        int numQuestions = plan.getNumQuestions();
+        this.denominators = new long[numQuestions];
+        this.acceptance = new double[numQuestions][];
+        this.alias = new int[numQuestions][];
+        for (int q = 0 ; q < numQuestions ; q++) {
+            denominators[q] = AbstractRespondent.denominator(plan.getQuestion(q));
+            if (denominators[q] > MAX_TABLE_SIZE)
+                continue;
+            double[] probabilities = effectiveProbabilities(preferences(adversaryType, (int) denominators[q]));
+            acceptance[q] = new double[probabilities.length];
+            alias[q] = new int[probabilities.length];
+            buildAliasTable(probabilities, acceptance[q], alias[q]);
+        }
+    }
+
+    /**
+     * Returns the shared preference table for the input survey and adversary type, building it on first use.
+     * @param plan The compiled survey.
+     * @param adversaryType The kind of random respondent.
+     * @return The preference table.
+     */
+    public static PositionPreferences get(CompiledSurvey plan, RandomRespondent.AdversaryType adversaryType) {
+        synchronized (plan.positionPreferences) {
+            PositionPreferences retval = plan.positionPreferences.get(adversaryType);
+            if (retval == null) {
+                retval = new PositionPreferences(plan, adversaryType);
+                plan.positionPreferences.put(adversaryType, retval);
+            }
+            return retval;
+        }
+    }
+
+    /**
+     * Returns the raw position preferences of an adversary over a question with the input number of outcomes.
+     */
+    static double[] preferences(RandomRespondent.AdversaryType adversaryType, int denominator) {
+        double[] prefs = new double[Math.max(0, denominator)];
+        if (prefs.length == 0)
+            return prefs;
+        switch (adversaryType) {
+            case INNER:
+                final double unset = -1.0;
+                Arrays.fill(prefs, unset);
+                int filled = (int) Math.ceil((double) prefs.length / 2.0) - 1;
+                int pieces = 2 * (int) Math.pow(2, filled) - 1;
+                for (int i = 0 ; i <= filled ; i++) {
+                    double prob = ((double) 1 + i) / (double) pieces;
+                    prefs[i] = prob;
+                    int j = prefs.length - i - 1;
+                    if (prefs[j] == unset)
+                        prefs[j] = prob;
+                    else prefs[j] += prob;
+                }
+                break;
+            case UNIFORM:
+                Arrays.fill(prefs, 1.0 / (double) prefs.length);
+                break;
+            case FIRST:
+                prefs[0] = 1.0;
+                break;
+            case LAST:
+                prefs[prefs.length - 1] = 1.0;
+                break;
+            default:
+                break;
+        }
+        return prefs;
+    }
+
+    /**
+     * Converts raw preferences into the probability that a draw u in [0, 1) selects each outcome, where the selected
+     * outcome is the first whose cumulative preference exceeds u. Preferences that push the cumulative sum past one
+     * are truncated; the last entry of the result is the probability that no outcome is selected.
+     */
+    static double[] effectiveProbabilities(double[] prefs) {
+        double[] retval = new double[prefs.length + 1];
+        double cumulative = 0.0;
+        double covered = 0.0;
+        for (int j = 0 ; j < prefs.length ; j++) {
+            cumulative += prefs[j];
+            double upper = Math.min(cumulative, 1.0);
+            if (upper > covered) {
+                retval[j] = upper - covered;
+                covered = upper;
+            }
+        }
+        retval[prefs.length] = 1.0 - covered;
+        return retval;
+    }
+
+    /**
+     * Fills the acceptance and alias arrays for the input distribution (Vose's alias method).
+     */
+    private static void buildAliasTable(double[] probabilities, double[] acceptance, int[] alias) {
+        int n = probabilities.length;
+        double[] scaled = new double[n];
+        int[] small = new int[n];
+        int[] large = new int[n];
+        int numSmall = 0, numLarge = 0;
+        for (int i = 0 ; i < n ; i++) {
+            scaled[i] = probabilities[i] * n;
+            if (scaled[i] < 1.0)
+                small[numSmall++] = i;
+            else large[numLarge++] = i;
+        }
+        while (numSmall > 0 && numLarge > 0) {
+            int s = small[--numSmall];
+            int l = large[--numLarge];
+            acceptance[s] = scaled[s];
+            alias[s] = l;
+            scaled[l] = (scaled[l] + scaled[s]) - 1.0;
+            if (scaled[l] < 1.0)
+                small[numSmall++] = l;
+            else large[numLarge++] = l;
+        }
+        // what remains is 1 up to rounding error
+        while (numLarge > 0) {
+            int l = large[--numLarge];
+            acceptance[l] = 1.0;
+            alias[l] = l;
+        }
+        while (numSmall > 0) {
+            int s = small[--numSmall];
+            acceptance[s] = 1.0;
+            alias[s] = s;
+        }
+    }
+
+    /**
+     * Returns true if the question with the input ordinal has more than {@link #MAX_MASK_OPTIONS} options and is not
+     * exclusive, so that its outcomes must be drawn with {@link #sampleWide}.
+     * @param q A question ordinal.
+     * @return Whether the question's selections do not fit in a long.
+     */
+    public boolean isWide(int q) {
+        Question question = plan.getQuestion(q);
+        return !question.exclusive && question.options.size() > MAX_MASK_OPTIONS;
+    }
+
+    /**
+     * Draws an outcome for the question with the input ordinal.
+     * @param q A question ordinal that is not {@link #isWide wide}.
+     * @param rng The source of randomness.
+     * @return The index of the selection in the question's answer space, or {@link #NO_ANSWER}.
+     */
+    public long sample(int q, Random rng) {
+        if (acceptance[q] != null) {
+            int n = acceptance[q].length;
+            int i = rng.nextInt(n);
+            int outcome = rng.nextDouble() < acceptance[q][i] ? i : alias[q][i];
+            return outcome == n - 1 ? NO_ANSWER : outcome;
+        }
+        switch (adversaryType) {
+            case UNIFORM:
+                return nextLong(rng, denominators[q]);
+            case FIRST:
+                return 0;
+            case LAST:
+                return denominators[q] - 1;
+            default:
+                // the inner adversary puts (1 + i) / (2^(d/2) - 1) on the i-th outermost outcomes; past the table size
+                // this underflows, so all of its mass is on selecting nothing
+                return NO_ANSWER;
+        }
+    }
+
+    /**
+     * Draws the options selected for a {@link #isWide wide} question. Outcomes are numbered as in {@link #sample}, over
+     * an answer space of 2^n - 1 outcomes.
+     * @param q A question ordinal.
+     * @param rng The source of randomness.
+     * @return The display positions of the selected options, or null if the respondent selects no answer.
+     */
+    public BitSet sampleWide(int q, Random rng) {
+        int numOptions = plan.getQuestion(q).options.size();
+        BitSet retval = new BitSet(numOptions);
+        switch (adversaryType) {
+            case UNIFORM:
+                // draw n random bits, rejecting the all-ones value, which is not an outcome
+                do {
+                    long[] words = new long[(numOptions + 63) / 64];
+                    for (int w = 0 ; w < words.length ; w++)
+                        words[w] = rng.nextLong();
+                    BitSet value = BitSet.valueOf(words);
+                    value.clear(numOptions, words.length * 64);
+                    if (value.cardinality() == numOptions)
+                        continue;
+                    // outcomes below n select a single option; the others select the options of their set bits
+                    long low = value.isEmpty() ? 0 : value.length() < 64 ? value.toLongArray()[0] : Long.MAX_VALUE;
+                    if (low < numOptions) {
+                        retval.set((int) low);
+                    } else {
+                        for (int k = value.nextSetBit(0) ; k >= 0 ; k = value.nextSetBit(k + 1))
+                            retval.set(numOptions - 1 - k);
+                    }
+                    return retval;
+                } while (true);
+            case FIRST:
+                retval.set(0);
+                return retval;
+            case LAST:
+                // 2^n - 2: every option except the last
+                retval.set(0, numOptions - 1);
+                return retval;
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Returns a uniformly distributed long in [0, bound).
+     */
+    private static long nextLong(Random rng, long bound) {
+        long bits, value;
+        do {
+            bits = rng.nextLong() >>> 1;
+            value = bits % bound;
+        } while (bits - value + (bound - 1) < 0);
+        return value;
+    }
+
+    /**
+     * Returns the probability that a respondent selects the input outcome.
+     * @param q A question ordinal whose answer space is small enough to tabulate.
+     * @param outcome The index of a selection in the question's answer space, or {@link #NO_ANSWER}.
+     * @return The probability of the outcome.
+     */
+    public double getProbability(int q, int outcome) {
+        if (acceptance[q] == null)
+            throw new UnsupportedOperationException(String.format("Question %s has %d outcomes.",
+                    plan.getQuestion(q).quid, denominators[q]));
+        int n = acceptance[q].length;
+        int target = outcome == NO_ANSWER ? n - 1 : outcome;
+        double retval = 0.0;
+        for (int i = 0 ; i < n ; i++) {
+            if (i == target)
+                retval += acceptance[q][i];
+            if (alias[q][i] == target)
+                retval += 1.0 - acceptance[q][i];
+        }
+        return retval / n;
+    }
+
+    /**
+     * Returns true if the question with the input ordinal is answered by generating text rather than by selecting
+     * options.
+     * @param q A question ordinal.
+     * @return Whether the question is answered with freetext.
+     */
+    public boolean isFreetext(int q) {
+        Question question = plan.getQuestion(q);
+        return Boolean.TRUE.equals(question.freetext) || denominators[q] < 1;
+    }
+}
@@ -0,0 +1,83 @@
+package edu.umass.cs.surveyman.qc;
+
+import edu.umass.cs.surveyman.survey.Component;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Answer probabilities and their base-2 logarithms, stored densely by question and option ordinal. The probability of
+ * an option is its count divided by the total count for its question, as in {@link QCMetrics#makeProbabilities}.
+ */
+public class ProbabilityTable implements IAnswerModel {
+
+    public final SurveyIndex index;
+    private final FrequencyTable frequencies;
+    private final double[][] probabilities;
+    private final double[][] logProbabilities;
+
+    public ProbabilityTable(FrequencyTable frequencies) {
+        this.index = frequencies.index;
+        this.frequencies = frequencies;
+        int numQuestions = index.getNumQuestions();
+        this.probabilities = new double[numQuestions][];
+        this.logProbabilities = new double[numQuestions][];
+        for (int q = 0 ; q < numQuestions ; q++) {
+            int numOptions = index.getNumOptions(q) + 1;
+            double total = frequencies.getTotal(q);
+            probabilities[q] = new double[numOptions];
+            logProbabilities[q] = new double[numOptions];
+            for (int o = 0 ; o < numOptions ; o++) {
+                double p = frequencies.getCount(q, o) / total;
+                probabilities[q][o] = p;
+                logProbabilities[q][o] = QCMetrics.log2(p);
+            }
+        }
+    }
+
+    @Override
+    public SurveyIndex getIndex() {
+        return index;
+    }
+
+    /**
+     * Returns the table this one was built from. The probabilities are computed when this table is constructed, so
+     * the counts should not be modified afterwards.
+     * @return The counts behind this table.
+     */
+    @Override
+    public FrequencyTable getFrequencies() {
+        return frequencies;
+    }
+
+    @Override
+    public double getProbability(int q, int o) {
+        return probabilities[q][o];
+    }
+
+    @Override
+    public double getLogProbability(int q, int o) {
+        return logProbabilities[q][o];
+    }
+
+    /**
+     * Converts this table to the representation returned by {@link QCMetrics#makeProbabilities}. Options with
+     * probability zero are omitted.
+     * @return A map from question ids to maps of option ids to probabilities.
+     */
+    public Map<String, Map<String, Double>> toMap() {
+        Map<String, Map<String, Double>> retval = new HashMap<String, Map<String, Double>>();
+        for (int q = 0 ; q < probabilities.length ; q++) {
+            Map<String, Double> map = new HashMap<String, Double>();
+            for (int o = 0 ; o < probabilities[q].length ; o++) {
+                if (!(probabilities[q][o] > 0.0))
+                    continue;
+                Component c = index.getOption(q, o);
+                map.put(c == null ? Component.makeComponentId(-1, -1) : c.getCid(), probabilities[q][o]);
+            }
+            if (!map.isEmpty())
+                retval.put(index.getQuestion(q).quid, map);
+        }
+        return retval;
+    }
+}
@@ -0,0 +1,115 @@
+package edu.umass.cs.surveyman.qc;
+
+import edu.umass.cs.surveyman.analyses.ISurveyResponse;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Simulates a population of K clusters of respondents. Each cluster is a {@link NonRandomRespondent} profile, and each
+ * response comes from a cluster chosen according to the mixture weights.
+ */
+public class ProfileMixture extends AbstractRespondent {
+
+    public final CompiledSurvey plan;
+    private final NonRandomRespondent[] profiles;
+    // the cumulative mixture weights, normalized to end at 1
+    private final double[] cdf;
+
+    /**
+     * Creates a mixture of equally weighted clusters.
+     * @param plan The compiled survey.
+     * @param numClusters The number of clusters.
+     * @param rng The source of randomness for the clusters' preferences and for the responses.
+     */
+    public ProfileMixture(CompiledSurvey plan, int numClusters, Random rng) {
+        this(plan, uniform(numClusters), rng);
+    }
+
+    /**
+     * Creates a mixture with one cluster per weight.
+     * @param plan The compiled survey.
+     * @param weights The relative size of each cluster; need not sum to 1.
+     * @param rng The source of randomness for the clusters' preferences and for the responses.
+     */
+    public ProfileMixture(CompiledSurvey plan, double[] weights, Random rng) {
+        super(rng);
+        if (weights.length == 0)
+            throw new IllegalArgumentException("A mixture needs at least one cluster.");
+        this.plan = plan;
+        this.profiles = new NonRandomRespondent[weights.length];
+        this.cdf = new double[weights.length];
+        double sum = 0.0;
+        for (int k = 0 ; k < weights.length ; k++) {
+            if (weights[k] < 0.0)
+                throw new IllegalArgumentException(String.format("Cluster %d has negative weight %f.", k, weights[k]));
+            sum += weights[k];
+            cdf[k] = sum;
+            profiles[k] = new NonRandomRespondent(plan, rng);
+        }
+        if (sum <= 0.0)
+            throw new IllegalArgumentException("Mixture weights sum to zero.");
+        for (int k = 0 ; k < cdf.length ; k++)
+            cdf[k] /= sum;
+        cdf[cdf.length - 1] = 1.0;
+    }
+
+    private static double[] uniform(int numClusters) {
+        double[] retval = new double[numClusters];
+        Arrays.fill(retval, 1.0);
+        return retval;
+    }
+
+    public int getNumClusters() {
+        return profiles.length;
+    }
+
+    public NonRandomRespondent getProfile(int k) {
+        return profiles[k];
+    }
+
+    /**
+     * Returns the probability that a response comes from the input cluster.
+     * @param k A cluster.
+     * @return The normalized weight of the cluster.
+     */
+    public double getWeight(int k) {
+        return k == 0 ? cdf[0] : cdf[k] - cdf[k - 1];
+    }
+
+    @Override
+    public ISurveyResponse getResponse() {
+        return getResponse(rng);
+    }
+
+    /**
+     * Simulates a response from a randomly chosen cluster. A mixture of one cluster draws no extra random number, so
+     * it produces the same responses as its profile. Concurrent callers must each use their own source.
+     * @param rng The source of randomness.
+     * @return A new response.
+     */
+    public ISurveyResponse getResponse(Random rng) {
+        return profiles[selectCluster(rng)].getResponse(rng);
+    }
+
+    /**
+     * Simulates a response from a randomly chosen cluster on an interpreter that is reused across responses. See
+     * {@link NonRandomRespondent#getResponse(FastInterpreter, Random)}.
+     * @param interpreter An interpreter for this mixture's compiled survey.
+     * @param rng The source of randomness.
+     * @return A new response.
+     */
+    public ISurveyResponse getResponse(FastInterpreter interpreter, Random rng) {
+        return profiles[selectCluster(rng)].getResponse(interpreter, rng);
+    }
+
+    private int selectCluster(Random rng) {
+        int k = 0;
+        if (profiles.length > 1) {
+            double u = rng.nextDouble();
+            while (k < cdf.length - 1 && cdf[k] <= u)
+                k++;
+        }
+        return k;
+    }
+}
@@ -5,6 +5,7 @@ import edu.umass.cs.surveyman.analyses.IQuestionResponse;
 import edu.umass.cs.surveyman.analyses.ISurveyResponse;
 import edu.umass.cs.surveyman.analyses.KnownValidityStatus;
 import edu.umass.cs.surveyman.analyses.OptTuple;
+import edu.umass.cs.surveyman.analyses.ResultsReader;
 import edu.umass.cs.surveyman.survey.Block;
 import edu.umass.cs.surveyman.survey.Component;
 import edu.umass.cs.surveyman.survey.Question;
@@ -12,11 +13,12 @@ import edu.umass.cs.surveyman.survey.Survey;
 import edu.umass.cs.surveyman.survey.exceptions.SurveyException;
 
 import java.io.Reader;
+import java.math.BigInteger;
 import java.util.*;
 
 public class QCMetrics {
 
-    private static double log2(double p) {
+    static double log2(double p) {
         return Math.log(p) / Math.log(2.0);
     }
 
@@ -65,7 +67,10 @@ public class QCMetrics {
      * @param s The survey whose paths we want to enumerate
      * @return A List of all paths through the survey. A path is represented by a List. There may be duplicate paths,
      * so if you need distinct paths, you will need to filter for uniqueness.
+     * @deprecated Materializes every path. Use {@link #getDistinctPaths} to iterate over paths, or
+     * {@link #countPaths} to find out how many there are.
      */
+    @Deprecated
     protected static List<List<Block>> getPaths(Survey s) {
         List<List<Block>> retval = new ArrayList<List<Block>>();
         Map<Boolean, List<Block>> partitionedBlocks = Interpreter.partitionBlocks(s);
@@ -84,42 +89,48 @@ public class QCMetrics {
     }
 
     /**
-     * Returns the set of enclosing blocks for this survey response.
-     * @param r A single survey responses
-     * @return The blocks the respondent has traversed in order to produce this response.
+     * Returns the distinct paths through **blocks** in the survey, generated lazily; see {@link BlockGraph#paths()}.
+     * @param s The survey whose paths we want to enumerate
+     * @return An iterable over the paths through the survey.
+     */
+    public static Iterable<BlockPath> getDistinctPaths(Survey s) {
+        return new BlockGraph(s).paths();
+    }
+
+    /**
+     * Returns the exact number of distinct paths through the survey, without enumerating them. Callers can use this to
+     * decide whether to enumerate paths or to sample respondents instead.
+     * @param s The survey whose paths we want to count
+     * @return The number of paths {@link #getDistinctPaths} yields.
+     */
+    public static BigInteger countPaths(Survey s) {
+        return new BlockGraph(s).countPaths();
+    }
+
+    /**
+     * Returns the set of top-level blocks this survey response traversed, as a bitset over block ordinals.
+     * @param graph The block graph of the survey answered.
+     * @param r A single survey response.
+     * @return The bitset of the top-level ancestors of the blocks of every question answered.
      */
-    private static Set<Block> getPath(ISurveyResponse r) {
-        Set<Block> retval = new HashSet<Block>();
+    private static long[] getPathMembership(BlockGraph graph, ISurveyResponse r) {
+        long[] retval = new long[(graph.getNumBlocks() + 63) / 64];
         for (IQuestionResponse questionResponse : r.getResponses()) {
-            retval.add(questionResponse.getQuestion().block);
+            int ordinal = graph.getOrdinal(questionResponse.getQuestion().block);
+            if (ordinal > -1)
+                retval[ordinal >>> 6] |= 1L << ordinal;
         }
         return retval;
     }
 
     /**
-     * Returns the counts for each path; see @etosch's blog post on the calculation.
-     * @param paths The list of list of blocks through the survey; can be obtained with getPaths or getDag
-     * @param responses The list of actual or simulated responses to the survey
-     * @return A map from path to the frequency the path is observed.
+     * Returns true if every bit set in {@code subset} is also set in {@code superset}.
      */
-    private static Map<List<Block>, List<ISurveyResponse>> makeFrequenciesForPaths(List<List<Block>> paths,
-                                                                     List<ISurveyResponse> responses) {
-        Map<List<Block>, List<ISurveyResponse>> retval = new HashMap<List<Block>, List<ISurveyResponse>>();
-        for (ISurveyResponse r : responses) {
-            for (List<Block> path : paths) {
-                Set<Block> pathTraversed = getPath(r);
-                if (path.containsAll(pathTraversed)){
-                    if (retval.containsKey(path))
-                        retval.get(path).add(r);
-                    else {
-                        List<ISurveyResponse> srlist = new ArrayList<ISurveyResponse>();
-                        srlist.add(r);
-                        retval.put(path, srlist);
-                    }
-                }
-            }
-        }
-        return retval;
+    private static boolean isSubset(long[] subset, long[] superset) {
+        for (int i = 0 ; i < subset.length ; i++)
+            if ((subset[i] & ~superset[i]) != 0)
+                return false;
+        return true;
     }
 
     private static List<Question> removeFreetext(List<Question> questionList) {
@@ -153,25 +164,103 @@ public class QCMetrics {
         return retval;
     }
 
+    /**
+     * Returns the empirical entropy of the survey: for every path through the survey and every answer option (taken
+     * together with its equivalent variants), the probability that a response lies on that path and contains that
+     * answer contributes p log p.
+     * @param s The survey these respondents answered.
+     * @param responses The list of actual or simulated responses to the survey.
+     * @return The entropy, in bits.
+     */
     public static double surveyEntropy(Survey s, List<ISurveyResponse> responses){
-        List<List<Block>> paths = getPaths(s);
-        Map<List<Block>, List<ISurveyResponse>> pathMap = makeFrequenciesForPaths(paths, responses);
+        BlockGraph graph = new BlockGraph(s);
         int totalResponses = responses.size();
-        double retval = 0.0;
+        int words = (totalResponses + 63) / 64;
+        // the blocks each response traversed, and the cids each response selected
+        List<long[]> footprints = new ArrayList<long[]>(totalResponses);
+        List<Set<String>> answers = new ArrayList<Set<String>>(totalResponses);
+        for (ISurveyResponse r : responses) {
+            footprints.add(getPathMembership(graph, r));
+            Set<String> cids = new HashSet<String>();
+            for (IQuestionResponse questionResponse : r.getResponses())
+                cids.addAll(OptTuple.getCids(questionResponse.getOpts()));
+            answers.add(cids);
+        }
+        // for each (question, option), the set of responses that chose it or one of its variants
+        List<long[]> answeredBy = new ArrayList<long[]>();
         for (Question q : removeFreetext(s.questions)) {
             for (Component c : q.options.values()) {
-                for (List<Block> path : paths) {
-                    List<Component> variants = getEquivalentAnswerVariants(q, c);
-                    List<ISurveyResponse> responsesThisPath = pathMap.get(path);
-                    List<ISurveyResponse> ansThisPath = new ArrayList<ISurveyResponse> ();
-                    for (ISurveyResponse r : responsesThisPath) {
-                        if (r.surveyResponseContainsAnswer(variants)) {
-                            ansThisPath.add(r);
+                List<Component> variants = getEquivalentAnswerVariants(q, c);
+                long[] responseSet = new long[words];
+                for (int i = 0 ; i < totalResponses ; i++) {
+                    for (Component variant : variants) {
+                        if (answers.get(i).contains(variant.getCid())) {
+                            responseSet[i >>> 6] |= 1L << i;
+                            break;
                         }
                     }
-                    double p = ansThisPath.size() / (double) totalResponses;
-                    retval += log2(p) * p;
                 }
+                answeredBy.add(responseSet);
+            }
+        }
+        return pathEntropy(graph, totalResponses, footprints, answeredBy);
+    }
+
+    /**
+     * Returns the empirical entropy of the survey (see {@link #surveyEntropy(Survey, List)}), reading the blocks each
+     * respondent traversed and the options they selected from the columns of a response matrix.
+     * @param responses The actual or simulated responses to the survey of the matrix's index.
+     * @return The entropy, in bits.
+     */
+    public static double surveyEntropy(ResponseMatrix responses) {
+        SurveyIndex index = responses.index;
+        Survey s = index.survey;
+        BlockGraph graph = new BlockGraph(s);
+        int totalResponses = responses.size();
+        int words = (totalResponses + 63) / 64;
+        // variants are answer options of other questions, so look their questions up by option id
+        Map<String, Integer> optionQuestions = new HashMap<String, Integer>();
+        for (int q = 0 ; q < index.getNumQuestions() ; q++)
+            for (int o = 0 ; o < index.getNumOptions(q) ; o++)
+                optionQuestions.put(index.getOption(q, o).getCid(), q);
+        List<long[]> answeredBy = new ArrayList<long[]>();
+        for (Question q : removeFreetext(s.questions)) {
+            for (Component c : q.options.values()) {
+                long[] responseSet = new long[words];
+                for (Component variant : getEquivalentAnswerVariants(q, c)) {
+                    Integer vq = optionQuestions.get(variant.getCid());
+                    if (vq != null)
+                        responses.markSelectedBy(vq, index.getOptionOrdinal(vq, variant.getCid()), responseSet);
+                }
+                answeredBy.add(responseSet);
+            }
+        }
+        return pathEntropy(graph, totalResponses, Arrays.asList(responses.getFootprints(graph)), answeredBy);
+    }
+
+    /**
+     * Sums p log p over every path through the survey and every answer option.
+     * @param footprints The blocks each response traversed.
+     * @param answeredBy For each answer option, the set of responses that chose it or one of its variants.
+     */
+    private static double pathEntropy(BlockGraph graph, int totalResponses, List<long[]> footprints,
+                                      List<long[]> answeredBy) {
+        int words = (totalResponses + 63) / 64;
+        double retval = 0.0;
+        for (BlockPath path : graph.paths()) {
+            long[] membership = path.getMembership();
+            long[] responsesThisPath = new long[words];
+            for (int i = 0 ; i < totalResponses ; i++)
+                if (isSubset(footprints.get(i), membership))
+                    responsesThisPath[i >>> 6] |= 1L << i;
+            for (long[] responseSet : answeredBy) {
+                int ansThisPath = 0;
+                for (int w = 0 ; w < words ; w++)
+                    ansThisPath += Long.bitCount(responseSet[w] & responsesThisPath[w]);
+                if (ansThisPath == 0)
+                    continue;
+                double p = ansThisPath / (double) totalResponses;
+                retval += log2(p) * p;
             }
         }
         return -retval;
@@ -188,7 +277,7 @@ public class QCMetrics {
             if (block.branchParadigm != Block.BranchParadigm.ALL)
                 questions.addAll(block.questions);
             else {
-                questions.add(block.questions.get(new Random().nextInt(block.questions.size())));
+                questions.add(block.questions.get(Interpreter.random.nextInt(block.questions.size())));
             }
             questions.addAll(getQuestions(block.subBlocks));
         }
@@ -200,7 +289,7 @@ public class QCMetrics {
      * @param question
      * @return
      */
-    private static double maxEntropyOneQuestion(Question question) {
+    static double maxEntropyOneQuestion(Question question) {
         double retval = 0.0;
         int numOptions = question.options.size();
         if (numOptions != 0) {
@@ -209,75 +298,50 @@ public class QCMetrics {
         return retval;
     }
 
-
     /**
-     * Returns the total entropy for a list of Questions.
-     * @param questionList
-     * @return
+     * Returns the largest possible entropy of any path through the survey; see {@link BlockGraph}.
+     * @param s The survey to analyze.
+     * @return The sum of the maximum entropies of the questions on the highest-entropy path.
      */
-    private static double maxEntropyQlist(List<Question> questionList) {
-        double retval = 0.0;
-        for (Question q : questionList) {
-            retval += maxEntropyOneQuestion(q);
-        }
-        return retval;
-    }
-
-
-    /**
-     * Returns the path with the highest entropy.
-     * @param blists
-     * @return
-     */
-    private static List<Block> getMaxPathForEntropy(List<List<Block>> blists) {
-        List<Block> retval = new ArrayList<Block>();
-        double maxEnt = 0.0;
-        for (List<Block> blist : blists) {
-            double ent = maxEntropyQlist(getQuestions(blist));
-            if (ent > maxEnt) {
-                maxEnt = ent;
-                retval = blist;
-            }
-        }
-        return retval;
-    }
-
     public static double getMaxPossibleEntropy(Survey s) {
-        return maxEntropyQlist(getQuestions(getMaxPathForEntropy(getPaths(s))));
+        return new BlockGraph(s).getMaxPossibleEntropy();
     }
 
     public static int minimumPathLength(Survey survey){
-        List<List<Block>> paths = getPaths(survey);
-        int min = Integer.MAX_VALUE;
-        for (List<Block> path : paths) {
-            int pathLength = getQuestions(path).size();
-            if (pathLength < min)
-                min = pathLength;
-        }
-        return min;
+        return new BlockGraph(survey).minimumPathLength();
     }
 
     public static int maximumPathLength(Survey survey) {
-        List<List<Block>> paths = getPaths(survey);
-        int max = Integer.MIN_VALUE;
-        for (List<Block> path : paths) {
-            int pathLength = getQuestions(path).size();
-            if (pathLength > max) {
-                max = pathLength;
-            }
-        }
-        return max;
-
+        return new BlockGraph(survey).maximumPathLength();
     }
 
+    /**
+     * Returns the expected number of questions a uniform random respondent answers, to within 0.05 questions at 95%
+     * confidence when it has to be estimated; see {@link #averagePathLength(Survey, double, double)}.
+     * @param survey The survey to analyze.
+     * @return The average path length.
+     * @throws SurveyException
+     */
     public static double averagePathLength(Survey survey) throws SurveyException {
-        int n = 5000;
-        int stuff = 0;
-        for (int i = 0 ; i < n ; i++) {
-            RandomRespondent rr = new RandomRespondent(survey, RandomRespondent.AdversaryType.UNIFORM);
-            stuff += rr.getResponse().getResponses().size();
-        }
-        return (double) stuff / n;
+        return averagePathLength(survey, 0.05, 0.95);
+    }
+
+    /**
+     * Returns the expected number of questions a uniform random respondent answers. This is computed exactly from the
+     * branch probabilities when possible, and estimated by simulating respondents otherwise (see
+     * {@link PathLengthAnalysis}).
+     * @param survey The survey to analyze.
+     * @param halfWidth If the path length is estimated, the largest acceptable half-width of its confidence interval.
+     * @param confidence If the path length is estimated, the confidence level of the interval.
+     * @return The average path length.
+     * @throws SurveyException
+     */
+    public static double averagePathLength(Survey survey, double halfWidth, double confidence) throws SurveyException {
+        String reason = PathLengthAnalysis.whyNotAnalyzable(survey);
+        if (reason == null)
+            return PathLengthAnalysis.expectedPathLength(survey);
+        SurveyMan.LOGGER.info(String.format("Sampling average path length: %s", reason));
+        return PathLengthAnalysis.sampledPathLength(survey, halfWidth, confidence);
     }
 
     /**
@@ -290,8 +354,13 @@ public class QCMetrics {
     }
 
     /**
-     * Creates a frequency map for the actual responses to the survey. If the survey argument is not null, it will c
+     * Creates a frequency map for the actual responses to the survey. If the survey argument is not null, it will
      * calculate LaPlace smoothing.
+     *
+     * The map is built directly from the responses rather than from a {@link FrequencyTable}: it is keyed by
+     * identifier, so it also counts answers to questions outside the survey, and it counts each distinct other answer
+     * separately, where a table pools them in one slot per question. The classifiers count into a
+     * {@link FrequencyTable}; use {@link FrequencyTable#toMap()} to convert one to this representation.
      * @param responses The list of actual or simulated responses to the survey.
      * @param survey The survey these respondents answered.
      * @return A map from question ids to a map of option ids to counts.
@@ -325,7 +394,8 @@ public class QCMetrics {
                     if (!retval.containsKey(q.quid)) {
                         retval.put(q.quid, new HashMap<String, Integer>());
                     }
-                    retval.get(q.quid).put(c.getCid(), 1);
+                    Map<String, Integer> counts = retval.get(q.quid);
+                    counts.put(c.getCid(), counts.containsKey(c.getCid()) ? counts.get(c.getCid()) + 1 : 1);
                     if (!allComponentIdsSelected.contains(c.getCid())) {
                         numberNeedingSmoothing++;
                     }
@@ -337,6 +407,13 @@ public class QCMetrics {
         return retval;
     }
 
+    /**
+     * Normalizes each question's counts in a frequency map into probabilities. This works on the map alone, without a
+     * survey index; the dense counterpart is {@link ProbabilityTable}, which {@link ProbabilityTable#toMap()} converts
+     * to this representation.
+     * @param frequencies A frequency map, as returned by {@link #makeFrequencies}.
+     * @return A map from question ids to maps of option ids to probabilities.
+     */
     public static Map<String, Map<String, Double>> makeProbabilities(Map<String, Map<String, Integer>> frequencies) {
         Map<String, Map<String, Double>> retval = new HashMap<String, Map<String, Double>>();
         for (Map.Entry<String, Map<String, Integer>> e : frequencies.entrySet()) {
@@ -378,6 +455,119 @@ public class QCMetrics {
         return -ent;
     }
 
+    /**
+     * Returns the log likelihood of the input response, looking up answer probabilities by ordinal.
+     * @param surveyResponse The response to score.
+     * @param probabilities The answer probabilities for the response set.
+     * @return The sum of the base-2 log probabilities of the selected options.
+     */
+    public static double getLLForResponse(ISurveyResponse surveyResponse, IAnswerModel probabilities) {
+        SurveyIndex index = probabilities.getIndex();
+        double ll = 0.0;
+        if (surveyResponse instanceof CompactSurveyResponse
+                && ((CompactSurveyResponse) surveyResponse).isIndexedBy(index)) {
+            CompactSurveyResponse csr = (CompactSurveyResponse) surveyResponse;
+            for (int i = 0 ; i < csr.size() ; i++)
+                for (int k = 0 ; k < csr.getNumSelected(i) ; k++)
+                    ll += probabilities.getLogProbability(csr.getQuestionOrdinal(i), csr.getOptionOrdinal(i, k));
+            return ll;
+        }
+        for (IQuestionResponse questionResponse : surveyResponse.getResponses()) {
+            int q = index.getQuestionOrdinal(questionResponse.getQuestion());
+            if (q < 0)
+                continue;
+            for (OptTuple optTuple : questionResponse.getOpts())
+                ll += probabilities.getLogProbability(q, index.getOptionOrdinal(q, optTuple.c));
+        }
+        return ll;
+    }
+
+    /**
+     * Returns the entropy of the input response, looking up answer probabilities by ordinal.
+     * @param surveyResponse The response to score.
+     * @param probabilities The answer probabilities for the response set.
+     * @return The negated sum of p log p over the selected options.
+     */
+    public static double getEntropyForResponse(ISurveyResponse surveyResponse, IAnswerModel probabilities) {
+        SurveyIndex index = probabilities.getIndex();
+        double ent = 0.0;
+        if (surveyResponse instanceof CompactSurveyResponse
+                && ((CompactSurveyResponse) surveyResponse).isIndexedBy(index)) {
+            CompactSurveyResponse csr = (CompactSurveyResponse) surveyResponse;
+            for (int i = 0 ; i < csr.size() ; i++) {
+                int q = csr.getQuestionOrdinal(i);
+                for (int k = 0 ; k < csr.getNumSelected(i) ; k++) {
+                    int o = csr.getOptionOrdinal(i, k);
+                    double p = probabilities.getProbability(q, o);
+                    assert p > 0.0;
+                    ent += p * probabilities.getLogProbability(q, o);
+                }
+            }
+            return -ent;
+        }
+        for (IQuestionResponse questionResponse : surveyResponse.getResponses()) {
+            int q = index.getQuestionOrdinal(questionResponse.getQuestion());
+            if (q < 0)
+                continue;
+            for (OptTuple optTuple : questionResponse.getOpts()) {
+                int o = index.getOptionOrdinal(q, optTuple.c);
+                double p = probabilities.getProbability(q, o);
+                assert p > 0.0;
+                ent += p * probabilities.getLogProbability(q, o);
+            }
+        }
+        return -ent;
+    }
+
+    /**
+     * Returns the log likelihood of one row of a response matrix.
+     * @param responses A response matrix over the model's survey.
+     * @param r The row to score.
+     * @param probabilities The answer probabilities for the response set.
+     * @return The sum of the base-2 log probabilities of the selected options.
+     */
+    public static double getLLForResponse(ResponseMatrix responses, int r, IAnswerModel probabilities) {
+        SurveyIndex index = probabilities.getIndex();
+        int[] selected = ResponseMatrix.selectionBuffer(index);
+        double ll = 0.0;
+        for (int q = 0 ; q < index.getNumQuestions() ; q++) {
+            int numSelected = responses.getSelected(r, q, selected, 0);
+            for (int k = 0 ; k < numSelected ; k++)
+                ll += probabilities.getLogProbability(q, selected[k]);
+        }
+        return ll;
+    }
+
+    /**
+     * Returns the entropy of one row of a response matrix.
+     * @param responses A response matrix over the model's survey.
+     * @param r The row to score.
+     * @param probabilities The answer probabilities for the response set.
+     * @return The negated sum of p log p over the selected options.
+     */
+    public static double getEntropyForResponse(ResponseMatrix responses, int r, IAnswerModel probabilities) {
+        SurveyIndex index = probabilities.getIndex();
+        int[] selected = ResponseMatrix.selectionBuffer(index);
+        double ent = 0.0;
+        for (int q = 0 ; q < index.getNumQuestions() ; q++) {
+            int numSelected = responses.getSelected(r, q, selected, 0);
+            for (int k = 0 ; k < numSelected ; k++) {
+                double p = probabilities.getProbability(q, selected[k]);
+                assert p > 0.0;
+                ent += p * probabilities.getLogProbability(q, selected[k]);
+            }
+        }
+        return -ent;
+    }
+
+    public static List<Double> calculateLogLikelihoods(List<ISurveyResponse> responses, IAnswerModel probabilities) {
+        List<Double> retval = new LinkedList<Double>();
+        for (ISurveyResponse sr : responses) {
+            retval.add(getLLForResponse(sr, probabilities));
+        }
+        return retval;
+    }
+
     public static List<Double> calculateLogLikelihoods(List<ISurveyResponse> responses, Map<String, Map<String, Double>> probabilities) {
         List<Double> retval = new LinkedList<Double>();
         for (ISurveyResponse sr : responses) {
@@ -386,6 +576,218 @@ public class QCMetrics {
         return retval;
     }
 
+    /**
+     * Scores each response under the input probability model.
+     * @param responses The list of actual or simulated responses to the survey.
+     * @param probabilities The answer probabilities, as returned by {@link #makeProbabilities}.
+     * @param classifier Determines the score: entropy for {@code ENTROPY}, leave-one-out log likelihood for
+     *                   {@code LPO}, log likelihood otherwise. Leave-one-out scores need answer counts rather than
+     *                   probabilities, so for {@code LPO} the counts are taken from the responses themselves (see
+     *                   {@link #makeFrequencies(List)}) and the probabilities are not used.
+     * @return An array of scores, in the same order as the input responses.
+     */
+    public static double[] calculateScores(List<ISurveyResponse> responses, Map<String, Map<String, Double>> probabilities,
+                                           Classifier classifier) {
+        if (classifier == Classifier.LPO)
+            return calculateLeaveOneOutScores(responses, makeFrequencies(responses));
+        double[] scores = new double[responses.size()];
+        for (int i = 0 ; i < scores.length ; i++) {
+            ISurveyResponse sr = responses.get(i);
+            scores[i] = classifier == Classifier.ENTROPY ?
+                    getEntropyForResponse(sr, probabilities) : getLLForResponse(sr, probabilities);
+        }
+        return scores;
+    }
+
+    /**
+     * Scores each response under the input answer model.
+     * @param responses The list of actual or simulated responses to the survey.
+     * @param probabilities The answer probabilities for the response set.
+     * @param classifier Determines the score: entropy for {@code ENTROPY}, leave-one-out log likelihood for
+     *                   {@code LPO} (see {@link #calculateLeaveOneOutScores}), log likelihood otherwise. For
+     *                   {@code LPO}, the model's counts must be the counts of exactly the input responses.
+     * @return An array of scores, in the same order as the input responses.
+     */
+    public static double[] calculateScores(List<ISurveyResponse> responses, IAnswerModel probabilities,
+                                           Classifier classifier) {
+        if (classifier == Classifier.LPO)
+            return calculateLeaveOneOutScores(responses, probabilities.getFrequencies());
+        double[] scores = new double[responses.size()];
+        for (int i = 0 ; i < scores.length ; i++) {
+            ISurveyResponse sr = responses.get(i);
+            scores[i] = classifier == Classifier.ENTROPY ?
+                    getEntropyForResponse(sr, probabilities) : getLLForResponse(sr, probabilities);
+        }
+        return scores;
+    }
+
+    /**
+     * Scores every row of a response matrix under the input answer model. Each question's contribution is looked up
+     * once per option and then added to the scores in a single pass over the question's answer column.
+     * @param responses A response matrix over the model's survey.
+     * @param probabilities The answer probabilities for the response set.
+     * @param classifier Determines the score, as in {@link #calculateScores(List, IAnswerModel, Classifier)}.
+     * @return An array of scores, indexed by row.
+     */
+    public static double[] calculateScores(ResponseMatrix responses, IAnswerModel probabilities,
+                                           Classifier classifier) {
+        SurveyIndex index = probabilities.getIndex();
+        if (!responses.isIndexedBy(index))
+            throw new RuntimeException("The response matrix and the answer model were built over different surveys.");
+        if (classifier == Classifier.LPO)
+            return calculateLeaveOneOutScores(responses, probabilities.getFrequencies());
+        int n = responses.size();
+        double[] scores = new double[n];
+        int[] selected = ResponseMatrix.selectionBuffer(index);
+        for (int q = 0 ; q < index.getNumQuestions() ; q++) {
+            // the term each option adds to the score
+            double[] terms = new double[index.getNumOptions(q) + 1];
+            for (int o = 0 ; o < terms.length ; o++)
+                terms[o] = classifier == Classifier.ENTROPY ?
+                        -probabilities.getProbability(q, o) * probabilities.getLogProbability(q, o) :
+                        probabilities.getLogProbability(q, o);
+            int[] column = responses.getColumn(q);
+            for (int r = 0 ; r < n ; r++) {
+                int o = column[r];
+                if (o >= 0)
+                    scores[r] += terms[o];
+                else if (o == ResponseMatrix.MULTIPLE) {
+                    int numSelected = responses.getSelected(r, q, selected, 0);
+                    for (int k = 0 ; k < numSelected ; k++)
+                        scores[r] += terms[selected[k]];
+                }
+            }
+        }
+        return scores;
+    }
+
+    /**
+     * Returns the leave-one-out log likelihood of each response: the likelihood of its answers under the counts of
+     * every other response. Rather than rebuilding the counts once per response, the response's own answers are
+     * subtracted from the shared counts as they are looked up, so scoring all n responses costs O(n x answers). Every
+     * answer slot, including the other-answer slot, gets LaPlace (+1) smoothing, so that answers no other respondent
+     * gave have a finite score.
+     * @param responses The list of actual or simulated responses to the survey.
+     * @param frequencies The answer counts of exactly the input responses, with or without {@link
+     *                    FrequencyTable#smooth()} applied.
+     * @return An array of scores, in the same order as the input responses.
+     */
+    public static double[] calculateLeaveOneOutScores(List<ISurveyResponse> responses, FrequencyTable frequencies) {
+        SurveyIndex index = frequencies.index;
+        double[] scores = new double[responses.size()];
+        for (int i = 0 ; i < scores.length ; i++) {
+            ISurveyResponse sr = responses.get(i);
+            double ll = 0.0;
+            if (sr instanceof CompactSurveyResponse && ((CompactSurveyResponse) sr).isIndexedBy(index)) {
+                CompactSurveyResponse csr = (CompactSurveyResponse) sr;
+                for (int j = 0 ; j < csr.size() ; j++) {
+                    int q = csr.getQuestionOrdinal(j);
+                    int numSelected = csr.getNumSelected(j);
+                    for (int k = 0 ; k < numSelected ; k++)
+                        ll += leaveOneOutLogProbability(frequencies, q, csr.getOptionOrdinal(j, k), numSelected);
+                }
+            } else {
+                for (IQuestionResponse qr : sr.getResponses()) {
+                    int q = index.getQuestionOrdinal(qr.getQuestion());
+                    if (q < 0)
+                        continue;
+                    List<OptTuple> opts = qr.getOpts();
+                    for (OptTuple optTuple : opts)
+                        ll += leaveOneOutLogProbability(frequencies, q, index.getOptionOrdinal(q, optTuple.c),
+                                opts.size());
+                }
+            }
+            scores[i] = ll;
+        }
+        return scores;
+    }
+
+    /**
+     * Returns the leave-one-out log likelihood of every row of a response matrix (see
+     * {@link #calculateLeaveOneOutScores(List, FrequencyTable)}), scanning one answer column at a time.
+     * @param responses A response matrix over the survey of the counts.
+     * @param frequencies The answer counts of exactly the rows of the matrix, with or without smoothing.
+     * @return An array of scores, indexed by row.
+     */
+    public static double[] calculateLeaveOneOutScores(ResponseMatrix responses, FrequencyTable frequencies) {
+        SurveyIndex index = frequencies.index;
+        if (!responses.isIndexedBy(index))
+            throw new RuntimeException("The response matrix and the frequency table were built over different surveys.");
+        int n = responses.size();
+        double[] scores = new double[n];
+        int[] selected = ResponseMatrix.selectionBuffer(index);
+        for (int q = 0 ; q < index.getNumQuestions() ; q++) {
+            // the score of each option for respondents who selected only that option
+            double[] terms = new double[index.getNumOptions(q) + 1];
+            for (int o = 0 ; o < terms.length ; o++)
+                terms[o] = leaveOneOutLogProbability(frequencies, q, o, 1);
+            int[] column = responses.getColumn(q);
+            for (int r = 0 ; r < n ; r++) {
+                int o = column[r];
+                if (o >= 0)
+                    scores[r] += terms[o];
+                else if (o == ResponseMatrix.MULTIPLE) {
+                    int numSelected = responses.getSelected(r, q, selected, 0);
+                    for (int k = 0 ; k < numSelected ; k++)
+                        scores[r] += leaveOneOutLogProbability(frequencies, q, selected[k], numSelected);
+                }
+            }
+        }
+        return scores;
+    }
+
+    /**
+     * Returns the smoothed log probability of an option once one respondent's answers to its question are withdrawn.
+     * @param numSelected The number of options the withdrawn respondent selected for the question.
+     */
+    private static double leaveOneOutLogProbability(FrequencyTable frequencies, int q, int o, int numSelected) {
+        int numOptions = frequencies.index.getNumOptions(q);
+        // the counts of everyone else: withdraw the respondent's own answers
+        double count = frequencies.getCount(q, o) - 1;
+        double total = frequencies.getTotal(q) - numSelected;
+        // smooth every slot the table has not smoothed already; smooth() leaves the other-answer slot alone
+        if (!frequencies.isSmoothed() || o == numOptions)
+            count += 1;
+        total += frequencies.isSmoothed() ? 1 : numOptions + 1;
+        return log2(count / total);
+    }
+
+    /**
+     * The map counterpart of {@link #calculateLeaveOneOutScores(List, FrequencyTable)}. Answers are counted by
+     * component id, so distinct other answers to a question are counted separately.
+     * @param responses The list of actual or simulated responses to the survey.
+     * @param frequencies The unsmoothed answer counts of exactly the input responses, as returned by
+     *                    {@link #makeFrequencies(List)}.
+     * @return An array of scores, in the same order as the input responses.
+     */
+    public static double[] calculateLeaveOneOutScores(List<ISurveyResponse> responses,
+                                                      Map<String, Map<String, Integer>> frequencies) {
+        Map<String, Integer> totals = new HashMap<String, Integer>();
+        for (Map.Entry<String, Map<String, Integer>> entry : frequencies.entrySet()) {
+            int total = 0;
+            for (Integer count : entry.getValue().values())
+                total += count;
+            totals.put(entry.getKey(), total);
+        }
+        double[] scores = new double[responses.size()];
+        for (int i = 0 ; i < scores.length ; i++) {
+            double ll = 0.0;
+            for (IQuestionResponse qr : responses.get(i).getResponses()) {
+                String quid = qr.getQuestion().quid;
+                List<String> cids = OptTuple.getCids(qr.getOpts());
+                int numSlots = qr.getQuestion().options.size() + 1;
+                // the answers of everyone else, smoothed over every slot
+                double total = totals.get(quid) - cids.size() + numSlots;
+                for (String cid : cids) {
+                    int othersCount = frequencies.get(quid).get(cid) - 1;
+                    ll += log2((othersCount + 1) / total);
+                }
+            }
+            scores[i] = ll;
+        }
+        return scores;
+    }
+
     public static List<String> getQuestionIds(List<IQuestionResponse> questionResponses) {
         List<String> quids = new ArrayList<String>();
         for (IQuestionResponse qr : questionResponses) {
@@ -448,7 +850,7 @@ public class QCMetrics {
 
                     @Override
                     public List<ISurveyResponse> readSurveyResponses(Survey s, Reader r) throws SurveyException {
-                        return null;
+                        return ResultsReader.readAll(s, r);
                     }
 
                     @Override
@@ -491,6 +893,14 @@ public class QCMetrics {
         return retval;
     }
 
+    /**
+     * Materializes bootstrap samples of the input responses.
+     * @param responseList The list of actual or simulated responses to the survey
+     * @param iterations The number of samples to draw.
+     * @return A list of {@code iterations} samples, each the size of the input list.
+     * @deprecated Holds iterations times responses references; score responses once and use {@link Bootstrap} instead.
+     */
+    @Deprecated
     public static List<List<ISurveyResponse>> generateBootstrapSample(List<ISurveyResponse> responseList, int iterations) {
         List<List<ISurveyResponse>> retval = new ArrayList<List<ISurveyResponse>>();
         for (int i = 0; i < iterations; i++) {
@@ -514,23 +924,17 @@ public class QCMetrics {
      */
     public static boolean logLikelihoodClassification(Survey survey, ISurveyResponse sr, List<ISurveyResponse> responses,
                                                       boolean smoothing, double alpha) {
-        Map<String, Map<String, Double>> probabilities = makeProbabilities(makeFrequencies(responses, smoothing ? survey : null));
+        ProbabilityTable probabilities = new ProbabilityTable(
+                FrequencyTable.makeFrequencyTable(new SurveyIndex(survey), responses, smoothing));
         List<Double> lls = calculateLogLikelihoods(truncateResponses(responses, sr), probabilities);
         if (new HashSet<Double>(lls).size() > 5) {
             double thisLL = getLLForResponse(sr, probabilities);
-            List<List<ISurveyResponse>> bsSample = generateBootstrapSample(responses, 500);
-            List<Double> means = new ArrayList<Double>();
-            for (List<ISurveyResponse> sample : bsSample) {
-                double total = 0.0;
-                for (ISurveyResponse surveyResponse: sample) {
-                    total += getLLForResponse(surveyResponse, probabilities);
-                }
-                means.add(total / sample.size());
-            }
-            Collections.sort(means);
-            assert means.get(0) < means.get(means.size() - 1);
-            SurveyMan.LOGGER.info(String.format("Range of means: [%f, %f]", means.get(0), means.get(means.size() -1)));
-            double threshHold = means.get((int) Math.floor(alpha * means.size()));
+            double[] means = new Bootstrap(calculateScores(responses, probabilities, Classifier.LOG_LIKELIHOOD))
+                    .sampleMeans(500, Interpreter.random.nextLong());
+            Arrays.sort(means);
+            assert means[0] < means[means.length - 1];
+            SurveyMan.LOGGER.info(String.format("Range of means: [%f, %f]", means[0], means[means.length - 1]));
+            double threshHold = means[(int) Math.floor(alpha * means.length)];
             SurveyMan.LOGGER.info(String.format("Threshold: %f\tLL: %f", threshHold, thisLL));
             sr.setScore(thisLL);
             return thisLL > threshHold;
@@ -549,59 +953,336 @@ public class QCMetrics {
     public static boolean entropyClassification(Survey survey, ISurveyResponse sr, List<ISurveyResponse> responses,
                                          boolean smoothing, double alpha) {
         // basically the same as logLikelihood, but scores are p * log p, rather than straight up p
-        Map<String, Map<String, Double>> probabilities = makeProbabilities(makeFrequencies(responses, smoothing ? survey : null));
+        ProbabilityTable probabilities = new ProbabilityTable(
+                FrequencyTable.makeFrequencyTable(new SurveyIndex(survey), responses, smoothing));
         List<Double> lls = calculateLogLikelihoods(truncateResponses(responses, sr), probabilities);
         if (new HashSet<Double>(lls).size() > 5) {
             double thisEnt = getEntropyForResponse(sr, probabilities);
-            List<List<ISurveyResponse>> bsSample = generateBootstrapSample(responses, 200);
-            List<Double> means = new ArrayList<Double>();
-            for (List<ISurveyResponse> sample : bsSample) {
-                assert sample.size() > 0 : "Sample size must be greater than 0.";
-                double total = 0.0;
-                for (ISurveyResponse surveyResponse : sample) {
-                    double ent = getEntropyForResponse(surveyResponse, probabilities);
-                    total += ent;
-                }
-                means.add(total / sample.size());
-            }
-            Collections.sort(means);
-            assert means.get(0) < means.get(means.size() - 1) :
+            double[] means = new Bootstrap(calculateScores(responses, probabilities, Classifier.ENTROPY))
+                    .sampleMeans(200, Interpreter.random.nextLong());
+            Arrays.sort(means);
+            assert means[0] < means[means.length - 1] :
                     String.format("Ranked means expected mean at position 0 to be greater than the mean at %d (%f < %f).",
-                    means.size(), means.get(0), means.get(means.size() - 1));
-            double threshHold = means.get((int) Math.floor(alpha * means.size()));
+                    means.length, means[0], means[means.length - 1]);
+            double threshHold = means[(int) Math.floor(alpha * means.length)];
             sr.setScore(thisEnt);
             SurveyMan.LOGGER.debug(String.format("This entropy: %f\tThis threshold:%f", thisEnt, threshHold));
             return thisEnt < threshHold;
         } else return true;
     }
 
+    /**
+     * Classifies every response in the input list. This is equivalent to calling
+     * {@link #logLikelihoodClassification} or {@link #entropyClassification} once per response, except that the
+     * probability model and the bootstrap distribution of mean scores are built once for the whole response set,
+     * rather than once per response.
+     * @param survey The survey these respondents answered.
+     * @param responses The list of actual or simulated responses to the survey.
+     * @param classifier The classification method to use.
+     * @param smoothing Boolean indicating whether we should smooth our calculation of answer frequencies.
+     * @param alpha The cutoff used for determining whether a score is too extreme (a percentage of area under the
+     *              curve).
+     * @return A list of classifications, in the same order as the input responses.
+     */
+    public static List<Classification> classifyAll(Survey survey, List<ISurveyResponse> responses,
+                                                   Classifier classifier, boolean smoothing, double alpha) {
+        return classifyAll(survey, responses, classifier, smoothing, alpha, Interpreter.random.nextLong());
+    }
+
+    /**
+     * Classifies every response in the input list, drawing the bootstrap samples from the input seed, so that the
+     * classifications only depend on the responses and the seed.
+     * @param survey The survey these respondents answered.
+     * @param responses The list of actual or simulated responses to the survey.
+     * @param classifier The classification method to use.
+     * @param smoothing Boolean indicating whether we should smooth our calculation of answer frequencies.
+     * @param alpha The cutoff used for determining whether a score is too extreme (a percentage of area under the
+     *              curve).
+     * @param seed The seed of the bootstrap.
+     * @return A list of classifications, in the same order as the input responses.
+     */
+    public static List<Classification> classifyAll(Survey survey, List<ISurveyResponse> responses,
+                                                   Classifier classifier, boolean smoothing, double alpha,
+                                                   long seed) {
+        if (responses.isEmpty())
+            return new ArrayList<Classification>();
+        ProbabilityTable probabilities = new ProbabilityTable(
+                FrequencyTable.makeFrequencyTable(new SurveyIndex(survey), responses, smoothing));
+        return classifyAll(responses, probabilities, classifier, alpha, seed);
+    }
+
+    /**
+     * Classifies every response in the input list against an answer model that has already been built for the list,
+     * e.g. an {@link IncrementalFrequencyModel} that is kept current as the response set changes.
+     * @param responses The list of actual or simulated responses to the survey.
+     * @param probabilities The answer probabilities for the response set.
+     * @param classifier The classification method to use.
+     * @param alpha The cutoff used for determining whether a score is too extreme (a percentage of area under the
+     *              curve).
+     * @param seed The seed of the bootstrap.
+     * @return A list of classifications, in the same order as the input responses.
+     */
+    public static List<Classification> classifyAll(List<ISurveyResponse> responses, IAnswerModel probabilities,
+                                                   Classifier classifier, double alpha, long seed) {
+        List<Classification> retval = new ArrayList<Classification>();
+        if (responses.isEmpty())
+            return retval;
+        int iterations = bootstrapIterations(classifier);
+        // Score every response exactly once.
+        double[] scores = calculateScores(responses, probabilities, classifier);
+        double threshold = new Bootstrap(scores).threshold(iterations, alpha, seed);
+        SurveyMan.LOGGER.info(String.format("Threshold for %s: %f", classifier.name(), threshold));
+        boolean[] enoughVariation = hasEnoughVariation(responses, probabilities);
+        for (int i = 0 ; i < scores.length ; i++)
+            retval.add(classify(responses.get(i), classifier, scores[i], threshold, enoughVariation[i]));
+        return retval;
+    }
+
+    /**
+     * Classifies every row of a response matrix, as {@link #classifyAll(List, IAnswerModel, Classifier, double, long)}
+     * does for a list. Scores are computed by column scans (see {@link #calculateScores(ResponseMatrix, IAnswerModel,
+     * Classifier)}); each row is only converted to a response object to be returned in its classification.
+     * @param responses A response matrix over the model's survey.
+     * @param probabilities The answer probabilities for the response set.
+     * @param classifier The classification method to use.
+     * @param alpha The cutoff used for determining whether a score is too extreme (a percentage of area under the
+     *              curve).
+     * @param seed The seed of the bootstrap.
+     * @return A list of classifications, indexed by row.
+     */
+    public static List<Classification> classifyAll(ResponseMatrix responses, IAnswerModel probabilities,
+                                                   Classifier classifier, double alpha, long seed) {
+        List<Classification> retval = new ArrayList<Classification>();
+        if (responses.size() == 0)
+            return retval;
+        double[] scores = calculateScores(responses, probabilities, classifier);
+        double threshold = new Bootstrap(scores).threshold(bootstrapIterations(classifier), alpha, seed);
+        SurveyMan.LOGGER.info(String.format("Threshold for %s: %f", classifier.name(), threshold));
+        boolean[] enoughVariation = hasEnoughVariation(responses, probabilities);
+        for (int r = 0 ; r < scores.length ; r++)
+            retval.add(classify(responses.getResponse(r), classifier, scores[r], threshold, enoughVariation[r]));
+        return retval;
+    }
+
+    /**
+     * Applies the classification rule shared by every classifier: a response is only judged by its score when the
+     * responses that answered the same questions vary enough, and is otherwise accepted.
+     */
+    private static Classification classify(ISurveyResponse sr, Classifier classifier, double score, double threshold,
+                                           boolean enoughVariation) {
+        if (!enoughVariation)
+            return new Classification(sr, classifier, score, Double.NaN, true);
+        sr.setScore(score);
+        sr.setThreshold(threshold);
+        return new Classification(sr, classifier, score, threshold, isValid(classifier, score, threshold));
+    }
+
+    /**
+     * Compares a score to a threshold: entropy flags high scores; the likelihood classifiers flag low ones.
+     * @param classifier The classifier that produced the score.
+     * @param score A response's score.
+     * @param threshold The classifier's threshold.
+     * @return Whether the score is on the valid side of the threshold.
+     */
+    public static boolean isValid(Classifier classifier, double score, double threshold) {
+        return classifier == Classifier.ENTROPY ? score < threshold : score > threshold;
+    }
+
+    /**
+     * Determines, for every response, whether the responses that answered the same questions have enough variation
+     * to be classified (see {@link #classifyAll(List, IAnswerModel, Classifier, double, long)}). Responses without
+     * enough variation are always classified as valid.
+     * @param responses The list of actual or simulated responses to the survey.
+     * @param probabilities The answer probabilities for the response set.
+     * @return An array of flags, in the same order as the input responses.
+     */
+    public static boolean[] hasEnoughVariation(List<ISurveyResponse> responses, IAnswerModel probabilities) {
+        boolean[] retval = new boolean[responses.size()];
+        // Responses that answered the same questions share the same truncated response set.
+        Map<Set<String>, Boolean> enoughVariation = new HashMap<Set<String>, Boolean>();
+        for (int i = 0 ; i < retval.length ; i++) {
+            Set<String> answeredQuestions = new HashSet<String>(getQuestionIds(responses.get(i).getResponses()));
+            if (!enoughVariation.containsKey(answeredQuestions))
+                enoughVariation.put(answeredQuestions, hasEnoughVariation(answeredQuestions, responses, probabilities));
+            retval[i] = enoughVariation.get(answeredQuestions);
+        }
+        return retval;
+    }
+
+    /**
+     * The response matrix counterpart of {@link #hasEnoughVariation(List, IAnswerModel)}.
+     * @param responses A response matrix over the model's survey.
+     * @param probabilities The answer probabilities for the response set.
+     * @return An array of flags, indexed by row.
+     */
+    public static boolean[] hasEnoughVariation(ResponseMatrix responses, IAnswerModel probabilities) {
+        // the questions each row saw, built one column at a time
+        SurveyIndex index = responses.index;
+        BitSet[] answered = new BitSet[responses.size()];
+        for (int r = 0 ; r < answered.length ; r++)
+            answered[r] = new BitSet(index.getNumQuestions());
+        for (int q = 0 ; q < index.getNumQuestions() ; q++) {
+            short[] seen = responses.getSeenColumn(q);
+            for (int r = 0 ; r < answered.length ; r++)
+                if (seen[r] >= 0)
+                    answered[r].set(q);
+        }
+        boolean[] retval = new boolean[answered.length];
+        Map<BitSet, Boolean> enoughVariation = new HashMap<BitSet, Boolean>();
+        for (int r = 0 ; r < answered.length ; r++) {
+            if (!enoughVariation.containsKey(answered[r]))
+                enoughVariation.put(answered[r], hasEnoughVariation(answered[r], answered, responses, probabilities));
+            retval[r] = enoughVariation.get(answered[r]);
+        }
+        return retval;
+    }
+
+    /**
+     * Returns the number of bootstrap samples drawn to compute the threshold of the input classifier.
+     */
+    static int bootstrapIterations(Classifier classifier) {
+        switch (classifier) {
+            case LOG_LIKELIHOOD:
+            case LPO:
+                return 500;
+            case ENTROPY:
+                return 200;
+            default:
+                throw new RuntimeException(String.format("Unknown classification type %s.", classifier.name()));
+        }
+    }
+
+    /**
+     * Mirrors the check at the top of the single-response classifiers: there must be more than five distinct log
+     * likelihoods among the responses truncated to the input question set.
+     */
+    private static boolean hasEnoughVariation(Set<String> answeredQuestions, List<ISurveyResponse> responses,
+                                              IAnswerModel probabilities) {
+        SurveyIndex index = probabilities.getIndex();
+        Set<Double> lls = new HashSet<Double>();
+        for (ISurveyResponse sr : responses) {
+            List<IQuestionResponse> questionResponses = sr.getResponses();
+            if (!new HashSet<String>(getQuestionIds(questionResponses)).containsAll(answeredQuestions))
+                continue;
+            double ll = 0.0;
+            for (IQuestionResponse qr : questionResponses) {
+                int q = index.getQuestionOrdinal(qr.getQuestion());
+                if (q >= 0 && answeredQuestions.contains(qr.getQuestion().quid))
+                    for (OptTuple optTuple : qr.getOpts())
+                        ll += probabilities.getLogProbability(q, index.getOptionOrdinal(q, optTuple.c));
+            }
+            lls.add(ll);
+            if (lls.size() > 5)
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * The response matrix counterpart of {@link #hasEnoughVariation(Set, List, IAnswerModel)}.
+     * @param answeredQuestions The ordinals of the questions to truncate to.
+     * @param answered The ordinals of the questions each row saw.
+     */
+    private static boolean hasEnoughVariation(BitSet answeredQuestions, BitSet[] answered, ResponseMatrix responses,
+                                              IAnswerModel probabilities) {
+        int[] selected = ResponseMatrix.selectionBuffer(responses.index);
+        BitSet missing = new BitSet();
+        Set<Double> lls = new HashSet<Double>();
+        for (int r = 0 ; r < answered.length ; r++) {
+            missing.clear();
+            missing.or(answeredQuestions);
+            missing.andNot(answered[r]);
+            if (!missing.isEmpty())
+                continue;
+            double ll = 0.0;
+            for (int q = answeredQuestions.nextSetBit(0) ; q >= 0 ; q = answeredQuestions.nextSetBit(q + 1)) {
+                int numSelected = responses.getSelected(r, q, selected, 0);
+                for (int k = 0 ; k < numSelected ; k++)
+                    ll += probabilities.getLogProbability(q, selected[k]);
+            }
+            lls.add(ll);
+            if (lls.size() > 5)
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Returns true if the response is valid, on the basis of its leave-one-out log likelihood: the likelihood of its
+     * answers under the responses of everyone else (see {@link #calculateLeaveOneOutScores}). The response set is
+     * counted and scored once, and only the input response is classified. To classify a whole response set, use
+     * {@link #classifyAll} with {@link Classifier#LPO}, rather than calling this once per response.
+     * @param survey The survey these respondents answered.
+     * @param sr The survey response we are classifying.
+     * @param responses The list of actual or simulated responses to the survey.
+     * @param alpha The cutoff used for determining whether a likelihood is too low (a percentage of area under the curve).
+     * @return Whether the response is classified as valid.
+     */
+    public static boolean lpoClassification(Survey survey, ISurveyResponse sr, List<ISurveyResponse> responses,
+                                            double alpha) {
+        List<ISurveyResponse> responseSet = responses;
+        int i = 0;
+        while (i < responses.size() && responses.get(i) != sr)
+            i++;
+        if (i == responses.size()) {
+            responseSet = new ArrayList<ISurveyResponse>(responses);
+            responseSet.add(sr);
+        }
+        FrequencyTable frequencies = FrequencyTable.makeFrequencyTable(new SurveyIndex(survey), responseSet, false);
+        double[] scores = calculateLeaveOneOutScores(responseSet, frequencies);
+        double threshold = new Bootstrap(scores).threshold(bootstrapIterations(Classifier.LPO), alpha,
+                Interpreter.random.nextLong());
+        Set<String> answeredQuestions = new HashSet<String>(getQuestionIds(sr.getResponses()));
+        if (!hasEnoughVariation(answeredQuestions, responseSet, new ProbabilityTable(frequencies)))
+            return true;
+        return classify(sr, Classifier.LPO, scores[i], threshold, true).valid;
+    }
+
     public static boolean lpoClassification(Survey survey, ISurveyResponse sr, List<ISurveyResponse> responses) {
-        return true;
+        return lpoClassification(survey, sr, responses, 0.05);
     }
     //public double calculateBonus(ISurveyResponse sr, Record record);
     //public double getBotThresholdForSurvey(Survey s);
 
     /**
-     * Simulates a survey of 100% random uniform respondents over sampleSize and calculates a prior on false correlation.
-     * @param survey The survey these respondents answered.
-     * @param sampleSize The sample size the survey writer intends to use during the full-scale study.
-     * @param alpha The cutoff used for determining correlation.
-     * @return Empirical false correlation.
+     * Returns the fraction of question pairs whose answers appear correlated among uniform random respondents, i.e. the
+     * probability that a pair of questions tests as correlated when its answers are in fact independent. Only pairs of
+     * exclusive questions are tested (see {@link PairwiseCorrelations}).
+     * @param survey The survey to analyze.
+     * @param sampleSize The number of random respondents to simulate.
+     * @param alpha The significance level of each pairwise test.
+     * @return The fraction of tested pairs with a p-value below alpha, or 0 if no pairs could be tested.
      * @throws SurveyException
      */
     public static double getProbabilityOfFalseCorrelation(Survey survey, int sampleSize, double alpha) throws SurveyException {
-        double p = 0.0;
-        List<RandomRespondent> randomRespondents = new ArrayList<RandomRespondent>();
+        return getProbabilityOfFalseCorrelation(survey, sampleSize, alpha, Interpreter.random);
+    }
+
+    /**
+     * Returns the fraction of question pairs whose answers appear correlated among uniform random respondents, drawing
+     * the respondents from the input source of randomness.
+     * @param survey The survey to analyze.
+     * @param sampleSize The number of random respondents to simulate.
+     * @param alpha The significance level of each pairwise test.
+     * @param rng The source of randomness.
+     * @return The fraction of tested pairs with a p-value below alpha, or 0 if no pairs could be tested.
+     * @throws SurveyException
+     */
+    public static double getProbabilityOfFalseCorrelation(Survey survey, int sampleSize, double alpha, Random rng)
+            throws SurveyException {
+        CompiledSurvey plan = new CompiledSurvey(survey);
+        FastInterpreter interpreter = new FastInterpreter(plan, rng);
+        List<ISurveyResponse> responses = new ArrayList<ISurveyResponse>();
         for (int i = 0 ; i < sampleSize; i++){
-            randomRespondents.add(new RandomRespondent(survey, RandomRespondent.AdversaryType.UNIFORM));
-        }
-        for (Question q1 : survey.questions) {
-            for (Question q2: survey.questions) {
-                // get responses having answered both questions
-                // compute the appropriate correlation coefficient
-                // count how many p-values are below the threshhold.
-            }
+            responses.add(new RandomRespondent(interpreter, RandomRespondent.AdversaryType.UNIFORM, rng).getResponse());
         }
-        return p;
+        List<Correlation> correlations = new PairwiseCorrelations(plan.index, responses).correlateAll();
+        if (correlations.isEmpty())
+            return 0.0;
+        int falseCorrelations = 0;
+        for (Correlation correlation : correlations)
+            if (correlation.pValue < alpha)
+                falseCorrelations++;
+        return falseCorrelations / (double) correlations.size();
     }
 }
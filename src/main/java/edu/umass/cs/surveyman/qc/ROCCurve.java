@@ -0,0 +1,209 @@
+package edu.umass.cs.surveyman.qc;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * The receiver operating characteristic of a classifier over a set of responses with known validity. Every response is
+ * scored once; the scores are sorted so that the responses most likely to be valid come first, and each threshold
+ * between two distinct scores gives one point of the curve. Valid responses are the positive class, as in
+ * {@link Classification}: a log likelihood classifier accepts responses whose score is above its threshold, and an
+ * entropy classifier accepts responses whose score is below it. As in {@link QCMetrics#classifyAll}, responses whose
+ * question set lacks enough variation to be classified are accepted at every threshold.
+ *
+ * Building the curve takes O(n log n) time; the counts at any threshold are then found by binary search.
+ */
+public class ROCCurve {
+
+    /**
+     * The counts of a classifier at a single threshold.
+     */
+    public static class Point {
+
+        public final double threshold;
+        public final int truePositive;
+        public final int falsePositive;
+        public final int trueNegative;
+        public final int falseNegative;
+
+        Point(double threshold, int truePositive, int falsePositive, int trueNegative, int falseNegative) {
+            this.threshold = threshold;
+            this.truePositive = truePositive;
+            this.falsePositive = falsePositive;
+            this.trueNegative = trueNegative;
+            this.falseNegative = falseNegative;
+        }
+
+        public double getTruePositiveRate() {
+            return (double) truePositive / (truePositive + falseNegative);
+        }
+
+        public double getFalsePositiveRate() {
+            return (double) falsePositive / (falsePositive + trueNegative);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%f\t%d\t%d\t%d\t%d",
+                    threshold, truePositive, falsePositive, trueNegative, falseNegative);
+        }
+    }
+
+    public final Classifier classifier;
+    /**
+     * The number of known valid responses.
+     */
+    public final int positives;
+    /**
+     * The number of known invalid responses.
+     */
+    public final int negatives;
+    /**
+     * The area under the curve: the probability that a random valid response scores as more valid than a random invalid
+     * one, counting ties as one half and ranking responses that are always accepted above every other response.
+     * {@code NaN} if either class is empty.
+     */
+    public final double auc;
+
+    // the scores in input order, for the bootstrap
+    private final double[] scores;
+    // 1 if higher scores are more valid, -1 otherwise
+    private final double sign;
+    // the scores multiplied by sign, in decreasing order; responses that are always accepted come first, as infinity
+    private final double[] sorted;
+    // the number of valid and invalid responses among the first k sorted scores, for k = 0 ... n
+    private final int[] cumulativeValid;
+    private final int[] cumulativeInvalid;
+    // the number of sorted scores above each point of the curve; the first point accepts nothing
+    private final int[] cutoffs;
+
+    /**
+     * Builds the curve for the input scores.
+     * @param classifier The classifier that produced the scores; determines which direction is valid.
+     * @param scores The score of each response.
+     * @param valid The known validity of each response.
+     */
+    public ROCCurve(Classifier classifier, double[] scores, boolean[] valid) {
+        this(classifier, scores, valid, null);
+    }
+
+    /**
+     * Builds the curve for the input scores, accepting the responses that cannot be classified at every threshold.
+     * @param classifier The classifier that produced the scores; determines which direction is valid.
+     * @param scores The score of each response.
+     * @param valid The known validity of each response.
+     * @param enoughVariation Whether each response can be classified, as returned by
+     *                        {@link QCMetrics#hasEnoughVariation(java.util.List, IAnswerModel)}; null if all can.
+     */
+    public ROCCurve(Classifier classifier, double[] scores, boolean[] valid, boolean[] enoughVariation) {
+        if (scores.length != valid.length || (enoughVariation != null && enoughVariation.length != valid.length))
+            throw new IllegalArgumentException("Scores and validity labels differ in length.");
+        this.classifier = classifier;
+        this.scores = scores.clone();
+        this.sign = classifier == Classifier.ENTROPY ? -1.0 : 1.0;
+        final double[] oriented = new double[scores.length];
+        Integer[] order = new Integer[scores.length];
+        for (int i = 0 ; i < scores.length ; i++) {
+            oriented[i] = enoughVariation == null || enoughVariation[i] ?
+                    sign * scores[i] : Double.POSITIVE_INFINITY;
+            order[i] = i;
+        }
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer i, Integer j) {
+                return Double.compare(oriented[j], oriented[i]);
+            }
+        });
+        int n = scores.length;
+        this.sorted = new double[n];
+        this.cumulativeValid = new int[n + 1];
+        this.cumulativeInvalid = new int[n + 1];
+        int[] cutoffs = new int[n + 1];
+        int numPoints = 1;
+        for (int k = 0 ; k < n ; k++) {
+            int i = order[k];
+            sorted[k] = oriented[i];
+            cumulativeValid[k + 1] = cumulativeValid[k] + (valid[i] ? 1 : 0);
+            cumulativeInvalid[k + 1] = cumulativeInvalid[k] + (valid[i] ? 0 : 1);
+            // tied scores are accepted or rejected together, so a point only ends after the last of them
+            if (k == n - 1 || Double.compare(oriented[i], oriented[order[k + 1]]) != 0)
+                cutoffs[numPoints++] = k + 1;
+        }
+        this.cutoffs = Arrays.copyOf(cutoffs, numPoints);
+        this.positives = cumulativeValid[n];
+        this.negatives = cumulativeInvalid[n];
+        double area = 0.0;
+        for (int p = 1 ; p < numPoints ; p++) {
+            int lo = this.cutoffs[p - 1], hi = this.cutoffs[p];
+            area += (cumulativeInvalid[hi] - cumulativeInvalid[lo])
+                    * (cumulativeValid[hi] + cumulativeValid[lo]) / 2.0;
+        }
+        this.auc = positives == 0 || negatives == 0 ? Double.NaN : area / ((double) positives * negatives);
+    }
+
+    /**
+     * Returns the number of points on the curve, including the point that accepts no response.
+     * @return The number of distinct thresholds plus one.
+     */
+    public int size() {
+        return cutoffs.length;
+    }
+
+    /**
+     * Returns the i-th point of the curve. Points are ordered from the strictest threshold, which accepts no response,
+     * to the loosest, which accepts every response. The threshold of a point is the score of the least valid response it
+     * accepts.
+     * @param i The index of the point.
+     * @return The counts at the point.
+     */
+    public Point getPoint(int i) {
+        int k = cutoffs[i];
+        double threshold = k == 0 ? sign * Double.POSITIVE_INFINITY : sign * sorted[k - 1];
+        return point(threshold, k);
+    }
+
+    private Point point(double threshold, int k) {
+        return new Point(threshold,
+                cumulativeValid[k],
+                cumulativeInvalid[k],
+                negatives - cumulativeInvalid[k],
+                positives - cumulativeValid[k]);
+    }
+
+    /**
+     * Returns the counts of the classifier at the input threshold, using the same strict comparison as
+     * {@link QCMetrics#classifyAll}. Responses that cannot be classified are accepted at every finite threshold.
+     * @param threshold A score cutoff.
+     * @return The counts at the threshold.
+     */
+    public Point pointAt(double threshold) {
+        double oriented = sign * threshold;
+        // the number of sorted scores strictly greater than the threshold
+        int lo = 0, hi = sorted.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (sorted[mid] > oriented)
+                lo = mid + 1;
+            else hi = mid;
+        }
+        return point(threshold, lo);
+    }
+
+    /**
+     * Returns the operating point of the classifier at significance level alpha: the threshold is the alpha cutoff of
+     * the bootstrap distribution of mean scores, as computed by {@link QCMetrics#classifyAll}.
+     * @param alpha The cutoff used for determining whether a score is too extreme.
+     * @param seed The seed of the bootstrap.
+     * @return The counts at the alpha threshold.
+     */
+    public Point operatingPoint(double alpha, long seed) {
+        if (scores.length == 0)
+            return point(Double.NaN, 0);
+        double threshold = new Bootstrap(scores).threshold(QCMetrics.bootstrapIterations(classifier), alpha, seed);
+        return pointAt(threshold);
+    }
+
+    public Point operatingPoint(double alpha) {
+        return operatingPoint(alpha, Interpreter.random.nextLong());
+    }
+}
@@ -1,9 +1,5 @@
 package edu.umass.cs.surveyman.qc;
 
-import clojure.lang.PersistentVector;
-import clojure.lang.RT;
-import clojure.lang.Symbol;
-import clojure.lang.Var;
 import edu.umass.cs.surveyman.analyses.ISurveyResponse;
 import edu.umass.cs.surveyman.survey.Component;
 import edu.umass.cs.surveyman.survey.Question;
@@ -11,7 +7,6 @@ import edu.umass.cs.surveyman.survey.StringComponent;
 import edu.umass.cs.surveyman.survey.Survey;
 import edu.umass.cs.surveyman.survey.exceptions.SurveyException;
 import edu.umass.cs.surveyman.utils.Gensym;
-import org.apache.commons.lang3.StringUtils;
 import org.apache.log4j.Logger;
 
 import java.util.*;
@@ -23,27 +18,68 @@ public class RandomRespondent extends AbstractRespondent {
     public static final Gensym gensym = new Gensym("rand");
 
     public final Survey survey;
+    private final CompiledSurvey plan;
     public final AdversaryType adversaryType;
     public final String id = gensym.next();
     private ISurveyResponse response = null;
-    private HashMap<Question, double[]> posPref;
-    private final double UNSET = -1.0;
+    private final PositionPreferences preferences;
 
     // random respondent currently returns the same response every time. it should be updated to behave more like
     // nonrandom respondent and hold its profile
+    /**
+     * @deprecated Compiles the survey again for every respondent. Compile it once with
+     * {@link CompiledSurvey#CompiledSurvey(Survey)} and use {@link #RandomRespondent(CompiledSurvey, AdversaryType)}.
+     */
+    @Deprecated
     public RandomRespondent(Survey survey, AdversaryType adversaryType) throws SurveyException {
-        this.survey = survey;
+        this(new CompiledSurvey(survey), adversaryType);
+    }
+
+    /**
+     * Creates a random respondent that runs a survey that has already been compiled; simulations that create many
+     * respondents should compile the survey once and share it.
+     * @param plan The compiled survey.
+     * @param adversaryType The respondent's position preference.
+     * @throws SurveyException
+     */
+    public RandomRespondent(CompiledSurvey plan, AdversaryType adversaryType) throws SurveyException {
+        this(plan, adversaryType, Interpreter.random);
+    }
+
+    /**
+     * Creates a random respondent that draws its answers from the input source of randomness.
+     * @param plan The compiled survey.
+     * @param adversaryType The respondent's position preference.
+     * @param rng The source of randomness.
+     * @throws SurveyException
+     */
+    public RandomRespondent(CompiledSurvey plan, AdversaryType adversaryType, Random rng) throws SurveyException {
+        super(rng);
+        this.plan = plan;
+        this.survey = plan.survey;
+        this.adversaryType = adversaryType;
+        this.preferences = PositionPreferences.get(plan, adversaryType);
+        populateResponses(new FastInterpreter(plan, rng));
+    }
+
+    /**
+     * Creates a random respondent that runs on an interpreter reused across respondents, e.g. one per simulation task.
+     * The interpreter is reset to draw from the input source, so the response is the same as
+     * {@link #RandomRespondent(CompiledSurvey, AdversaryType, Random)} would give.
+     * @param interpreter An interpreter for the compiled survey.
+     * @param adversaryType The respondent's position preference.
+     * @param rng The source of randomness.
+     * @throws SurveyException
+     */
+    public RandomRespondent(FastInterpreter interpreter, AdversaryType adversaryType, Random rng)
+            throws SurveyException {
+        super(rng);
+        this.plan = interpreter.plan;
+        this.survey = plan.survey;
         this.adversaryType = adversaryType;
-        posPref = new HashMap<Question, double[]>();
-        for (int i = 0 ; i < survey.questions.size() ; i++) {
-            Question q = survey.questions.get(i);
-            int denom = getDenominator(q);
-            double[] prefs = new double[denom];
-            Arrays.fill(prefs, UNSET);
-            posPref.put(q, prefs);
-        }
-        populatePosPreferences();
-        populateResponses();
+        this.preferences = PositionPreferences.get(plan, adversaryType);
+        interpreter.reset(rng);
+        populateResponses(interpreter);
     }
 
     @Override
@@ -51,82 +87,47 @@ public class RandomRespondent extends AbstractRespondent {
         return this.response;
     }
 
-    private void populatePosPreferences() {
-        for (Question q : posPref.keySet()) {
-            if (adversaryType==AdversaryType.INNER) {
-                int filled = (int) Math.ceil((double) posPref.get(q).length / 2.0) - 1;
-                int pieces = 2 * (int) Math.pow(2, filled) - 1;
-                for (int i = 0 ; i <= filled ; i++) {
-                    double prob = ((double) 1 + i) / (double) pieces;
-                    posPref.get(q)[i] = prob;
-                    int j = posPref.get(q).length - i - 1;
-                    if (posPref.get(q)[j] == UNSET)
-                        posPref.get(q)[j] = prob;
-                    else posPref.get(q)[j] += prob;
-                }
-            } else {
-                for (int optionPos = 0 ; optionPos < posPref.get(q).length ; optionPos++ ) {
-                    switch (adversaryType) {
-                        case UNIFORM:
-                            posPref.get(q)[optionPos] = (1.0 / (double) posPref.get(q).length);
-                            break;
-                        case FIRST:
-                            if (optionPos==0)
-                                posPref.get(q)[optionPos] = 1.0;
-                            else posPref.get(q)[optionPos] = 0.0;
-                            break;
-                        case LAST:
-                            if (optionPos==posPref.get(q).length-1)
-                                posPref.get(q)[optionPos] = 1.0;
-                            else posPref.get(q)[optionPos] = 0.0;
-                            break;
-                        default:
-                            break;
-                    }
-                }
-            }
-        }
-    }
-
-    private List<Component> selectOptions(int i, Component[] options){
+    /**
+     * Returns the options selected by the input outcome: outcomes below the number of options select the option at
+     * that position; larger outcomes are bitmasks over the positions, most significant bit first.
+     */
+    private List<Component> selectOptions(long i, Component[] options){
         List<Component> retval = new ArrayList<Component>();
         if (i >= options.length) {
-            String binstr = Integer.toBinaryString(i);
-            assert binstr.length() <= options.length : String.format("binary string : %s; total option size : %d", binstr, options.length);
-            char[] selections = StringUtils.leftPad(binstr, options.length, '0').toCharArray();
-            assert i < Math.pow(2.0, (double) options.length);
-            assert selections.length == options.length : String.format("Told to select from %d options; actual number of options is %d", selections.length, options.length);
-            for (int j = 0 ; j < selections.length ; j++){
-                if (selections[j]=='1')
+            int n = options.length;
+            assert n <= PositionPreferences.MAX_MASK_OPTIONS && i < (1L << n) :
+                    String.format("outcome : %d; total option size : %d", i, n);
+            for (int j = 0 ; j < n ; j++){
+                if (((i >>> (n - 1 - j)) & 1L) == 1L)
                     retval.add(options[j]);
             }
-        } else retval.add(options[i]);
+        } else retval.add(options[(int) i]);
+        return retval;
+    }
+
+    private List<Component> selectOptions(BitSet positions, Component[] options) {
+        List<Component> retval = new ArrayList<Component>(positions.cardinality());
+        for (int j = positions.nextSetBit(0) ; j >= 0 ; j = positions.nextSetBit(j + 1))
+            retval.add(options[j]);
         return retval;
     }
 
-    private void populateResponses() throws SurveyException {
-        Interpreter interpreter = new Interpreter(survey);
+    private void populateResponses(FastInterpreter interpreter) throws SurveyException {
         do {
-            Question q = interpreter.getNextQuestion();
-            Component[] c = q.getOptListByIndex();
+            int ordinal = interpreter.nextQuestion();
+            Question q = plan.getQuestion(ordinal);
             List<Component> answers = new ArrayList<Component>();
             // calculate our answer
-            int denom = getDenominator(q);
-            if (q.freetext || denom < 1 ) {
+            if (preferences.isFreetext(ordinal)) {
                 answers.add(new StringComponent(generateStringComponent(q), -1, -1));
+            } else if (preferences.isWide(ordinal)) {
+                BitSet positions = preferences.sampleWide(ordinal, rng);
+                if (positions != null)
+                    answers.addAll(selectOptions(positions, interpreter.getOptions()));
             } else {
-                double prob = rng.nextDouble();
-                double cumulativeProb = 0.0;
-                for (int j = 0 ; j < denom ; j++) {
-                    assert posPref.get(q).length == denom :
-                            String.format("Expected position preference question options and denom to be equal (%f = %f)",
-                            posPref.get(q).length, denom);
-                    cumulativeProb += posPref.get(q)[j];
-                    if (prob < cumulativeProb) {
-                        answers.addAll(selectOptions(j, c));
-                        break;
-                    }
-                }
+                long j = preferences.sample(ordinal, rng);
+                if (j != PositionPreferences.NO_ANSWER)
+                    answers.addAll(selectOptions(j, interpreter.getOptions()));
             }
             interpreter.answer(q, answers);
         } while (!interpreter.terminated());
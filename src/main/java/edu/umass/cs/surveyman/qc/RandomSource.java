@@ -0,0 +1,148 @@
+package edu.umass.cs.surveyman.qc;
+
+import java.util.Random;
+import java.util.SplittableRandom;
+
+/**
+ * A seedable source of randomness for simulation and QC. It is backed by a {@link SplittableRandom}, and extends
+ * {@link Random} so that it can be passed anywhere a generator is expected (e.g., {@link java.util.Collections#shuffle}).
+ *
+ * A source is not thread-safe, except for those returned by {@link #synchronizedSource}. Instead of sharing one source
+ * between tasks, give each task its own stream with {@link #split()}: the streams are statistically independent, and if
+ * they are split off in a fixed order, every task draws the same values for a given seed no matter how many threads run
+ * the tasks.
+ */
+public class RandomSource extends Random {
+
+    private static final long serialVersionUID = 1L;
+
+    private SplittableRandom random;
+
+    /**
+     * Creates a source seeded from the current time.
+     */
+    public RandomSource() {
+        this(System.currentTimeMillis());
+    }
+
+    /**
+     * Creates a source whose sequence of values is determined by the input seed.
+     * @param seed The seed.
+     */
+    public RandomSource(long seed) {
+        this(new SplittableRandom(seed));
+    }
+
+    private RandomSource(SplittableRandom random) {
+        this.random = random;
+    }
+
+    /**
+     * Returns a source that may be shared between threads, such as a global default. Every draw takes a lock, so tasks
+     * that draw many values should {@link #split()} their own source from it instead.
+     * @param seed The seed.
+     * @return A thread-safe source.
+     */
+    public static RandomSource synchronizedSource(long seed) {
+        return new SynchronizedSource(seed);
+    }
+
+    private static class SynchronizedSource extends RandomSource {
+
+        private static final long serialVersionUID = 1L;
+
+        SynchronizedSource(long seed) {
+            super(seed);
+        }
+
+        @Override
+        public synchronized RandomSource split() {
+            return super.split();
+        }
+
+        @Override
+        public synchronized void setSeed(long seed) {
+            super.setSeed(seed);
+        }
+
+        @Override
+        protected synchronized int next(int bits) {
+            return super.next(bits);
+        }
+
+        @Override
+        public synchronized int nextInt() {
+            return super.nextInt();
+        }
+
+        @Override
+        public synchronized int nextInt(int bound) {
+            return super.nextInt(bound);
+        }
+
+        @Override
+        public synchronized long nextLong() {
+            return super.nextLong();
+        }
+
+        @Override
+        public synchronized double nextDouble() {
+            return super.nextDouble();
+        }
+
+        @Override
+        public synchronized boolean nextBoolean() {
+            return super.nextBoolean();
+        }
+    }
+
+    /**
+     * Returns a new source whose values are independent of this one's. This source advances, so successive calls
+     * return different streams.
+     * @return A new source.
+     */
+    public RandomSource split() {
+        return new RandomSource(random.split());
+    }
+
+    /**
+     * Restarts this source's sequence from the input seed.
+     * @param seed The seed.
+     */
+    @Override
+    public void setSeed(long seed) {
+        // Random's constructor calls setSeed before this.random is assigned
+        if (random != null)
+            random = new SplittableRandom(seed);
+    }
+
+    @Override
+    protected int next(int bits) {
+        return random.nextInt() >>> (32 - bits);
+    }
+
+    @Override
+    public int nextInt() {
+        return random.nextInt();
+    }
+
+    @Override
+    public int nextInt(int bound) {
+        return random.nextInt(bound);
+    }
+
+    @Override
+    public long nextLong() {
+        return random.nextLong();
+    }
+
+    @Override
+    public double nextDouble() {
+        return random.nextDouble();
+    }
+
+    @Override
+    public boolean nextBoolean() {
+        return random.nextBoolean();
+    }
+}
@@ -0,0 +1,444 @@
+package edu.umass.cs.surveyman.qc;
+
+import edu.umass.cs.surveyman.analyses.IQuestionResponse;
+import edu.umass.cs.surveyman.analyses.ISurveyResponse;
+import edu.umass.cs.surveyman.analyses.KnownValidityStatus;
+import edu.umass.cs.surveyman.analyses.OptTuple;
+import edu.umass.cs.surveyman.survey.Component;
+
+import java.util.*;
+
+/**
+ * A response set stored by column: one row per respondent and one column per question of a {@link SurveyIndex}. Each
+ * cell holds the ordinal of the option selected, {@link #UNANSWERED} if no option was selected, or {@link #MULTIPLE} if
+ * several were, in which case the options are kept in a per-question bitmap over option ordinals. Alongside the answers,
+ * each question has a column of the position at which the respondent saw it (-1 if it was not seen) and of the
+ * position at which the selected option was displayed.
+ *
+ * Metrics that walk every response (see the {@code ResponseMatrix} overloads in {@link QCMetrics}) scan one primitive
+ * column per question rather than a graph of response objects. Answers in the other-answer slot are kept in a sparse
+ * map; the display positions of the options of a multiple answer are not kept.
+ */
+public class ResponseMatrix {
+
+    /**
+     * The answer of a respondent who did not see the question, or who saw it and selected nothing.
+     */
+    public static final int UNANSWERED = -1;
+    /**
+     * The answer of a respondent who selected more than one option; see {@link #isSelected}.
+     */
+    public static final int MULTIPLE = -2;
+
+    private static final int INITIAL_CAPACITY = 16;
+
+    public final SurveyIndex index;
+    private final int numQuestions;
+    // the number of longs in one bitmap of each question
+    private final int[] words;
+    // the columns, indexed by question ordinal and then by row
+    private int[][] answers;
+    private short[][] seen;
+    private short[][] positions;
+    // bitmaps of the rows whose answer is MULTIPLE; null until a question gets one
+    private final long[][] selections;
+    // keyed by row * numQuestions + question
+    private final Map<Long, Component> others = new HashMap<Long, Component>();
+    private String[] srids;
+    private String[] workerIds;
+    private KnownValidityStatus[] validityStatuses;
+    private int numRows = 0;
+    private int capacity = 0;
+
+    /**
+     * Creates an empty matrix.
+     * @param index The ordinals for the survey answered.
+     */
+    public ResponseMatrix(SurveyIndex index) {
+        this(index, INITIAL_CAPACITY);
+    }
+
+    ResponseMatrix(SurveyIndex index, int capacity) {
+        if (index.getNumQuestions() > Short.MAX_VALUE)
+            throw new IllegalArgumentException(String.format("Surveys with more than %d questions are not supported.",
+                    Short.MAX_VALUE));
+        this.index = index;
+        this.numQuestions = index.getNumQuestions();
+        this.words = new int[numQuestions];
+        for (int q = 0 ; q < numQuestions ; q++)
+            words[q] = (index.getNumOptions(q) + 1 + 63) / 64;
+        this.answers = new int[numQuestions][];
+        this.seen = new short[numQuestions][];
+        this.positions = new short[numQuestions][];
+        this.selections = new long[numQuestions][];
+        this.srids = new String[0];
+        this.workerIds = new String[0];
+        this.validityStatuses = new KnownValidityStatus[0];
+        ensureCapacity(Math.max(1, capacity));
+    }
+
+    /**
+     * Creates a matrix with one row per input response.
+     * @param index The ordinals for the survey answered.
+     * @param responses The list of actual or simulated responses to the survey.
+     */
+    public ResponseMatrix(SurveyIndex index, List<ISurveyResponse> responses) {
+        this(index);
+        ensureCapacity(responses.size());
+        for (ISurveyResponse sr : responses)
+            add(sr);
+    }
+
+    private void ensureCapacity(int minCapacity) {
+        if (minCapacity <= capacity)
+            return;
+        int newCapacity = Math.max(minCapacity, 2 * capacity);
+        for (int q = 0 ; q < numQuestions ; q++) {
+            answers[q] = Arrays.copyOf(answers[q] == null ? new int[0] : answers[q], newCapacity);
+            seen[q] = Arrays.copyOf(seen[q] == null ? new short[0] : seen[q], newCapacity);
+            positions[q] = Arrays.copyOf(positions[q] == null ? new short[0] : positions[q], newCapacity);
+            Arrays.fill(answers[q], capacity, newCapacity, UNANSWERED);
+            Arrays.fill(seen[q], capacity, newCapacity, (short) -1);
+            Arrays.fill(positions[q], capacity, newCapacity, (short) -1);
+            if (selections[q] != null)
+                selections[q] = Arrays.copyOf(selections[q], newCapacity * words[q]);
+        }
+        srids = Arrays.copyOf(srids, newCapacity);
+        workerIds = Arrays.copyOf(workerIds, newCapacity);
+        validityStatuses = Arrays.copyOf(validityStatuses, newCapacity);
+        capacity = newCapacity;
+    }
+
+    /**
+     * Appends a response as a new row. Answers to questions that are not part of the indexed survey are ignored.
+     * @param sr A survey response.
+     * @return The row of the response.
+     */
+    public int add(ISurveyResponse sr) {
+        int r = addRow(sr.getSrid(), sr.workerId(), sr.getKnownValidityStatus());
+        if (sr instanceof CompactSurveyResponse && ((CompactSurveyResponse) sr).isIndexedBy(index)) {
+            CompactSurveyResponse csr = (CompactSurveyResponse) sr;
+            for (int i = 0 ; i < csr.size() ; i++) {
+                int q = csr.getQuestionOrdinal(i);
+                see(r, q, i);
+                for (int k = 0 ; k < csr.getNumSelected(i) ; k++)
+                    select(r, q, csr.getOptionOrdinal(i, k), csr.getPosition(i, k));
+                if (csr.getOther(i) != null)
+                    setOther(r, q, csr.getOther(i));
+            }
+            return r;
+        }
+        List<IQuestionResponse> questionResponses = sr.getResponses();
+        for (int i = 0 ; i < questionResponses.size() ; i++) {
+            IQuestionResponse qr = questionResponses.get(i);
+            int q = index.getQuestionOrdinal(qr.getQuestion());
+            if (q < 0)
+                continue;
+            see(r, q, i);
+            for (OptTuple optTuple : qr.getOpts()) {
+                int o = index.getOptionOrdinal(q, optTuple.c);
+                select(r, q, o, optTuple.i == null ? -1 : optTuple.i);
+                if (o == index.getOtherOrdinal(q) && optTuple.c != null)
+                    setOther(r, q, optTuple.c);
+            }
+        }
+        return r;
+    }
+
+    /**
+     * Appends a row that has not answered any question.
+     * @return The new row.
+     */
+    int addRow(String srid, String workerId, KnownValidityStatus validityStatus) {
+        ensureCapacity(numRows + 1);
+        int r = numRows++;
+        srids[r] = srid;
+        workerIds[r] = workerId;
+        validityStatuses[r] = validityStatus;
+        return r;
+    }
+
+    private long key(int r, int q) {
+        return (long) r * numQuestions + q;
+    }
+
+    private void see(int r, int q, int indexSeen) {
+        if (seen[q][r] < 0)
+            seen[q][r] = (short) Math.min(indexSeen, Short.MAX_VALUE);
+    }
+
+    /**
+     * Adds an option to a respondent's answer, turning a single answer into a multiple one if needed.
+     */
+    void select(int r, int q, int o, int position) {
+        int current = answers[q][r];
+        if (current == UNANSWERED) {
+            answers[q][r] = o;
+            positions[q][r] = position < 0 || position > Short.MAX_VALUE ? -1 : (short) position;
+            return;
+        }
+        if (current == o)
+            return;
+        if (selections[q] == null)
+            selections[q] = new long[capacity * words[q]];
+        if (current != MULTIPLE) {
+            setBit(r, q, current);
+            answers[q][r] = MULTIPLE;
+            positions[q][r] = -1;
+        }
+        setBit(r, q, o);
+    }
+
+    private void setBit(int r, int q, int o) {
+        selections[q][r * words[q] + (o >>> 6)] |= 1L << o;
+    }
+
+    /**
+     * Returns the number of rows.
+     * @return The number of responses added.
+     */
+    public int size() {
+        return numRows;
+    }
+
+    /**
+     * Returns true if this matrix's ordinals can be read against the input index without translation. See
+     * {@link SurveyIndex#hasSameOrdinals(SurveyIndex)}.
+     * @param index A survey index.
+     * @return Whether the ordinals agree.
+     */
+    public boolean isIndexedBy(SurveyIndex index) {
+        return this.index.hasSameOrdinals(index);
+    }
+
+    /**
+     * Returns the answer of a respondent to a question.
+     * @param r A row.
+     * @param q A question ordinal.
+     * @return The option ordinal selected, {@link #UNANSWERED}, or {@link #MULTIPLE}.
+     */
+    public int getAnswer(int r, int q) {
+        return answers[q][r];
+    }
+
+    /**
+     * Returns the number of options a respondent selected for a question.
+     * @param r A row.
+     * @param q A question ordinal.
+     * @return The number of options selected.
+     */
+    public int getNumSelected(int r, int q) {
+        int answer = answers[q][r];
+        if (answer != MULTIPLE)
+            return answer == UNANSWERED ? 0 : 1;
+        int retval = 0;
+        for (int w = 0 ; w < words[q] ; w++)
+            retval += Long.bitCount(selections[q][r * words[q] + w]);
+        return retval;
+    }
+
+    /**
+     * Returns true if a respondent selected an option.
+     * @param r A row.
+     * @param q A question ordinal.
+     * @param o An option ordinal.
+     * @return Whether the option was among those selected.
+     */
+    public boolean isSelected(int r, int q, int o) {
+        int answer = answers[q][r];
+        if (answer != MULTIPLE)
+            return answer == o;
+        return (selections[q][r * words[q] + (o >>> 6)] & (1L << o)) != 0;
+    }
+
+    /**
+     * Copies the option ordinals a respondent selected for a question, in increasing order, into a buffer.
+     * @param buffer Receives the ordinals from {@code offset} on; must have room for every ordinal of the question.
+     * @return The number of options selected.
+     */
+    int getSelected(int r, int q, int[] buffer, int offset) {
+        int answer = answers[q][r];
+        if (answer != MULTIPLE) {
+            if (answer == UNANSWERED)
+                return 0;
+            buffer[offset] = answer;
+            return 1;
+        }
+        int n = offset;
+        for (int w = 0 ; w < words[q] ; w++) {
+            long bits = selections[q][r * words[q] + w];
+            while (bits != 0) {
+                buffer[n++] = (w << 6) + Long.numberOfTrailingZeros(bits);
+                bits &= bits - 1;
+            }
+        }
+        return n - offset;
+    }
+
+    /**
+     * Returns a buffer large enough for {@link #getSelected} on any question of the input index.
+     */
+    static int[] selectionBuffer(SurveyIndex index) {
+        int max = 0;
+        for (int q = 0 ; q < index.getNumQuestions() ; q++)
+            max = Math.max(max, index.getNumOptions(q) + 1);
+        return new int[max];
+    }
+
+    /**
+     * Returns the answer column of a question. The array is shared and may be longer than {@link #size()}.
+     */
+    int[] getColumn(int q) {
+        return answers[q];
+    }
+
+    /**
+     * Returns the position-seen column of a question. The array is shared and may be longer than {@link #size()}.
+     */
+    short[] getSeenColumn(int q) {
+        return seen[q];
+    }
+
+    /**
+     * Returns the display-position column of a question. The array is shared and may be longer than {@link #size()}.
+     */
+    short[] getPositionColumn(int q) {
+        return positions[q];
+    }
+
+    /**
+     * Returns the answers in the other-answer slots, keyed by {@code row * numQuestions + question}.
+     */
+    Map<Long, Component> getOthers() {
+        return others;
+    }
+
+    void setOther(int r, int q, Component other) {
+        others.put(key(r, q), other);
+    }
+
+    /**
+     * Returns the position at which a respondent saw a question.
+     * @param r A row.
+     * @param q A question ordinal.
+     * @return The index of the question among those the respondent saw, or -1 if it was not seen.
+     */
+    public int getIndexSeen(int r, int q) {
+        return seen[q][r];
+    }
+
+    /**
+     * Returns the position at which the option a respondent selected was displayed.
+     * @param r A row.
+     * @param q A question ordinal.
+     * @return The display position, or -1 if it is not known or more than one option was selected.
+     */
+    public int getPosition(int r, int q) {
+        return positions[q][r];
+    }
+
+    /**
+     * Returns the answer a respondent gave in the other-answer slot of a question.
+     * @param r A row.
+     * @param q A question ordinal.
+     * @return The answer, or null if there is none.
+     */
+    public Component getOther(int r, int q) {
+        return others.isEmpty() ? null : others.get(key(r, q));
+    }
+
+    public String getSrid(int r) {
+        return srids[r];
+    }
+
+    public String getWorkerId(int r) {
+        return workerIds[r];
+    }
+
+    public KnownValidityStatus getKnownValidityStatus(int r) {
+        return validityStatuses[r];
+    }
+
+    /**
+     * Returns the set of top-level blocks each respondent traversed, i.e. the blocks of the questions they saw.
+     * @param graph The block graph of the survey answered.
+     * @return For each row, a bitset over block ordinals.
+     */
+    public long[][] getFootprints(BlockGraph graph) {
+        long[][] retval = new long[numRows][(graph.getNumBlocks() + 63) / 64];
+        for (int q = 0 ; q < numQuestions ; q++) {
+            int b = graph.getOrdinal(index.getQuestion(q).block);
+            if (b < 0)
+                continue;
+            short[] column = seen[q];
+            for (int r = 0 ; r < numRows ; r++)
+                if (column[r] >= 0)
+                    retval[r][b >>> 6] |= 1L << b;
+        }
+        return retval;
+    }
+
+    /**
+     * Sets the bit of every row that selected the input option.
+     * @param rows A bitset over rows.
+     */
+    void markSelectedBy(int q, int o, long[] rows) {
+        int[] column = answers[q];
+        for (int r = 0 ; r < numRows ; r++)
+            if (column[r] == o || (column[r] == MULTIPLE && isSelected(r, q, o)))
+                rows[r >>> 6] |= 1L << r;
+    }
+
+    /**
+     * Converts a row back to a survey response. Questions are ordered by the position they were seen at, and the
+     * options of a multiple answer by ordinal.
+     * @param r A row.
+     * @return A new response over this matrix's index.
+     */
+    public CompactSurveyResponse getResponse(final int r) {
+        Integer[] order = new Integer[numQuestions];
+        int numSeen = 0, numSelected = 0;
+        for (int q = 0 ; q < numQuestions ; q++) {
+            if (seen[q][r] >= 0) {
+                order[numSeen++] = q;
+                numSelected += getNumSelected(r, q);
+            }
+        }
+        Arrays.sort(order, 0, numSeen, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer q1, Integer q2) {
+                return seen[q1][r] - seen[q2][r];
+            }
+        });
+        int[] questions = new int[numSeen];
+        int[] offsets = new int[numSeen + 1];
+        int[] options = new int[numSelected];
+        int[] optionPositions = new int[numSelected];
+        Component[] otherAnswers = null;
+        int k = 0;
+        for (int i = 0 ; i < numSeen ; i++) {
+            int q = order[i];
+            questions[i] = q;
+            offsets[i] = k;
+            int n = getSelected(r, q, options, k);
+            Arrays.fill(optionPositions, k, k + n, -1);
+            if (n == 1)
+                optionPositions[k] = positions[q][r];
+            k += n;
+            Component other = getOther(r, q);
+            if (other != null) {
+                if (otherAnswers == null)
+                    otherAnswers = new Component[numSeen];
+                otherAnswers[i] = other;
+            }
+        }
+        offsets[numSeen] = k;
+        CompactSurveyResponse retval = new CompactSurveyResponse(index, questions, offsets, options, optionPositions,
+                otherAnswers);
+        retval.setSrid(srids[r]);
+        retval.setWorkerId(workerIds[r]);
+        retval.setKnownValidityStatus(validityStatuses[r]);
+        retval.setRecorded(true);
+        return retval;
+    }
+}
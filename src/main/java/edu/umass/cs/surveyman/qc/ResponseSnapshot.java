@@ -0,0 +1,373 @@
+package edu.umass.cs.surveyman.qc;
+
+import edu.umass.cs.surveyman.SurveyMan;
+import edu.umass.cs.surveyman.analyses.KnownValidityStatus;
+import edu.umass.cs.surveyman.analyses.ResultsLoader;
+import edu.umass.cs.surveyman.input.exceptions.SyntaxException;
+import edu.umass.cs.surveyman.survey.Component;
+import edu.umass.cs.surveyman.survey.HTMLComponent;
+import edu.umass.cs.surveyman.survey.StringComponent;
+import edu.umass.cs.surveyman.survey.exceptions.SurveyException;
+
+import java.io.*;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.*;
+
+/**
+ * Reads and writes a {@link ResponseMatrix} in a compact binary format, so that a response set can be reloaded for QC
+ * without parsing its results files again. Every integer is an unsigned LEB128 varint, and every string a varint
+ * length (plus one, with zero for null) followed by UTF-8 bytes. A snapshot holds, in order:
+ * <ol>
+ *     <li>the magic bytes {@code SMRS} and the format {@link #VERSION};</li>
+ *     <li>the {@link SurveyIndex#getFingerprint() fingerprint} of the index the matrix was built over;</li>
+ *     <li>the ordinal dictionary: the number of questions, then each question's id, number of options and option
+ *     ids, in ordinal order;</li>
+ *     <li>the distinct worker ids;</li>
+ *     <li>the number of rows, then every row's response id, every row's worker id ordinal (plus one, with zero for
+ *     null), and every row's {@link KnownValidityStatus} ordinal as a byte (plus one, with zero for null; version 1
+ *     wrote the ordinal alone and could not store null);</li>
+ *     <li>for each question: its seen column (plus one), its answer column (plus two, so that both sentinels are
+ *     non-negative), its display position column (plus one), and, for each row whose answer is
+ *     {@link ResponseMatrix#MULTIPLE}, the number of options selected followed by their ordinals;</li>
+ *     <li>the answers in the other-answer slots: their number, then each one's row, question ordinal, kind (0 for
+ *     text, 1 for HTML), data, and zigzag-encoded source row and column.</li>
+ * </ol>
+ *
+ * Snapshots are read through a memory-mapped buffer, and each column is decoded straight into the matrix's arrays. If
+ * the fingerprint differs from that of the reader's index (e.g. the survey was edited), ordinals are translated through
+ * the dictionary by id: questions that no longer exist are dropped, and options that no longer exist are moved to the
+ * other-answer slot.
+ */
+public class ResponseSnapshot {
+
+    /**
+     * The version of the format written by this class. Snapshots with a later version are rejected.
+     */
+    public static final int VERSION = 2;
+
+    private static final byte[] MAGIC = { 'S', 'M', 'R', 'S' };
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final int STRING_COMPONENT = 0;
+    private static final int HTML_COMPONENT = 1;
+
+    /**
+     * Returns true if the input file starts with the snapshot magic bytes.
+     * @param file A file.
+     * @return Whether the file looks like a response snapshot.
+     * @throws IOException
+     */
+    public static boolean isSnapshot(File file) throws IOException {
+        if (!file.isFile() || file.length() < MAGIC.length)
+            return false;
+        byte[] magic = new byte[MAGIC.length];
+        DataInputStream in = new DataInputStream(new FileInputStream(file));
+        try {
+            in.readFully(magic);
+        } finally {
+            in.close();
+        }
+        return Arrays.equals(magic, MAGIC);
+    }
+
+    /**
+     * Converts results files to a snapshot.
+     * @param index The ordinals of the survey the results are for.
+     * @param results A results file, or a directory of results files, in any format {@link ResultsLoader} reads.
+     * @param snapshot The file to write.
+     * @return The matrix that was written.
+     * @throws IOException if a results file could not be read, or the snapshot could not be written.
+     */
+    public static ResponseMatrix convert(SurveyIndex index, File results, File snapshot) throws IOException {
+        ResultsLoader loader = new ResultsLoader(index);
+        for (ResultsLoader.FileReport report : loader.load(results))
+            if (report.failure != null)
+                throw new IOException(String.format("Could not read %s: %s", report.file, report.failure));
+        ResponseMatrix responses = new ResponseMatrix(index, loader.getResponses());
+        write(responses, snapshot);
+        return responses;
+    }
+
+    public static void write(ResponseMatrix responses, File file) throws IOException {
+        OutputStream out = new BufferedOutputStream(new FileOutputStream(file), 1 << 16);
+        try {
+            write(responses, out);
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Writes a snapshot of the input matrix.
+     * @param responses A response matrix.
+     * @param out The stream to write to; it is not closed.
+     * @throws IOException
+     */
+    public static void write(ResponseMatrix responses, OutputStream out) throws IOException {
+        SurveyIndex index = responses.index;
+        int n = responses.size();
+        out.write(MAGIC);
+        writeVarint(out, VERSION);
+        out.write(index.getFingerprint());
+        writeVarint(out, index.getNumQuestions());
+        for (int q = 0 ; q < index.getNumQuestions() ; q++) {
+            writeString(out, index.getQuestion(q).quid);
+            writeVarint(out, index.getNumOptions(q));
+            for (int o = 0 ; o < index.getNumOptions(q) ; o++)
+                writeString(out, index.getOption(q, o).getCid());
+        }
+        Map<String, Integer> workers = new LinkedHashMap<String, Integer>();
+        int[] workerOrdinals = new int[n];
+        for (int r = 0 ; r < n ; r++) {
+            String workerId = responses.getWorkerId(r);
+            if (workerId == null)
+                continue;
+            Integer ordinal = workers.get(workerId);
+            if (ordinal == null) {
+                ordinal = workers.size();
+                workers.put(workerId, ordinal);
+            }
+            workerOrdinals[r] = ordinal + 1;
+        }
+        writeVarint(out, workers.size());
+        for (String workerId : workers.keySet())
+            writeString(out, workerId);
+        writeVarint(out, n);
+        for (int r = 0 ; r < n ; r++)
+            writeString(out, responses.getSrid(r));
+        for (int r = 0 ; r < n ; r++)
+            writeVarint(out, workerOrdinals[r]);
+        for (int r = 0 ; r < n ; r++)
+            out.write(encodeStatus(responses.getKnownValidityStatus(r)));
+        int[] selected = ResponseMatrix.selectionBuffer(index);
+        for (int q = 0 ; q < index.getNumQuestions() ; q++) {
+            short[] seen = responses.getSeenColumn(q);
+            int[] answers = responses.getColumn(q);
+            short[] positions = responses.getPositionColumn(q);
+            for (int r = 0 ; r < n ; r++)
+                writeVarint(out, seen[r] + 1);
+            for (int r = 0 ; r < n ; r++)
+                writeVarint(out, answers[r] + 2);
+            for (int r = 0 ; r < n ; r++)
+                writeVarint(out, positions[r] + 1);
+            for (int r = 0 ; r < n ; r++) {
+                if (answers[r] != ResponseMatrix.MULTIPLE)
+                    continue;
+                int numSelected = responses.getSelected(r, q, selected, 0);
+                writeVarint(out, numSelected);
+                for (int k = 0 ; k < numSelected ; k++)
+                    writeVarint(out, selected[k]);
+            }
+        }
+        Map<Long, Component> others = responses.getOthers();
+        writeVarint(out, others.size());
+        for (Map.Entry<Long, Component> e : others.entrySet()) {
+            long key = e.getKey();
+            Component c = e.getValue();
+            writeVarint(out, (int) (key / index.getNumQuestions()));
+            writeVarint(out, (int) (key % index.getNumQuestions()));
+            if (c instanceof HTMLComponent) {
+                writeVarint(out, HTML_COMPONENT);
+                writeString(out, ((HTMLComponent) c).data);
+            } else {
+                writeVarint(out, STRING_COMPONENT);
+                writeString(out, c instanceof StringComponent ? ((StringComponent) c).data : c.getCid());
+            }
+            writeVarint(out, zigzag(c.getSourceRow()));
+            writeVarint(out, zigzag(c.getSourceCol()));
+        }
+    }
+
+    /**
+     * Reads a snapshot file through a memory-mapped buffer.
+     * @param index The ordinals of the survey the responses are for.
+     * @param file A snapshot written by {@link #write}.
+     * @return The response matrix.
+     * @throws SurveyException if the file is not a snapshot, is truncated, or has an unsupported version.
+     * @throws IOException
+     */
+    public static ResponseMatrix read(SurveyIndex index, File file) throws SurveyException, IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            if (channel.size() > Integer.MAX_VALUE)
+                throw new IOException(String.format("%s is too large to map.", file));
+            return read(index, channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * Reads a snapshot from the current position of the input buffer.
+     * @param index The ordinals of the survey the responses are for.
+     * @param buffer A buffer holding a snapshot written by {@link #write}.
+     * @return The response matrix.
+     * @throws SurveyException if the buffer does not hold a snapshot, is truncated, or has an unsupported version.
+     */
+    public static ResponseMatrix read(SurveyIndex index, ByteBuffer buffer) throws SurveyException {
+        try {
+            return decode(index, buffer);
+        } catch (BufferUnderflowException e) {
+            throw new SyntaxException("Response snapshot is truncated.");
+        } catch (IndexOutOfBoundsException e) {
+            throw new SyntaxException(String.format("Response snapshot is corrupt: %s", e.getMessage()));
+        }
+    }
+
+    private static ResponseMatrix decode(SurveyIndex index, ByteBuffer buffer) throws SurveyException {
+        byte[] magic = new byte[MAGIC.length];
+        buffer.get(magic);
+        if (!Arrays.equals(magic, MAGIC))
+            throw new SyntaxException("Not a response snapshot.");
+        int version = readVarint(buffer);
+        if (version > VERSION)
+            throw new SyntaxException(String.format("Unsupported response snapshot version %d (expected at most %d).",
+                    version, VERSION));
+        byte[] fingerprint = new byte[index.getFingerprint().length];
+        buffer.get(fingerprint);
+        boolean sameOrdinals = Arrays.equals(fingerprint, index.getFingerprint());
+        // the ordinal dictionary: snapshot ordinals to index ordinals
+        int numQuestions = readVarint(buffer);
+        int[] questionMap = new int[numQuestions];
+        int[][] optionMap = new int[numQuestions][];
+        for (int sq = 0 ; sq < numQuestions ; sq++) {
+            int q = index.getQuestionOrdinal(readString(buffer));
+            questionMap[sq] = q;
+            int numOptions = readVarint(buffer);
+            optionMap[sq] = new int[numOptions + 1];
+            for (int so = 0 ; so < numOptions ; so++) {
+                String cid = readString(buffer);
+                optionMap[sq][so] = q < 0 ? -1 : index.getOptionOrdinal(q, cid);
+            }
+            optionMap[sq][numOptions] = q < 0 ? -1 : index.getOtherOrdinal(q);
+        }
+        if (!sameOrdinals)
+            SurveyMan.LOGGER.warn("Response snapshot was written for a different version of the survey; "
+                    + "translating ordinals by identifier.");
+        String[] workers = new String[readVarint(buffer)];
+        for (int w = 0 ; w < workers.length ; w++)
+            workers[w] = readString(buffer);
+        int n = readVarint(buffer);
+        String[] srids = new String[n];
+        for (int r = 0 ; r < n ; r++)
+            srids[r] = readString(buffer);
+        ResponseMatrix responses = new ResponseMatrix(index, n);
+        KnownValidityStatus[] statuses = KnownValidityStatus.values();
+        int[] workerOrdinals = new int[n];
+        for (int r = 0 ; r < n ; r++)
+            workerOrdinals[r] = readVarint(buffer);
+        for (int r = 0 ; r < n ; r++)
+            responses.addRow(srids[r], workerOrdinals[r] == 0 ? null : workers[workerOrdinals[r] - 1],
+                    decodeStatus(statuses, buffer.get(), version));
+        // columns of questions that are no longer in the survey are decoded into scratch space
+        short[] scratchSeen = null, scratchPositions = null;
+        int[] scratchAnswers = null;
+        for (int sq = 0 ; sq < numQuestions ; sq++) {
+            int q = questionMap[sq];
+            if (q < 0 && scratchSeen == null) {
+                scratchSeen = new short[n];
+                scratchPositions = new short[n];
+                scratchAnswers = new int[n];
+            }
+            short[] seen = q < 0 ? scratchSeen : responses.getSeenColumn(q);
+            int[] answers = q < 0 ? scratchAnswers : responses.getColumn(q);
+            short[] positions = q < 0 ? scratchPositions : responses.getPositionColumn(q);
+            int[] options = optionMap[sq];
+            for (int r = 0 ; r < n ; r++)
+                seen[r] = (short) (readVarint(buffer) - 1);
+            for (int r = 0 ; r < n ; r++) {
+                int o = readVarint(buffer) - 2;
+                answers[r] = o < 0 || sameOrdinals ? o : options[o];
+            }
+            for (int r = 0 ; r < n ; r++)
+                positions[r] = (short) (readVarint(buffer) - 1);
+            for (int r = 0 ; r < n ; r++) {
+                if (answers[r] != ResponseMatrix.MULTIPLE)
+                    continue;
+                int numSelected = readVarint(buffer);
+                for (int k = 0 ; k < numSelected ; k++) {
+                    int o = readVarint(buffer);
+                    if (q >= 0)
+                        responses.select(r, q, sameOrdinals ? o : options[o], -1);
+                }
+            }
+        }
+        int numOthers = readVarint(buffer);
+        for (int i = 0 ; i < numOthers ; i++) {
+            int r = readVarint(buffer);
+            int q = questionMap[readVarint(buffer)];
+            int kind = readVarint(buffer);
+            String data = readString(buffer);
+            int row = unzigzag(readVarint(buffer));
+            int col = unzigzag(readVarint(buffer));
+            if (q >= 0)
+                responses.setOther(r, q, kind == HTML_COMPONENT ?
+                        new HTMLComponent(data, row, col) : new StringComponent(data, row, col));
+        }
+        return responses;
+    }
+
+    static void writeVarint(OutputStream out, int value) throws IOException {
+        while ((value & ~0x7f) != 0) {
+            out.write((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    static int readVarint(ByteBuffer buffer) throws SyntaxException {
+        int value = 0;
+        for (int shift = 0 ; shift < 35 ; shift += 7) {
+            byte b = buffer.get();
+            value |= (b & 0x7f) << shift;
+            if (b >= 0)
+                return value;
+        }
+        throw new SyntaxException("Response snapshot has a malformed varint.");
+    }
+
+    private static int encodeStatus(KnownValidityStatus status) {
+        return status == null ? 0 : status.ordinal() + 1;
+    }
+
+    private static KnownValidityStatus decodeStatus(KnownValidityStatus[] statuses, byte b, int version)
+            throws SyntaxException {
+        int ordinal = version == 1 ? b : b - 1;
+        if (ordinal >= statuses.length || ordinal < (version == 1 ? 0 : -1))
+            throw new SyntaxException(String.format("Response snapshot has an unknown validity status %d.", b));
+        return ordinal < 0 ? null : statuses[ordinal];
+    }
+
+    private static int zigzag(int value) {
+        return (value << 1) ^ (value >> 31);
+    }
+
+    private static int unzigzag(int value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private static void writeString(OutputStream out, String s) throws IOException {
+        if (s == null) {
+            writeVarint(out, 0);
+            return;
+        }
+        byte[] bytes = s.getBytes(UTF8);
+        writeVarint(out, bytes.length + 1);
+        out.write(bytes);
+    }
+
+    private static String readString(ByteBuffer buffer) throws SyntaxException {
+        int length = readVarint(buffer) - 1;
+        if (length < 0)
+            return null;
+        if (length > buffer.remaining())
+            throw new BufferUnderflowException();
+        ByteBuffer bytes = buffer.duplicate();
+        bytes.limit(buffer.position() + length);
+        buffer.position(buffer.position() + length);
+        return UTF8.decode(bytes).toString();
+    }
+}
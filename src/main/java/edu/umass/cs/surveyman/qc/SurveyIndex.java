@@ -0,0 +1,182 @@
+package edu.umass.cs.surveyman.qc;
+
+import edu.umass.cs.surveyman.survey.Component;
+import edu.umass.cs.surveyman.survey.Question;
+import edu.umass.cs.surveyman.survey.Survey;
+
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+
+/**
+ * Assigns dense ordinals to the questions and answer options of a survey, so that per-question and per-option data can
+ * be stored in primitive arrays. Questions are numbered in the order they appear in {@link Survey#questions}; the
+ * options of each question are numbered by source location. Every question also gets one extra option ordinal, equal to
+ * its number of options, for answers that are not among its options (freetext and custom answers).
+ *
+ * The index is a snapshot: if questions or options are added to the survey, a new index must be built.
+ */
+public class SurveyIndex {
+
+    public final Survey survey;
+    private final Question[] questions;
+    private final Component[][] options;
+    private final Map<String, Integer> questionOrdinals = new HashMap<String, Integer>();
+    private final List<Map<String, Integer>> optionOrdinals = new ArrayList<Map<String, Integer>>();
+    private volatile byte[] fingerprint;
+
+    public SurveyIndex(Survey survey) {
+        this.survey = survey;
+        this.questions = survey.questions.toArray(new Question[survey.questions.size()]);
+        this.options = new Component[questions.length][];
+        for (int i = 0 ; i < questions.length ; i++) {
+            Question q = questions[i];
+            questionOrdinals.put(q.quid, i);
+            Component[] opts = q.options.values().toArray(new Component[q.options.size()]);
+            Arrays.sort(opts, new Comparator<Component>() {
+                @Override
+                public int compare(Component c1, Component c2) {
+                    if (c1.getSourceRow() != c2.getSourceRow())
+                        return c1.getSourceRow() < c2.getSourceRow() ? -1 : 1;
+                    if (c1.getSourceCol() != c2.getSourceCol())
+                        return c1.getSourceCol() < c2.getSourceCol() ? -1 : 1;
+                    return 0;
+                }
+            });
+            Map<String, Integer> ordinals = new HashMap<String, Integer>();
+            for (int j = 0 ; j < opts.length ; j++)
+                ordinals.put(opts[j].getCid(), j);
+            options[i] = opts;
+            optionOrdinals.add(ordinals);
+        }
+    }
+
+    /**
+     * Returns a digest of the question and option identifiers in ordinal order. Two indices with the same fingerprint
+     * assign the same ordinals to the same identifiers, so data stored by ordinal under one can be read under the other.
+     * @return A SHA-256 digest.
+     */
+    public byte[] getFingerprint() {
+        return fingerprint().clone();
+    }
+
+    /**
+     * Returns true if data stored by ordinal under the input index can be read under this one without translation,
+     * i.e. both indices have the same {@link #getFingerprint() fingerprint}. Indices built over the same survey at
+     * different times differ if questions or options were added in between.
+     * @param other A survey index.
+     * @return Whether the two indices assign the same ordinals.
+     */
+    public boolean hasSameOrdinals(SurveyIndex other) {
+        return this == other || Arrays.equals(fingerprint(), other.fingerprint());
+    }
+
+    private byte[] fingerprint() {
+        // the index never changes, so the digest is computed once; racing threads compute equal digests
+        if (fingerprint == null)
+            fingerprint = digest();
+        return fingerprint;
+    }
+
+    private byte[] digest() {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            for (int q = 0 ; q < questions.length ; q++) {
+                digest.update(questions[q].quid.getBytes("UTF-8"));
+                digest.update((byte) 0);
+                for (Component c : options[q]) {
+                    digest.update(c.getCid().getBytes("UTF-8"));
+                    digest.update((byte) 0);
+                }
+                digest.update((byte) 1);
+            }
+            return digest.digest();
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        } catch (UnsupportedEncodingException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Returns the number of questions in the index.
+     * @return The number of question ordinals.
+     */
+    public int getNumQuestions() {
+        return questions.length;
+    }
+
+    /**
+     * Returns the number of answer options for the question with the input ordinal, not counting the extra slot for
+     * other answers.
+     * @param q A question ordinal.
+     * @return The number of options.
+     */
+    public int getNumOptions(int q) {
+        return options[q].length;
+    }
+
+    /**
+     * Returns the option ordinal reserved for answers that are not among the question's options.
+     * @param q A question ordinal.
+     * @return The ordinal of the other-answer slot.
+     */
+    public int getOtherOrdinal(int q) {
+        return options[q].length;
+    }
+
+    public Question getQuestion(int q) {
+        return questions[q];
+    }
+
+    /**
+     * Returns the answer option for the input ordinals.
+     * @param q A question ordinal.
+     * @param o An option ordinal.
+     * @return The option, or {@code null} for the other-answer slot.
+     */
+    public Component getOption(int q, int o) {
+        return o < options[q].length ? options[q][o] : null;
+    }
+
+    /**
+     * Returns the ordinal of the input question.
+     * @param q A question.
+     * @return The question's ordinal, or -1 if the question is not part of the indexed survey.
+     */
+    public int getQuestionOrdinal(Question q) {
+        return getQuestionOrdinal(q.quid);
+    }
+
+    /**
+     * Returns the ordinal of the question with the input identifier.
+     * @param quid A question identifier.
+     * @return The question's ordinal, or -1 if the question is not part of the indexed survey.
+     */
+    public int getQuestionOrdinal(String quid) {
+        Integer ordinal = questionOrdinals.get(quid);
+        return ordinal == null ? -1 : ordinal;
+    }
+
+    /**
+     * Returns the ordinal of the input answer option.
+     * @param q The ordinal of the question answered.
+     * @param c The answer option.
+     * @return The option's ordinal, or the other-answer ordinal if the option does not belong to the question.
+     */
+    public int getOptionOrdinal(int q, Component c) {
+        return c == null ? getOtherOrdinal(q) : getOptionOrdinal(q, c.getCid());
+    }
+
+    /**
+     * Returns the ordinal of the answer option with the input identifier.
+     * @param q The ordinal of the question answered.
+     * @param cid An answer option identifier.
+     * @return The option's ordinal, or the other-answer ordinal if the option does not belong to the question.
+     */
+    public int getOptionOrdinal(int q, String cid) {
+        Integer ordinal = optionOrdinals.get(q).get(cid);
+        return ordinal == null ? getOtherOrdinal(q) : ordinal;
+    }
+}
@@ -487,6 +487,17 @@ public class Block extends SurveyObj implements Comparable {
      * @return A shuffled Block array.
      */
     public static Block[] shuffle(List<Block> blockList) {
+        return shuffle(blockList, new Random());
+    }
+
+    /**
+     * Places the floating blocks of the input list at random positions, and the stationary blocks at the remaining
+     * positions in sorted order.
+     * @param blockList The blocks to order, typically the top-level blocks of a survey.
+     * @param rng The source of randomness.
+     * @return The blocks in the order they should be executed.
+     */
+    public static Block[] shuffle(List<Block> blockList, Random rng) {
 
         Block[] retval = new Block[blockList.size()];
         List<Block> floating = new ArrayList<Block>();
@@ -500,9 +511,9 @@ public class Block extends SurveyObj implements Comparable {
         for (int i = 0 ; i < retval.length ; i++)
             indices.add(i);
 
-        Collections.shuffle(floating);
+        Collections.shuffle(floating, rng);
         Collections.sort(normal);
-        Collections.shuffle(indices);
+        Collections.shuffle(indices, rng);
 
         List<Integer> indexList1 = indices.subList(0, floating.size());
         List<Integer> indexList2 = indices.subList(floating.size(), blockList.size());
@@ -1,11 +1,13 @@
 package edu.umass.cs.surveyman.utils;
 
+import java.util.concurrent.atomic.AtomicInteger;
+
 /**
  * Internal identifier generator.
  */
 public class Gensym {
 
-    private static int counter = 0;
+    private static final AtomicInteger counter = new AtomicInteger();
     private final String prefix;
 
     public Gensym (String prefix) {
@@ -17,7 +19,6 @@ public class Gensym {
     }
 
     public String next() {
-        counter += 1;
-        return prefix + counter;
+        return prefix + counter.incrementAndGet();
     }
 }
\ No newline at end of file
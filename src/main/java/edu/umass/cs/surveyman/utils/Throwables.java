@@ -0,0 +1,23 @@
+package edu.umass.cs.surveyman.utils;
+
+/**
+ * Throwables.findCause recovers checked exceptions from the unchecked wrappers thrown by thread pools.
+ */
+public class Throwables {
+
+    /**
+     * Returns the first throwable of the given type in the cause chain of t, starting with t itself. Fork/join pools
+     * may wrap a task's exception more than once before rethrowing it on the caller's thread, so the whole chain is
+     * searched.
+     * @param t The throwable to search.
+     * @param type The type of cause to find.
+     * @param <T> The type of cause to find.
+     * @return The first matching throwable in the chain, or null if there is none.
+     */
+    public static <T extends Throwable> T findCause(Throwable t, Class<T> type) {
+        for (Throwable cause = t ; cause != null ; cause = cause.getCause())
+            if (type.isInstance(cause))
+                return type.cast(cause);
+        return null;
+    }
+}
@@ -1,11 +1,24 @@
 package edu.umass.cs.surveyman;
 
+import edu.umass.cs.surveyman.analyses.ISurveyResponse;
+import edu.umass.cs.surveyman.input.csv.CSVLexer;
+import edu.umass.cs.surveyman.input.csv.CSVParser;
 import edu.umass.cs.surveyman.input.exceptions.SyntaxException;
+import edu.umass.cs.surveyman.qc.AbstractRespondent;
+import edu.umass.cs.surveyman.qc.CompiledSurvey;
+import edu.umass.cs.surveyman.qc.NonRandomRespondent;
+import edu.umass.cs.surveyman.qc.RandomRespondent;
+import edu.umass.cs.surveyman.survey.Survey;
+import edu.umass.cs.surveyman.survey.exceptions.SurveyException;
 import org.apache.logging.log4j.Logger;
 import org.apache.logging.log4j.LogManager;
 import edu.umass.cs.surveyman.utils.Slurpie;
 
 import java.io.IOException;
+import java.io.StringReader;
+import java.lang.reflect.InvocationTargetException;
+import java.util.ArrayList;
+import java.util.List;
 
 public class TestLog {
 
@@ -35,4 +48,68 @@ public class TestLog {
 
     public void init(Class cls){
     }
+
+    /**
+     * Parses a survey from CSV text. The lexer's reflection exceptions would mean a bug in the lexer rather than in the
+     * input, so they are rethrown unchecked and tests only declare the exceptions a survey can actually raise.
+     * @param csv The contents of a comma-separated survey file.
+     * @return The parsed survey.
+     */
+    protected static Survey parseSurvey(String csv) throws SurveyException, IOException {
+        try {
+            return new CSVParser(new CSVLexer(new StringReader(csv))).parse();
+        } catch (NoSuchMethodException e) {
+            throw new RuntimeException(e);
+        } catch (IllegalAccessException e) {
+            throw new RuntimeException(e);
+        } catch (InvocationTargetException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Parses a comma-separated survey file, as {@link #parseSurvey(String)} does for text.
+     * @param filename The path to the survey file.
+     * @return The parsed survey.
+     */
+    protected static Survey parseSurveyFile(String filename) throws SurveyException, IOException {
+        try {
+            return new CSVParser(new CSVLexer(filename, ",")).parse();
+        } catch (NoSuchMethodException e) {
+            throw new RuntimeException(e);
+        } catch (IllegalAccessException e) {
+            throw new RuntimeException(e);
+        } catch (InvocationTargetException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * @return A survey of four unbranched questions with three options each.
+     */
+    protected static Survey makeFlatSurvey() throws SurveyException, IOException {
+        return parseSurvey(
+                "question,options\n" +
+                "q1,a\n,b\n,c\n" +
+                "q2,a\n,b\n,c\n" +
+                "q3,a\n,b\n,c\n" +
+                "q4,a\n,b\n,c");
+    }
+
+    /**
+     * Simulates responses that alternate between one fixed profile and uniformly random respondents.
+     * @param survey The survey to answer.
+     * @param n The number of responses of each kind.
+     * @return The 2n responses, starting with the profile's.
+     */
+    protected static List<ISurveyResponse> simulateResponses(Survey survey, int n) throws SurveyException {
+        List<ISurveyResponse> responses = new ArrayList<ISurveyResponse>();
+        CompiledSurvey plan = new CompiledSurvey(survey);
+        AbstractRespondent profile = new NonRandomRespondent(plan);
+        for (int i = 0 ; i < n ; i++) {
+            responses.add(profile.getResponse());
+            responses.add(new RandomRespondent(plan, RandomRespondent.AdversaryType.UNIFORM).getResponse());
+        }
+        return responses;
+    }
 }
@@ -0,0 +1,80 @@
+package edu.umass.cs.surveyman.analyses;
+
+import edu.umass.cs.surveyman.TestLog;
+import edu.umass.cs.surveyman.input.exceptions.SyntaxException;
+import edu.umass.cs.surveyman.qc.SurveyIndex;
+import edu.umass.cs.surveyman.survey.Survey;
+import edu.umass.cs.surveyman.survey.exceptions.SurveyException;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+@RunWith(JUnit4.class)
+public class ParallelResultsReaderTest extends TestLog {
+
+    public ParallelResultsReaderTest() throws IOException, SyntaxException {
+        super.init(this.getClass());
+    }
+
+    @Test
+    public void testParallelResultsReader() throws SurveyException, IOException {
+        Survey survey1 = parseSurveyFile("data/samples/wage_survey.csv");
+        SurveyIndex index = new SurveyIndex(survey1);
+        String results = "data/results/wage_survey_results.csv";
+        Map<String, List<IQuestionResponse>> expected = new HashMap<String, List<IQuestionResponse>>();
+        ResultsReader reader = new ResultsReader(index, new FileReader(results));
+        while (reader.hasNext()) {
+            ISurveyResponse sr = reader.next();
+            expected.put(sr.getSrid(), sr.getResponses());
+        }
+        reader.close();
+        // small chunks cut through quoted fields and through responses
+        ParallelResultsReader parallelReader = new ParallelResultsReader(index, 1000);
+        List<ISurveyResponse> responses = parallelReader.read(new File(results));
+        assert parallelReader.getRowsRead() == reader.getRowsRead();
+        assert responses.size() == expected.size();
+        for (ISurveyResponse sr : responses) {
+            List<IQuestionResponse> qrs = expected.get(sr.getSrid());
+            assert qrs.size() == sr.getResponses().size();
+            for (int i = 0 ; i < qrs.size() ; i++) {
+                assert qrs.get(i).getQuestion() == sr.getResponses().get(i).getQuestion();
+                assert qrs.get(i).getOpts().size() == sr.getResponses().get(i).getOpts().size();
+                for (int k = 0 ; k < qrs.get(i).getOpts().size() ; k++)
+                    assert qrs.get(i).getOpts().get(k).c.equals(sr.getResponses().get(i).getOpts().get(k).c);
+            }
+        }
+        // rows without a response id are grouped, as ResultsReader does, rather than counted as malformed
+        File anonymous = File.createTempFile("anonymous", ".csv");
+        anonymous.deleteOnExit();
+        BufferedReader in = new BufferedReader(new FileReader(results));
+        PrintWriter out = new PrintWriter(anonymous, "UTF-8");
+        for (String line = in.readLine() ; line != null ; line = in.readLine())
+            out.println(line.startsWith("sr1,") ? line.substring(3) : line);
+        in.close();
+        out.close();
+        reader = new ResultsReader(index, new FileReader(anonymous));
+        int sequentialQuestions = -1;
+        while (reader.hasNext()) {
+            ISurveyResponse sr = reader.next();
+            if (sr.getSrid() == null)
+                sequentialQuestions = sr.getResponses().size();
+        }
+        reader.close();
+        int parallelQuestions = -1;
+        for (ISurveyResponse sr : parallelReader.read(anonymous))
+            if (sr.getSrid() == null)
+                parallelQuestions = sr.getResponses().size();
+        assert sequentialQuestions == expected.get("sr1").size();
+        assert parallelQuestions == sequentialQuestions;
+        assert parallelReader.getRowsMalformed() == reader.getRowsMalformed();
+    }
+}
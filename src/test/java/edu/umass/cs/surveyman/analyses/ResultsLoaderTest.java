@@ -0,0 +1,46 @@
+package edu.umass.cs.surveyman.analyses;
+
+import edu.umass.cs.surveyman.TestLog;
+import edu.umass.cs.surveyman.input.exceptions.SyntaxException;
+import edu.umass.cs.surveyman.qc.Classifier;
+import edu.umass.cs.surveyman.qc.QCMetrics;
+import edu.umass.cs.surveyman.survey.Survey;
+import edu.umass.cs.surveyman.survey.exceptions.SurveyException;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+@RunWith(JUnit4.class)
+public class ResultsLoaderTest extends TestLog {
+
+    public ResultsLoaderTest() throws IOException, SyntaxException {
+        super.init(this.getClass());
+    }
+
+    @Test
+    public void testResultsLoader() throws SurveyException, IOException {
+        Survey survey1 = parseSurveyFile("data/samples/Ipierotis.csv");
+        ResultsLoader loader = new ResultsLoader(survey1);
+        File directory = new File("data/responses/ipierotis");
+        List<ResultsLoader.FileReport> reports = loader.load(directory, "HITResultsFor*.csv");
+        assert reports.size() == directory.list().length;
+        int responses = 0;
+        for (ResultsLoader.FileReport report : reports) {
+            assert report.failure == null : report;
+            responses += report.responses - report.duplicates;
+        }
+        assert responses > 0 && responses == loader.getResponses().size();
+        for (ISurveyResponse sr : loader.getResponses())
+            assert !sr.getResponses().isEmpty() && !sr.workerId().equals(sr.getSrid());
+        // loading the same files again only finds duplicates
+        for (ResultsLoader.FileReport report : loader.load(directory))
+            assert report.duplicates == report.responses;
+        assert loader.getResponses().size() == responses;
+        assert QCMetrics.classifyAll(survey1, loader.getResponses(), Classifier.LOG_LIKELIHOOD, false, 0.05).size()
+                == responses;
+    }
+}
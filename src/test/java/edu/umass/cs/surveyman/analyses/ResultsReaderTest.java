@@ -0,0 +1,52 @@
+package edu.umass.cs.surveyman.analyses;
+
+import edu.umass.cs.surveyman.TestLog;
+import edu.umass.cs.surveyman.input.exceptions.SyntaxException;
+import edu.umass.cs.surveyman.qc.Classifier;
+import edu.umass.cs.surveyman.qc.CompactSurveyResponse;
+import edu.umass.cs.surveyman.qc.QCMetrics;
+import edu.umass.cs.surveyman.qc.SurveyIndex;
+import edu.umass.cs.surveyman.survey.Survey;
+import edu.umass.cs.surveyman.survey.exceptions.SurveyException;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+@RunWith(JUnit4.class)
+public class ResultsReaderTest extends TestLog {
+
+    public ResultsReaderTest() throws IOException, SyntaxException {
+        super.init(this.getClass());
+    }
+
+    @Test
+    public void testResultsReader() throws SurveyException, IOException {
+        Survey survey1 = parseSurveyFile("data/samples/prototypicality.csv");
+        SurveyIndex index = new SurveyIndex(survey1);
+        ResultsReader reader = new ResultsReader(index, new FileReader("data/results/prototypicality_results.csv"));
+        Set<String> srids = new HashSet<String>();
+        int answers = 0;
+        while (reader.hasNext()) {
+            CompactSurveyResponse sr = (CompactSurveyResponse) reader.next();
+            assert srids.add(sr.getSrid()) : String.format("Response %s was split", sr.getSrid());
+            assert sr.size() > 0 && sr.workerId() != null;
+            for (int i = 0 ; i < sr.size() ; i++)
+                answers += sr.getNumSelected(i);
+        }
+        reader.close();
+        assert !srids.isEmpty();
+        assert answers == reader.getRowsRead() - reader.getRowsIgnored() - reader.getRowsMalformed();
+        List<ISurveyResponse> responses = new CompactSurveyResponse(index, new int[0], new int[]{ 0 }, new int[0],
+                new int[0], null).readSurveyResponses(survey1,
+                new FileReader("data/results/prototypicality_results.csv"));
+        assert responses.size() == srids.size();
+        assert QCMetrics.classifyAll(survey1, responses, Classifier.LOG_LIKELIHOOD, false, 0.05).size()
+                == responses.size();
+    }
+}
@@ -1,7 +1,11 @@
 package edu.umass.cs.surveyman.qc;
 
 import edu.umass.cs.surveyman.TestLog;
+import edu.umass.cs.surveyman.analyses.IQuestionResponse;
 import edu.umass.cs.surveyman.analyses.ISurveyResponse;
+import edu.umass.cs.surveyman.analyses.KnownValidityStatus;
+import edu.umass.cs.surveyman.analyses.OptTuple;
+import edu.umass.cs.surveyman.analyses.Simulation;
 import edu.umass.cs.surveyman.analyses.StaticAnalysis;
 import edu.umass.cs.surveyman.input.exceptions.SyntaxException;
 import edu.umass.cs.surveyman.survey.*;
@@ -11,8 +15,9 @@ import org.junit.runner.RunWith;
 import org.junit.runners.JUnit4;
 
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.List;
+import java.math.BigInteger;
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
 
 @RunWith(JUnit4.class)
 public class MetricsTest extends TestLog {
@@ -98,8 +103,10 @@ public class MetricsTest extends TestLog {
 
     @Test
     public void testGetPaths() {
-        List<List<Block>> paths = QCMetrics.getPaths(survey);
-        assert paths.size() == 3 : "Expected 3 paths; got " + paths.size();
+        int n = 0;
+        for (BlockPath ignored : QCMetrics.getDistinctPaths(survey))
+            n++;
+        assert n == 3 : "Expected 3 paths; got " + n;
     }
 
     @Test
@@ -116,11 +123,469 @@ public class MetricsTest extends TestLog {
 
     }
 
+    @Test
+    public void testBlockGraphMatchesEnumeration() throws SurveyException, IOException {
+        Survey pathSurvey = parseSurveyFile("data/tests/pathTest.csv");
+        int min = Integer.MAX_VALUE, max = Integer.MIN_VALUE;
+        double maxEnt = 0.0;
+        for (BlockPath path : QCMetrics.getDistinctPaths(pathSurvey)) {
+            List<Question> questions = QCMetrics.getQuestions(path.getBlocks());
+            min = Math.min(min, questions.size());
+            max = Math.max(max, questions.size());
+            double ent = 0.0;
+            for (Question q : questions)
+                ent += QCMetrics.maxEntropyOneQuestion(q);
+            maxEnt = Math.max(maxEnt, ent);
+        }
+        BlockGraph graph = new BlockGraph(pathSurvey);
+        assert graph.minimumPathLength() == min : String.format("Expected min path %d; got %d", min, graph.minimumPathLength());
+        assert graph.maximumPathLength() == max : String.format("Expected max path %d; got %d", max, graph.maximumPathLength());
+        assert graph.getMaxPossibleEntropy() == maxEnt :
+                String.format("Expected max entropy %f; got %f", maxEnt, graph.getMaxPossibleEntropy());
+    }
+
+    @Test
+    public void testDistinctPaths() throws SurveyException, IOException {
+        Survey pathSurvey = parseSurveyFile("data/tests/pathTest.csv");
+        Set<Set<Block>> lazy = new HashSet<Set<Block>>();
+        int n = 0;
+        for (BlockPath path : QCMetrics.getDistinctPaths(pathSurvey)) {
+            lazy.add(new HashSet<Block>(path.getBlocks()));
+            n++;
+        }
+        // enumerate the DAG through the fixed blocks and add the floating blocks to each path
+        Map<Boolean, List<Block>> partitionedBlocks = Interpreter.partitionBlocks(pathSurvey);
+        Set<Set<Block>> enumerated = new HashSet<Set<Block>>();
+        for (List<Block> path : QCMetrics.getDag(new ArrayList<Block>(partitionedBlocks.get(false)))) {
+            Set<Block> blocks = new HashSet<Block>(path);
+            blocks.addAll(partitionedBlocks.get(true));
+            enumerated.add(blocks);
+        }
+        assert lazy.equals(enumerated);
+        assert n == lazy.size() : "Expected distinct paths";
+        assert QCMetrics.countPaths(pathSurvey).intValue() == n;
+    }
+
+    @Test
+    public void testFastInterpreter() throws SurveyException, IOException {
+        Survey pathSurvey = parseSurveyFile("data/tests/pathTest.csv");
+        Set<Set<Block>> paths = new HashSet<Set<Block>>();
+        for (BlockPath path : QCMetrics.getDistinctPaths(pathSurvey))
+            paths.add(new HashSet<Block>(path.getBlocks()));
+        CompiledSurvey plan = new CompiledSurvey(pathSurvey);
+        for (int i = 0 ; i < 100 ; i++) {
+            ISurveyResponse sr = new RandomRespondent(plan, RandomRespondent.AdversaryType.UNIFORM).getResponse();
+            Set<Block> blocks = new HashSet<Block>();
+            Set<String> quids = new HashSet<String>();
+            for (IQuestionResponse qr : sr.getResponses()) {
+                Block top = qr.getQuestion().block;
+                while (top.parentBlock != null)
+                    top = top.parentBlock;
+                blocks.add(top);
+                assert quids.add(qr.getQuestion().quid) : "Question asked twice: " + qr.getQuestion().quid;
+            }
+            assert paths.contains(blocks) : "Response took an impossible path: " + blocks;
+        }
+        // a reused interpreter reset to a source runs as a new interpreter over that source would
+        FastInterpreter reused = new FastInterpreter(plan, new Random(0));
+        for (int i = 0 ; i < 20 ; i++) {
+            FastInterpreter fresh = new FastInterpreter(plan, new Random(i));
+            reused.reset(new Random(i));
+            do {
+                int q = fresh.nextQuestion();
+                assert reused.nextQuestion() == q;
+                if (fresh.getNumDisplayed() > 0) {
+                    fresh.answer(fresh.getDisplayedOption(0));
+                    reused.answer(reused.getDisplayedOption(0));
+                }
+            } while (!fresh.terminated());
+            assert reused.terminated();
+            List<IQuestionResponse> expected = fresh.getResponse().getResponses();
+            List<IQuestionResponse> actual = reused.getResponse().getResponses();
+            assert expected.size() == actual.size();
+            for (int j = 0 ; j < expected.size() ; j++)
+                assert expected.get(j).getOpts().equals(actual.get(j).getOpts());
+        }
+    }
+
+    @Test
+    public void testBlockGraphManyBranches() throws SurveyException, IOException {
+        // each block branches to one of the next two blocks, giving exponentially many paths
+        int n = 60;
+        StringBuilder csv = new StringBuilder("block,question,options,branch\n");
+        for (int i = 1 ; i <= n ; i++) {
+            if (i < n - 1)
+                csv.append(String.format("%d,q%d,a,%d\n,,b,%d\n", i, i, i + 1, i + 2));
+            else csv.append(String.format("%d,q%d,a,\n", i, i));
+        }
+        Survey chain = parseSurvey(csv.toString());
+        BlockGraph graph = new BlockGraph(chain);
+        // the number of paths follows the Fibonacci sequence
+        assert graph.countPaths().equals(new BigInteger("1548008755920")) : "Got " + graph.countPaths() + " paths";
+        assert graph.maximumPathLength() == n : "Expected max path " + n + "; got " + graph.maximumPathLength();
+        assert graph.minimumPathLength() == n / 2 + 1 :
+                "Expected min path " + (n / 2 + 1) + "; got " + graph.minimumPathLength();
+    }
+
+    @Test
+    public void testAveragePathLength() throws SurveyException, IOException {
+        // a goes straight to block 3 (2 questions); b goes through block 2 (4 questions)
+        Survey branching = parseSurvey(
+                "block,question,options,branch\n" +
+                "1,q1,a,3\n,,b,2\n" +
+                "2,q2,c,\n2,q3,c,\n" +
+                "3,q4,c,\n");
+        assert PathLengthAnalysis.isAnalyzable(branching);
+        double exact = QCMetrics.averagePathLength(branching);
+        assert exact == 3.0 : "Expected average path length of 3; got " + exact;
+        double sampled = PathLengthAnalysis.sampledPathLength(branching, 0.05, 0.95);
+        assert Math.abs(sampled - exact) < 0.25 : String.format("Sampled %f; expected %f", sampled, exact);
+        // each chunk of a batch has its own stream, so the estimate does not depend on the number of threads
+        ForkJoinPool single = new ForkJoinPool(1);
+        try {
+            assert PathLengthAnalysis.sampledPathLength(branching, 0.05, 0.95, new RandomSource(7L), single)
+                    == PathLengthAnalysis.sampledPathLength(branching, 0.05, 0.95, new RandomSource(7L),
+                    ForkJoinPool.commonPool());
+        } finally {
+            single.shutdown();
+        }
+    }
+
+    @Test
+    public void testPathLengthOfAllBlocks() throws SurveyException, IOException {
+        Survey survey1 = parseSurvey(
+                "block,question,options\n" +
+                "1,q1,a\n1,q2,a\n1,q3,a\n" +
+                "2,q4,a\n2.1,q5,a\n2.1,q6,a\n");
+        List<Block> topLevel = new ArrayList<Block>(survey1.topLevelBlocks);
+        Collections.sort(topLevel, BlockGraph.BLOCK_ORDER);
+        // a top-level ALL block asks every question; a nested one asks one of its questions
+        topLevel.get(0).branchParadigm = Block.BranchParadigm.ALL;
+        topLevel.get(1).subBlocks.get(0).branchParadigm = Block.BranchParadigm.ALL;
+        assert QCMetrics.minimumPathLength(survey1) == 5 : "Got min " + QCMetrics.minimumPathLength(survey1);
+        assert QCMetrics.maximumPathLength(survey1) == 5 : "Got max " + QCMetrics.maximumPathLength(survey1);
+        assert QCMetrics.averagePathLength(survey1) == 5.0 : "Got average " + QCMetrics.averagePathLength(survey1);
+        CompiledSurvey plan = new CompiledSurvey(survey1);
+        for (int i = 0 ; i < 20 ; i++) {
+            ISurveyResponse sr = new RandomRespondent(plan, RandomRespondent.AdversaryType.UNIFORM).getResponse();
+            assert sr.getResponses().size() == 5 : "Interpreter asked " + sr.getResponses().size() + " questions";
+        }
+    }
+
     @Test
     public void testTruncateResponses(){
         //TODO(etosch): write this
     }
 
+    @Test
+    public void testClassifyAll() throws SurveyException, IOException {
+        Survey survey1 = makeFlatSurvey();
+        List<ISurveyResponse> responses = simulateResponses(survey1, 20);
+        Map<String, Map<String, Double>> probabilities = QCMetrics.makeProbabilities(QCMetrics.makeFrequencies(responses));
+        List<Classification> classifications = QCMetrics.classifyAll(survey1, responses, Classifier.LOG_LIKELIHOOD, false, 0.05);
+        assert classifications.size() == responses.size();
+        for (int i = 0 ; i < responses.size() ; i++) {
+            Classification c = classifications.get(i);
+            assert c.surveyResponse == responses.get(i);
+            assert c.score == QCMetrics.getLLForResponse(responses.get(i), probabilities) :
+                    String.format("Expected batch score %f to equal single-response score", c.score);
+        }
+    }
+
+    @Test
+    public void testLeaveOneOutClassification() throws SurveyException, IOException {
+        Survey survey1 = makeFlatSurvey();
+        SurveyIndex index = new SurveyIndex(survey1);
+        List<ISurveyResponse> responses = simulateResponses(survey1, 10);
+        double[] scores = QCMetrics.calculateLeaveOneOutScores(responses,
+                FrequencyTable.makeFrequencyTable(index, responses, false));
+        for (int i = 0 ; i < responses.size() ; i++) {
+            // rebuild the counts without response i, smoothing every slot including the other-answer slot
+            List<ISurveyResponse> others = new ArrayList<ISurveyResponse>(responses);
+            others.remove(i);
+            FrequencyTable table = FrequencyTable.makeFrequencyTable(index, others, false);
+            double expected = 0.0;
+            for (IQuestionResponse qr : responses.get(i).getResponses()) {
+                int q = index.getQuestionOrdinal(qr.getQuestion());
+                for (OptTuple optTuple : qr.getOpts()) {
+                    int o = index.getOptionOrdinal(q, optTuple.c);
+                    expected += Math.log((table.getCount(q, o) + 1.0)
+                            / (table.getTotal(q) + index.getNumOptions(q) + 1.0)) / Math.log(2.0);
+                }
+            }
+            assert Math.abs(scores[i] - expected) < 1e-9 : String.format("Expected %f; got %f", expected, scores[i]);
+        }
+        List<Classification> classifications = QCMetrics.classifyAll(survey1, responses, Classifier.LPO, false, 0.05);
+        assert classifications.size() == responses.size();
+        for (int i = 0 ; i < responses.size() ; i++)
+            assert classifications.get(i).score == scores[i];
+    }
+
+    @Test
+    public void testLeaveOneOutWithdrawsOwnAnswers() throws SurveyException, IOException {
+        Survey survey1 = makeFlatSurvey();
+        SurveyIndex index = new SurveyIndex(survey1);
+        // a lone respondent leaves nobody else, so every answer only has its smoothing count
+        List<ISurveyResponse> alone = simulateResponses(survey1, 1).subList(0, 1);
+        double expected = 0.0;
+        for (IQuestionResponse qr : alone.get(0).getResponses()) {
+            int q = index.getQuestionOrdinal(qr.getQuestion());
+            expected += qr.getOpts().size() * QCMetrics.log2(1.0 / (index.getNumOptions(q) + 1));
+        }
+        double score = QCMetrics.calculateLeaveOneOutScores(alone,
+                FrequencyTable.makeFrequencyTable(index, alone, false))[0];
+        assert Math.abs(score - expected) < 1e-9 : String.format("Expected %f; got %f", expected, score);
+        // the counts may come from any model of the same responses
+        List<ISurveyResponse> responses = simulateResponses(survey1, 10);
+        double[] scores = QCMetrics.calculateLeaveOneOutScores(responses,
+                FrequencyTable.makeFrequencyTable(index, responses, false));
+        IncrementalFrequencyModel model = new IncrementalFrequencyModel(index, true);
+        for (ISurveyResponse sr : responses)
+            model.add(sr);
+        List<double[]> others = Arrays.asList(
+                QCMetrics.calculateScores(responses, model, Classifier.LPO),
+                QCMetrics.calculateScores(responses,
+                        new ProbabilityTable(FrequencyTable.makeFrequencyTable(index, responses, true)), Classifier.LPO),
+                QCMetrics.calculateScores(responses, (Map<String, Map<String, Double>>) null, Classifier.LPO));
+        for (double[] other : others)
+            for (int i = 0 ; i < scores.length ; i++)
+                assert Math.abs(scores[i] - other[i]) < 1e-9 : String.format("Expected %f; got %f", scores[i], other[i]);
+    }
+
+    @Test
+    public void testFrequencyTable() throws SurveyException, IOException {
+        Survey survey1 = makeFlatSurvey();
+        List<ISurveyResponse> responses = simulateResponses(survey1, 10);
+        FrequencyTable frequencyTable = FrequencyTable.makeFrequencyTable(new SurveyIndex(survey1), responses, false);
+        ProbabilityTable probabilityTable = new ProbabilityTable(frequencyTable);
+        Map<String, Map<String, Integer>> frequencies = QCMetrics.makeFrequencies(responses);
+        Map<String, Map<String, Double>> probabilities = QCMetrics.makeProbabilities(frequencies);
+        assert frequencyTable.toMap().equals(frequencies);
+        assert probabilityTable.toMap().equals(probabilities);
+        for (ISurveyResponse sr : responses) {
+            assert QCMetrics.getLLForResponse(sr, probabilityTable) == QCMetrics.getLLForResponse(sr, probabilities);
+            assert QCMetrics.getEntropyForResponse(sr, probabilityTable) == QCMetrics.getEntropyForResponse(sr, probabilities);
+        }
+    }
+
+    @Test
+    public void testCompactSurveyResponse() throws SurveyException, IOException {
+        Survey survey1 = makeFlatSurvey();
+        for (ISurveyResponse sr : simulateResponses(survey1, 5)) {
+            assert sr instanceof CompactSurveyResponse;
+            List<IQuestionResponse> questionResponses = sr.getResponses();
+            assert questionResponses.size() == survey1.questions.size();
+            assert sr.resultsAsMap().size() == survey1.questions.size();
+            for (int i = 0 ; i < questionResponses.size() ; i++) {
+                IQuestionResponse qr = questionResponses.get(i);
+                assert qr.getIndexSeen() == i;
+                assert qr.getOpts().size() == 1;
+                OptTuple optTuple = qr.getOpts().get(0);
+                assert qr.getQuestion().options.containsValue(optTuple.c);
+                assert optTuple.i >= 0 && optTuple.i < qr.getQuestion().options.size();
+            }
+        }
+        CompactSurveyResponse sr = (CompactSurveyResponse) simulateResponses(survey1, 1).get(0);
+        assert sr.isIndexedBy(new SurveyIndex(survey1));
+        // an index built after the survey changed numbers its questions differently
+        survey1.questions.add(survey1.questions.remove(0));
+        assert !sr.isIndexedBy(new SurveyIndex(survey1));
+    }
+
+    @Test
+    public void testIncrementalFrequencyModel() throws SurveyException, IOException {
+        Survey survey1 = makeFlatSurvey();
+        SurveyIndex index = new SurveyIndex(survey1);
+        List<ISurveyResponse> responses = simulateResponses(survey1, 10);
+        IncrementalFrequencyModel model = new IncrementalFrequencyModel(index, true);
+        for (ISurveyResponse sr : responses)
+            model.add(sr);
+        ISurveyResponse withdrawn = responses.remove(0);
+        model.remove(withdrawn);
+        ProbabilityTable batch = new ProbabilityTable(FrequencyTable.makeFrequencyTable(index, responses, true));
+        assert model.size() == responses.size();
+        assert model.toProbabilityTable().toMap().equals(batch.toMap());
+        for (ISurveyResponse sr : responses)
+            assert model.score(sr, Classifier.LOG_LIKELIHOOD) == QCMetrics.getLLForResponse(sr, batch);
+    }
+
+    @Test
+    public void testFrequencyTableRemoveIsAtomic() throws SurveyException, IOException {
+        SurveyIndex index = new SurveyIndex(makeFlatSurvey());
+        int[] questions = {0, 1};
+        int[] offsets = {0, 1, 2};
+        int[] positions = {-1, -1};
+        ISurveyResponse counted = new CompactSurveyResponse(index, questions, offsets, new int[]{0, 0}, positions, null);
+        // the same first answer as the counted response, but a second answer that was never counted
+        ISurveyResponse uncounted = new CompactSurveyResponse(index, questions, offsets, new int[]{0, 1}, positions,
+                null);
+        FrequencyTable table = FrequencyTable.makeFrequencyTable(index, Arrays.asList(counted), false);
+        Map<String, Map<String, Integer>> before = table.toMap();
+        try {
+            table.remove(uncounted);
+            assert false : "Expected the removal to fail";
+        } catch (RuntimeException e) {
+            assert table.toMap().equals(before) : "A failed removal changed the table";
+        }
+        table.remove(counted);
+        assert table.toMap().isEmpty();
+    }
+
+    @Test
+    public void testSurveyEntropy() throws SurveyException, IOException {
+        // a survey with a single path: the entropy is the sum of the per-answer p log p terms
+        Survey survey1 = makeFlatSurvey();
+        List<ISurveyResponse> responses = simulateResponses(survey1, 10);
+        double expected = 0.0;
+        for (Map<String, Integer> counts : QCMetrics.makeFrequencies(responses).values()) {
+            for (int count : counts.values()) {
+                double p = count / (double) responses.size();
+                expected -= p * QCMetrics.log2(p);
+            }
+        }
+        double entropy = QCMetrics.surveyEntropy(survey1, responses);
+        assert Math.abs(entropy - expected) < 1e-9 : String.format("Expected entropy %f; got %f", expected, entropy);
+    }
+
+    @Test
+    public void testDistributions() {
+        assert Math.abs(Distributions.normalQuantile(0.975) - 1.959964) < 1e-6;
+        assert Math.abs(Distributions.chiSquaredSurvival(3.841459, 1) - 0.05) < 1e-6;
+        assert Math.abs(Distributions.chiSquaredSurvival(9.487729, 4) - 0.05) < 1e-6;
+        assert Math.abs(Distributions.studentTTwoSided(2.228139, 10) - 0.05) < 1e-6;
+    }
+
+    @Test
+    public void testFalseCorrelation() throws SurveyException, IOException {
+        Survey survey1 = makeFlatSurvey();
+        List<ISurveyResponse> responses = simulateResponses(survey1, 50);
+        List<Correlation> correlations = new PairwiseCorrelations(new SurveyIndex(survey1), responses).correlateAll();
+        // four questions give six pairs
+        assert correlations.size() == 6 : "Expected 6 correlations; got " + correlations.size();
+        for (Correlation c : correlations)
+            assert c.pValue >= 0.0 && c.pValue <= 1.0 && c.coefficient >= 0.0 : c.toString();
+        double p = QCMetrics.getProbabilityOfFalseCorrelation(survey1, 100, 0.05);
+        assert p >= 0.0 && p <= 1.0;
+    }
+
+    @Test
+    public void testBootstrapIsDeterministic() {
+        double[] scores = new double[1000];
+        Random rng = new Random(1);
+        for (int i = 0 ; i < scores.length ; i++)
+            scores[i] = rng.nextGaussian();
+        double[] means1, means2;
+        ForkJoinPool single = new ForkJoinPool(1);
+        ForkJoinPool four = new ForkJoinPool(4);
+        try {
+            means1 = new Bootstrap(scores, single).sampleMeans(500, 42L);
+            means2 = new Bootstrap(scores, four).sampleMeans(500, 42L);
+        } finally {
+            single.shutdown();
+            four.shutdown();
+        }
+        assert Arrays.equals(means1, means2) : "Bootstrap means should not depend on the number of workers.";
+    }
+
+    @Test
+    public void testSeededSimulationIsReproducible() throws SurveyException, IOException {
+        Survey pathSurvey = parseSurveyFile("data/tests/pathTest.csv");
+        List<ISurveyResponse> responses1 = Simulation.simulate(pathSurvey, 50, 0.5, new RandomSource(7L));
+        List<ISurveyResponse> responses2 = Simulation.simulate(pathSurvey, 50, 0.5, new RandomSource(7L));
+        assert responses1.size() == responses2.size();
+        for (int i = 0 ; i < responses1.size() ; i++) {
+            List<IQuestionResponse> qrs1 = responses1.get(i).getResponses();
+            List<IQuestionResponse> qrs2 = responses2.get(i).getResponses();
+            assert qrs1.size() == qrs2.size();
+            for (int j = 0 ; j < qrs1.size() ; j++) {
+                assert qrs1.get(j).getQuestion() == qrs2.get(j).getQuestion();
+                assert qrs1.get(j).getOpts().equals(qrs2.get(j).getOpts());
+            }
+        }
+    }
+
+    @Test
+    public void testParallelSimulation() throws SurveyException, IOException {
+        Survey pathSurvey = parseSurveyFile("data/tests/pathTest.csv");
+        List<ISurveyResponse> sequential, parallel;
+        // 150 responses leave a partial last chunk, and the random respondents end inside a chunk
+        ForkJoinPool single = new ForkJoinPool(1);
+        ForkJoinPool four = new ForkJoinPool(4);
+        try {
+            sequential = Simulation.simulate(pathSurvey, 150, 0.3, new RandomSource(7L), 1, single);
+            parallel = Simulation.simulate(pathSurvey, 150, 0.3, new RandomSource(7L), 1, four);
+        } finally {
+            single.shutdown();
+            four.shutdown();
+        }
+        assert parallel.size() == 150;
+        Set<String> srids = new HashSet<String>();
+        for (int i = 0 ; i < parallel.size() ; i++) {
+            ISurveyResponse sr = parallel.get(i);
+            assert srids.add(sr.getSrid()) : "Duplicate response id " + sr.getSrid();
+            assert sr.getKnownValidityStatus() == (i < 45 ? KnownValidityStatus.NO : KnownValidityStatus.YES);
+            List<IQuestionResponse> qrs1 = sequential.get(i).getResponses();
+            List<IQuestionResponse> qrs2 = sr.getResponses();
+            assert qrs1.size() == qrs2.size();
+            for (int j = 0 ; j < qrs1.size() ; j++) {
+                assert qrs1.get(j).getQuestion() == qrs2.get(j).getQuestion();
+                assert qrs1.get(j).getOpts().equals(qrs2.get(j).getOpts());
+            }
+        }
+    }
+
+    @Test
+    public void testResponsePoolSweep() throws SurveyException, IOException {
+        Survey survey1 = makeFlatSurvey();
+        Simulation.ResponsePool pool = Simulation.simulatePool(survey1, 40, new RandomSource(3L));
+        List<ISurveyResponse> mixture = pool.mixture(40, 0.25);
+        assert mixture.size() == 40;
+        for (int i = 0 ; i < mixture.size() ; i++)
+            assert mixture.get(i).getKnownValidityStatus() ==
+                    (i < 10 ? KnownValidityStatus.NO : KnownValidityStatus.YES);
+        assert Simulation.sweep(pool, 40, 0.25, Classifier.LOG_LIKELIHOOD).size() == 5;
+    }
+
+    @Test
+    public void testROCCurve() throws SurveyException, IOException {
+        double[] scores = {-1.0, -2.0, -2.0, -3.0, -4.0};
+        boolean[] valid = {true, true, false, false, true};
+        ROCCurve curve = new ROCCurve(Classifier.LOG_LIKELIHOOD, scores, valid);
+        assert curve.positives == 3 && curve.negatives == 2;
+        assert curve.size() == 5;
+        // the valid responses beat the invalid ones in 3.5 of the 6 pairs
+        assert Math.abs(curve.auc - 3.5 / 6.0) < 1e-9 : curve.auc;
+        ROCCurve.Point point = curve.pointAt(-2.5);
+        assert point.truePositive == 2 && point.falsePositive == 1
+                && point.trueNegative == 1 && point.falseNegative == 1;
+        assert curve.getPoint(curve.size() - 1).truePositive == 3;
+        // entropy classifiers accept low scores, so negated scores give the same curve
+        for (int i = 0 ; i < scores.length ; i++)
+            scores[i] = -scores[i];
+        assert Math.abs(new ROCCurve(Classifier.ENTROPY, scores, valid).auc - curve.auc) < 1e-9;
+        // a response that cannot be classified is accepted at every threshold
+        boolean[] enoughVariation = {true, true, true, false, true};
+        ROCCurve exempt = new ROCCurve(Classifier.ENTROPY, scores, valid, enoughVariation);
+        point = exempt.pointAt(2.5);
+        assert point.truePositive == 2 && point.falsePositive == 2
+                && point.trueNegative == 0 && point.falseNegative == 1;
+        Simulation.ResponsePool pool = Simulation.simulatePool(makeFlatSurvey(), 40, new RandomSource(3L));
+        List<ISurveyResponse> mixture = pool.mixture(40, 0.5);
+        ROCCurve simulated = Simulation.rocCurve(pool.survey, mixture, Classifier.LOG_LIKELIHOOD);
+        assert simulated.positives == 20 && simulated.negatives == 20;
+        ROCCurve.Point operatingPoint = simulated.operatingPoint(0.05, 11L);
+        assert operatingPoint.truePositive + operatingPoint.falseNegative == 20;
+        // the operating point counts the same classifications as classifyAll
+        int truePositive = 0, falsePositive = 0;
+        for (Classification c : QCMetrics.classifyAll(pool.survey, mixture, Classifier.LOG_LIKELIHOOD, false, 0.05, 11L))
+            if (c.valid) {
+                if (c.surveyResponse.getKnownValidityStatus() == KnownValidityStatus.YES)
+                    truePositive++;
+                else falsePositive++;
+            }
+        assert operatingPoint.truePositive == truePositive && operatingPoint.falsePositive == falsePositive;
+    }
+
     @Test
     public void testNonRandomRespondentFrequencies() {
 //        AbstractRespondent profile = new NonRandomRespondent(survey);
@@ -21,6 +21,7 @@ import java.lang.reflect.InvocationTargetException;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.regex.Pattern;
 
 @RunWith(JUnit4.class)
 public class RespondentTest extends TestLog {
@@ -41,7 +42,8 @@ public class RespondentTest extends TestLog {
         for (int i = 0 ; i < super.testsFiles.length ; i ++) {
             try {
                 Survey survey = new CSVParser(new CSVLexer(super.testsFiles[i], String.valueOf(super.separators[i]))).parse();
-                RandomRespondent randomRespondent = new RandomRespondent(survey, RandomRespondent.AdversaryType.UNIFORM);
+                RandomRespondent randomRespondent = new RandomRespondent(new CompiledSurvey(survey),
+                        RandomRespondent.AdversaryType.UNIFORM);
                 ISurveyResponse surveyResponse = randomRespondent.getResponse();
                 // assert that we don't deviate more than what's expected
                 double posPref  =   0.0,
@@ -91,7 +93,7 @@ public class RespondentTest extends TestLog {
         Survey survey1 = new CSVParser(new CSVLexer(surveyReader)).parse();
         assert survey1.questions.size() == 5;
         // 32 possible answers
-        NonRandomRespondent profile = new NonRandomRespondent(survey1);
+        NonRandomRespondent profile = new NonRandomRespondent(new CompiledSurvey(survey1));
         assert profile.answers.size() == 5 : "Expected answer set size 5; got " + profile.answers.size();
         assert profile.strength.size() == 5 : "Expected string size 5; got " + profile.strength.size();
         LOGGER.debug("Preference Profile:");
@@ -129,17 +131,124 @@ public class RespondentTest extends TestLog {
         // They should be nonrandom, but they should also not be exactly the same.
     }
 
+    @Test
+    public void testPositionPreferences() throws SurveyException, IOException {
+        LOGGER.info("Executing testPositionPreferences.");
+        Survey survey1 = parseSurvey("question,options\nq1,a\n,b\n,c");
+        CompiledSurvey plan = new CompiledSurvey(survey1);
+        double eps = 1e-9;
+        PositionPreferences inner = PositionPreferences.get(plan, RandomRespondent.AdversaryType.INNER);
+        assert inner == PositionPreferences.get(plan, RandomRespondent.AdversaryType.INNER);
+        // the raw inner preferences are [1/3, 4/3, 1/3]; scanning the cumulative sum truncates them at 1
+        assert Math.abs(inner.getProbability(0, 0) - 1.0 / 3) < eps;
+        assert Math.abs(inner.getProbability(0, 1) - 2.0 / 3) < eps;
+        assert inner.getProbability(0, 2) < eps;
+        PositionPreferences uniform = PositionPreferences.get(plan, RandomRespondent.AdversaryType.UNIFORM);
+        for (int o = 0 ; o < 3 ; o++)
+            assert Math.abs(uniform.getProbability(0, o) - 1.0 / 3) < eps;
+        PositionPreferences first = PositionPreferences.get(plan, RandomRespondent.AdversaryType.FIRST);
+        RandomSource rng = new RandomSource(11L);
+        for (int i = 0 ; i < 100 ; i++)
+            assert first.sample(0, rng) == 0;
+    }
+
+    @Test
+    public void testWideCheckboxQuestions() throws SurveyException, IOException {
+        LOGGER.info("Executing testWideCheckboxQuestions.");
+        StringBuilder csv = new StringBuilder("question,options,exclusive\n");
+        for (int q = 0 ; q < 2 ; q++) {
+            int numOptions = q == 0 ? 40 : 70;
+            csv.append("wide").append(q).append(",o0,false\n");
+            for (int o = 1 ; o < numOptions ; o++)
+                csv.append(",o").append(o).append(",\n");
+        }
+        Survey survey1 = parseSurvey(csv.toString());
+        CompiledSurvey plan = new CompiledSurvey(survey1);
+        RandomSource rng = new RandomSource(5L);
+        for (int i = 0 ; i < 50 ; i++) {
+            ISurveyResponse sr = new RandomRespondent(plan, RandomRespondent.AdversaryType.UNIFORM, rng).getResponse();
+            assert sr.getResponses().size() == 2;
+            for (IQuestionResponse qr : sr.getResponses()) {
+                List<OptTuple> opts = qr.getOpts();
+                assert !opts.isEmpty() && opts.size() < qr.getQuestion().options.size();
+                for (OptTuple optTuple : opts)
+                    assert qr.getQuestion().options.containsValue(optTuple.c);
+            }
+        }
+        ISurveyResponse last = new RandomRespondent(plan, RandomRespondent.AdversaryType.LAST, rng).getResponse();
+        for (IQuestionResponse qr : last.getResponses()) {
+            // the last outcome selects every option except the one displayed last
+            assert qr.getOpts().size() == qr.getQuestion().options.size() - 1;
+            for (OptTuple optTuple : qr.getOpts())
+                assert optTuple.i < qr.getQuestion().options.size() - 1;
+        }
+    }
+
+    @Test
+    public void testFreetextGenerator() {
+        LOGGER.info("Executing testFreetextGenerator.");
+        String[] regexes = {"[a-z]+", "\\d{3}-\\d{4}", "(yes|no|maybe)", "[^aeiou ]{2,5}\\s?\\w*",
+                "^(?:[A-Z][a-z]*\\.?)+$", "\\Q1+1\\E=\\x32", "a.c?"};
+        RandomSource rng = new RandomSource(11L);
+        for (String regex : regexes) {
+            Pattern pattern = Pattern.compile(regex);
+            assert FreetextGenerator.forPattern(pattern) != null : String.format("Pattern %s should compile", regex);
+            for (int i = 0 ; i < 50 ; i++) {
+                String s = FreetextGenerator.generate(pattern, rng);
+                assert pattern.matcher(s).matches() : String.format("%s does not match %s", s, regex);
+            }
+        }
+        // unsupported constructs are left to the fallback
+        assert FreetextGenerator.forPattern(Pattern.compile("(a)\\1")) == null;
+        assert FreetextGenerator.forPattern(Pattern.compile("\\bfoo")) == null;
+    }
+
+    @Test
+    public void testProfileMixture() throws SurveyException, IOException {
+        LOGGER.info("Executing testProfileMixture.");
+        Survey survey = parseSurveyFile("./src/test/resources/pick_randomly.csv");
+        CompiledSurvey plan = new CompiledSurvey(survey);
+        RandomSource rng = new RandomSource(3L);
+        ProfileMixture mixture = new ProfileMixture(plan, new double[]{ 3.0, 1.0 }, rng);
+        assert mixture.getNumClusters() == 2;
+        assert Math.abs(mixture.getWeight(0) - 0.75) < 1e-9 && Math.abs(mixture.getWeight(1) - 0.25) < 1e-9;
+        for (int k = 0 ; k < mixture.getNumClusters() ; k++) {
+            NonRandomRespondent profile = mixture.getProfile(k);
+            for (Map.Entry<Question, Component> entry : profile.answers.entrySet()) {
+                int q = plan.index.getQuestionOrdinal(entry.getKey());
+                double total = 0.0;
+                for (int o = 0 ; o < plan.index.getNumOptions(q) ; o++)
+                    total += profile.getProbability(q, o);
+                assert Math.abs(total - 1.0) < 1e-9;
+                int preferred = plan.index.getOptionOrdinal(q, entry.getValue());
+                assert Math.abs(profile.getProbability(q, preferred) - profile.strength.get(entry.getValue())) < 1e-9;
+            }
+        }
+        for (int i = 0 ; i < 20 ; i++)
+            assert mixture.getResponse().getResponses().size() > 0;
+        // a reused interpreter gives the same responses as a new interpreter per response
+        FastInterpreter interpreter = new FastInterpreter(plan, rng);
+        for (int i = 0 ; i < 20 ; i++) {
+            List<IQuestionResponse> expected = mixture.getResponse(new RandomSource(i)).getResponses();
+            List<IQuestionResponse> actual = mixture.getResponse(interpreter, new RandomSource(i)).getResponses();
+            assert expected.size() == actual.size();
+            for (int j = 0 ; j < expected.size() ; j++)
+                assert expected.get(j).getOpts().get(0).c == actual.get(j).getOpts().get(0).c;
+        }
+    }
+
     @Test
     public void testNonRandomRespondent() throws InvocationTargetException, SurveyException, IllegalAccessException,
             NoSuchMethodException, IOException {
         LOGGER.info("Executing testNonRandomRespondent.");
         Survey survey = new CSVParser(new CSVLexer("./src/test/resources/pick_randomly.csv", ",")).parse();
-        AbstractRespondent profile = new NonRandomRespondent(survey);
+        CompiledSurvey plan = new CompiledSurvey(survey);
+        AbstractRespondent profile = new NonRandomRespondent(plan);
         ISurveyResponse sr1 = profile.getResponse();
         ISurveyResponse sr2 = profile.getResponse();
         ISurveyResponse sr3 = profile.getResponse();
-        ISurveyResponse sr4 = new RandomRespondent(survey, RandomRespondent.AdversaryType.UNIFORM).getResponse();
-        ISurveyResponse sr5 = new RandomRespondent(survey, RandomRespondent.AdversaryType.FIRST).getResponse();
+        ISurveyResponse sr4 = new RandomRespondent(plan, RandomRespondent.AdversaryType.UNIFORM).getResponse();
+        ISurveyResponse sr5 = new RandomRespondent(plan, RandomRespondent.AdversaryType.FIRST).getResponse();
         ISurveyResponse sr6 = profile.getResponse();
         ISurveyResponse sr7 = profile.getResponse();
         LOGGER.info("Generated 4 profiled responses, 1 uniform response, 1 first position preference");
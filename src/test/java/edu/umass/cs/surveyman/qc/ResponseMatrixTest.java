@@ -0,0 +1,65 @@
+package edu.umass.cs.surveyman.qc;
+
+import edu.umass.cs.surveyman.TestLog;
+import edu.umass.cs.surveyman.analyses.ISurveyResponse;
+import edu.umass.cs.surveyman.input.exceptions.SyntaxException;
+import edu.umass.cs.surveyman.survey.Survey;
+import edu.umass.cs.surveyman.survey.exceptions.SurveyException;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.IOException;
+import java.util.List;
+
+@RunWith(JUnit4.class)
+public class ResponseMatrixTest extends TestLog {
+
+    public ResponseMatrixTest() throws IOException, SyntaxException {
+        super.init(this.getClass());
+    }
+
+    @Test
+    public void testResponseMatrix() throws SurveyException, IOException {
+        Survey survey1 = makeFlatSurvey();
+        SurveyIndex index = new SurveyIndex(survey1);
+        List<ISurveyResponse> responses = simulateResponses(survey1, 20);
+        // one respondent selects two options of the first question and skips the rest
+        responses.add(new CompactSurveyResponse(index, new int[]{ 0 }, new int[]{ 0, 2 }, new int[]{ 2, 0 },
+                new int[]{ 1, 0 }, null));
+        ResponseMatrix matrix = new ResponseMatrix(index, responses);
+        assert matrix.size() == responses.size();
+        int last = responses.size() - 1;
+        assert matrix.getAnswer(last, 0) == ResponseMatrix.MULTIPLE && matrix.getNumSelected(last, 0) == 2;
+        assert matrix.isSelected(last, 0, 0) && !matrix.isSelected(last, 0, 1) && matrix.isSelected(last, 0, 2);
+        assert matrix.getAnswer(last, 1) == ResponseMatrix.UNANSWERED && matrix.getIndexSeen(last, 1) == -1;
+        FrequencyTable frequencies = FrequencyTable.makeFrequencyTable(index, responses, false);
+        assert FrequencyTable.makeFrequencyTable(matrix, false).toMap().equals(frequencies.toMap());
+        ProbabilityTable probabilities = new ProbabilityTable(frequencies);
+        for (Classifier classifier : Classifier.values()) {
+            double[] expected = QCMetrics.calculateScores(responses, probabilities, classifier);
+            double[] scores = QCMetrics.calculateScores(matrix, probabilities, classifier);
+            for (int r = 0 ; r < scores.length ; r++)
+                assert Math.abs(scores[r] - expected[r]) < 1e-9 :
+                        String.format("%s: expected %f; got %f", classifier.name(), expected[r], scores[r]);
+            List<Classification> classifications = QCMetrics.classifyAll(matrix, probabilities, classifier, 0.05, 7L);
+            List<Classification> expectedClassifications = QCMetrics.classifyAll(responses, probabilities,
+                    classifier, 0.05, 7L);
+            for (int r = 0 ; r < scores.length ; r++)
+                assert classifications.get(r).valid == expectedClassifications.get(r).valid;
+        }
+        double entropy = QCMetrics.surveyEntropy(matrix);
+        assert Math.abs(entropy - QCMetrics.surveyEntropy(survey1, responses)) < 1e-9;
+        for (int r = 0 ; r < matrix.size() ; r++) {
+            CompactSurveyResponse row = matrix.getResponse(r);
+            assert row.getSrid().equals(responses.get(r).getSrid());
+            assert Math.abs(QCMetrics.getLLForResponse(row, probabilities)
+                    - QCMetrics.getLLForResponse(matrix, r, probabilities)) < 1e-9;
+        }
+        long[][] footprints = matrix.getFootprints(new BlockGraph(survey1));
+        assert footprints.length == matrix.size() && footprints[0][0] != 0;
+        assert matrix.isIndexedBy(new SurveyIndex(survey1));
+        survey1.questions.add(survey1.questions.remove(0));
+        assert !matrix.isIndexedBy(new SurveyIndex(survey1));
+    }
+}
@@ -0,0 +1,78 @@
+package edu.umass.cs.surveyman.qc;
+
+import edu.umass.cs.surveyman.TestLog;
+import edu.umass.cs.surveyman.analyses.ISurveyResponse;
+import edu.umass.cs.surveyman.analyses.KnownValidityStatus;
+import edu.umass.cs.surveyman.analyses.ResultsLoader;
+import edu.umass.cs.surveyman.input.exceptions.SyntaxException;
+import edu.umass.cs.surveyman.survey.Survey;
+import edu.umass.cs.surveyman.survey.exceptions.SurveyException;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+
+@RunWith(JUnit4.class)
+public class ResponseSnapshotTest extends TestLog {
+
+    public ResponseSnapshotTest() throws IOException, SyntaxException {
+        super.init(this.getClass());
+    }
+
+    @Test
+    public void testResponseSnapshot() throws SurveyException, IOException {
+        Survey survey1 = parseSurveyFile("data/samples/prototypicality.csv");
+        SurveyIndex index = new SurveyIndex(survey1);
+        File snapshot = File.createTempFile("prototypicality", ".smr");
+        snapshot.deleteOnExit();
+        ResponseMatrix written = ResponseSnapshot.convert(index,
+                new File("data/results/prototypicality_results.csv"), snapshot);
+        assert written.size() > 0 && ResponseSnapshot.isSnapshot(snapshot);
+        ResponseMatrix read = ResponseSnapshot.read(new SurveyIndex(survey1), snapshot);
+        assert read.size() == written.size();
+        for (int r = 0 ; r < read.size() ; r++) {
+            assert read.getSrid(r).equals(written.getSrid(r)) && read.getWorkerId(r).equals(written.getWorkerId(r));
+            for (int q = 0 ; q < index.getNumQuestions() ; q++) {
+                assert read.getAnswer(r, q) == written.getAnswer(r, q);
+                assert read.getIndexSeen(r, q) == written.getIndexSeen(r, q);
+                assert read.getPosition(r, q) == written.getPosition(r, q);
+                assert read.getNumSelected(r, q) == written.getNumSelected(r, q);
+                assert (read.getOther(r, q) == null) == (written.getOther(r, q) == null);
+            }
+        }
+        ProbabilityTable probabilities = new ProbabilityTable(FrequencyTable.makeFrequencyTable(written, false));
+        assert Arrays.equals(QCMetrics.calculateScores(read, probabilities, Classifier.LOG_LIKELIHOOD),
+                QCMetrics.calculateScores(written, probabilities, Classifier.LOG_LIKELIHOOD));
+        // the loader recognizes snapshots
+        ResultsLoader loader = new ResultsLoader(index);
+        assert loader.load(snapshot).get(0).failure == null && loader.getResponses().size() == written.size();
+        try {
+            ResponseSnapshot.read(index, ByteBuffer.wrap(new byte[]{ 'S', 'M', 'R', 'S', 1 }));
+            assert false : "Expected a truncated snapshot to be rejected";
+        } catch (SyntaxException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testResponseSnapshotValidityStatus() throws SurveyException, IOException {
+        Survey survey1 = makeFlatSurvey();
+        SurveyIndex index = new SurveyIndex(survey1);
+        List<ISurveyResponse> responses = simulateResponses(survey1, 2);
+        responses.get(0).setKnownValidityStatus(null);
+        responses.get(1).setKnownValidityStatus(KnownValidityStatus.NO);
+        responses.get(2).setKnownValidityStatus(KnownValidityStatus.YES);
+        ResponseMatrix written = new ResponseMatrix(index, responses);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ResponseSnapshot.write(written, out);
+        ResponseMatrix read = ResponseSnapshot.read(index, ByteBuffer.wrap(out.toByteArray()));
+        for (int r = 0 ; r < responses.size() ; r++)
+            assert read.getKnownValidityStatus(r) == responses.get(r).getKnownValidityStatus();
+    }
+}